@@ -1,13 +1,35 @@
 package com.example.controller;
 
+import com.example.service.BandwidthLimiter;
+import com.example.service.BlockingTaskExecutor;
+import com.example.service.DownloadCacheService;
+import com.example.service.DownloadProgressPublisher;
 import com.example.service.FileDownloadService;
 import com.example.service.FileSearchService;
-import org.springframework.core.io.Resource;
+import com.example.service.IntegrityCheck;
+import com.example.service.LocalFileResponder;
+import com.example.service.ZipExportService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/agent")
@@ -16,61 +38,79 @@ public class AgentController {
 
     private final FileSearchService fileSearchService;
     private final FileDownloadService fileDownloadService;
+    private final DownloadCacheService downloadCacheService;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final DownloadProgressPublisher progressPublisher;
+    private final LocalFileResponder localFileResponder;
+    private final ZipExportService zipExportService;
+    private final BlockingTaskExecutor blockingExecutor;
 
-    public AgentController(FileSearchService fileSearchService, FileDownloadService fileDownloadService) {
+    public AgentController(FileSearchService fileSearchService, FileDownloadService fileDownloadService,
+                           DownloadCacheService downloadCacheService, BandwidthLimiter bandwidthLimiter,
+                           DownloadProgressPublisher progressPublisher, LocalFileResponder localFileResponder,
+                           ZipExportService zipExportService, BlockingTaskExecutor blockingExecutor) {
         this.fileSearchService = fileSearchService;
         this.fileDownloadService = fileDownloadService;
+        this.downloadCacheService = downloadCacheService;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.progressPublisher = progressPublisher;
+        this.localFileResponder = localFileResponder;
+        this.zipExportService = zipExportService;
+        this.blockingExecutor = blockingExecutor;
     }
 
     // ==================== 文件搜索相关接口 ====================
+    // 目录遍历和读文件在阻塞线程池中执行，不占用请求线程
 
     /**
      * 搜索文件
      */
     @GetMapping("/search/files")
-    public List<FileSearchService.FileInfo> searchFiles(
+    public CompletableFuture<List<FileSearchService.FileInfo>> searchFiles(
             @RequestParam String query,
             @RequestParam(required = false, defaultValue = ".") String basePath) {
-        return fileSearchService.searchFiles(query, basePath);
+        return blockingExecutor.supply(() -> fileSearchService.searchFiles(query, basePath));
     }
 
     /**
      * 搜索文件内容
      */
     @GetMapping("/search/content")
-    public List<FileSearchService.FileContentMatch> searchFileContent(
+    public CompletableFuture<List<FileSearchService.FileContentMatch>> searchFileContent(
             @RequestParam String query,
             @RequestParam(required = false, defaultValue = ".") String basePath) {
-        return fileSearchService.searchFileContent(query, basePath);
+        return blockingExecutor.supply(() -> fileSearchService.searchFileContent(query, basePath));
     }
 
     /**
      * 列出目录文件
      */
     @GetMapping("/files/list")
-    public List<FileSearchService.FileInfo> listFiles(
+    public CompletableFuture<List<FileSearchService.FileInfo>> listFiles(
             @RequestParam(required = false, defaultValue = ".") String directory) {
-        return fileSearchService.listFiles(directory);
+        return blockingExecutor.supply(() -> fileSearchService.listFiles(directory));
     }
 
     /**
      * 读取文件内容
      */
     @GetMapping("/files/content")
-    public Map<String, Object> readFileContent(@RequestParam String filePath) {
-        String content = fileSearchService.readFileContent(filePath);
-        if (content != null) {
-            return Map.of(
-                    "success", true,
-                    "filePath", filePath,
-                    "content", content
-            );
-        } else {
-            return Map.of(
-                    "success", false,
-                    "error", "无法读取文件内容"
-            );
-        }
+    public CompletableFuture<Map<String, Object>> readFileContent(@RequestParam String filePath) {
+        return blockingExecutor.supply(() -> {
+            String content = fileSearchService.readFileContent(filePath);
+            if (content != null) {
+                return Map.of(
+                        "success", true,
+                        "filePath", filePath,
+                        "content", content
+                );
+            } else {
+                return Map.of(
+                        "success", false,
+                        "error", "无法读取文件内容"
+                );
+            }
+        });
     }
 
     // ==================== 文件下载相关接口 ====================
@@ -79,30 +119,60 @@ public class AgentController {
      * 开始下载文件
      */
     @PostMapping("/download/start")
-    public FileDownloadService.DownloadTask startDownload(@RequestBody Map<String, String> request) {
-        String url = request.get("url");
-        String targetDirectory = request.getOrDefault("targetDirectory", "./downloads");
+    public FileDownloadService.DownloadTask startDownload(@RequestBody Map<String, Object> request) {
+        String url = (String) request.get("url");
+        String targetDirectory = (String) request.getOrDefault("targetDirectory", "./downloads");
         
         if (url == null || url.trim().isEmpty()) {
-            throw new IllegalArgumentException("URL is required");
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "URL is required");
         }
+        FileDownloadService.DownloadPriority priority = parsePriority(String.valueOf(request.getOrDefault("priority", "INTERACTIVE")));
         
-        return fileDownloadService.downloadFile(url, targetDirectory);
+        try {
+            return fileDownloadService.downloadFile(url, targetDirectory, priority, parseIntegrityCheck(request));
+        } catch (IllegalArgumentException e) {
+            // 不支持的地址或摘要格式
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private static FileDownloadService.DownloadPriority parsePriority(String value) {
+        try {
+            return FileDownloadService.DownloadPriority.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown priority: " + value
+                    + ", allowed values: " + Arrays.toString(FileDownloadService.DownloadPriority.values()));
+        }
     }
 
     /**
      * 下载本地文件
      */
     @PostMapping("/download/local")
-    public FileDownloadService.DownloadTask downloadLocalFile(@RequestBody Map<String, String> request) {
-        String filePath = request.get("filePath");
-        String targetDirectory = request.getOrDefault("targetDirectory", "./downloads");
+    public FileDownloadService.DownloadTask downloadLocalFile(@RequestBody Map<String, Object> request) {
+        String filePath = (String) request.get("filePath");
+        String targetDirectory = (String) request.getOrDefault("targetDirectory", "./downloads");
         
         if (filePath == null || filePath.trim().isEmpty()) {
             throw new IllegalArgumentException("File path is required");
         }
         
-        return fileDownloadService.downloadLocalFile(filePath, targetDirectory);
+        return fileDownloadService.downloadLocalFile(filePath, targetDirectory, parseIntegrityCheck(request));
+    }
+
+    /**
+     * 解析请求中的期望摘要：digest 为整体摘要（如 "sha256:..."），
+     * 分段校验时另需 algorithm、segmentSize 和 segmentDigests
+     */
+    @SuppressWarnings("unchecked")
+    private IntegrityCheck parseIntegrityCheck(Map<String, Object> request) {
+        String digest = (String) request.get("digest");
+        if (request.get("segmentDigests") instanceof List<?> segments) {
+            long segmentSize = ((Number) request.get("segmentSize")).longValue();
+            String algorithm = (String) request.getOrDefault("algorithm", "sha256");
+            return IntegrityCheck.segmented(algorithm, segmentSize, (List<String>) segments, digest);
+        }
+        return digest != null && !digest.isBlank() ? IntegrityCheck.of(digest) : null;
     }
 
     /**
@@ -118,11 +188,52 @@ public class AgentController {
     }
 
     /**
-     * 获取所有下载任务
+     * 订阅单个任务的下载进度（SSE），任务结束时发送terminal事件并关闭连接
+     */
+    @GetMapping(value = "/download/progress/{taskId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<DownloadProgressPublisher.ProgressEvent>> subscribeDownloadProgress(
+            @PathVariable String taskId,
+            @RequestParam(required = false, defaultValue = "500") long intervalMs) {
+        FileDownloadService.DownloadTask task = fileDownloadService.getDownloadTask(taskId);
+        if (task == null) {
+            throw new IllegalArgumentException("Download task not found: " + taskId);
+        }
+        return progressPublisher.subscribe(task, progressInterval(intervalMs)).map(this::toServerSentEvent);
+    }
+
+    /**
+     * 订阅所有任务的下载进度（SSE）
+     */
+    @GetMapping(value = "/download/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<DownloadProgressPublisher.ProgressEvent>> subscribeAllDownloadProgress(
+            @RequestParam(required = false, defaultValue = "1000") long intervalMs) {
+        return progressPublisher.subscribeAll(progressInterval(intervalMs)).map(this::toServerSentEvent);
+    }
+
+    private Duration progressInterval(long intervalMs) {
+        return Duration.ofMillis(Math.max(intervalMs, 100));
+    }
+
+    private ServerSentEvent<DownloadProgressPublisher.ProgressEvent> toServerSentEvent(DownloadProgressPublisher.ProgressEvent event) {
+        return ServerSentEvent.builder(event)
+                .id(event.getTaskId())
+                .event(event.isTerminal() ? "terminal" : "progress")
+                .build();
+    }
+
+    /**
+     * 分页获取下载任务（最新的在前），总数通过 X-Total-Count 响应头返回
      */
     @GetMapping("/download/tasks")
-    public List<FileDownloadService.DownloadTask> getAllDownloadTasks() {
-        return fileDownloadService.getAllDownloadTasks();
+    public ResponseEntity<List<FileDownloadService.DownloadTask>> getAllDownloadTasks(
+            @RequestParam(required = false, defaultValue = "0") int page,
+            @RequestParam(required = false, defaultValue = "100") int size,
+            @RequestParam(required = false) FileDownloadService.DownloadStatus status) {
+        int pageSize = Math.max(1, Math.min(size, 1000));
+        long total = status != null ? fileDownloadService.countTasks(status) : fileDownloadService.getTaskCount();
+        return ResponseEntity.ok()
+                .header("X-Total-Count", String.valueOf(total))
+                .body(fileDownloadService.getDownloadTasks(status, page, pageSize));
     }
 
     /**
@@ -150,11 +261,97 @@ public class AgentController {
     }
 
     /**
-     * 下载本地文件
+     * 下载本地文件（支持Range断点续传和ETag/Last-Modified条件请求）
      */
     @GetMapping("/download/local")
-    public ResponseEntity<Resource> downloadLocalFile(@RequestParam String filePath) {
-        return fileDownloadService.downloadLocalFile(filePath);
+    public void downloadLocalFile(@RequestParam String filePath, HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        localFileResponder.serve(filePath, request, response);
+    }
+
+    /**
+     * 将多个文件或搜索结果打包为ZIP流式下载（不生成临时文件）
+     * 请求体：{"paths": [...]} 或 {"query": "...", "basePath": "..."}
+     */
+    @SuppressWarnings("unchecked")
+    @PostMapping("/download/zip")
+    public ResponseEntity<StreamingResponseBody> downloadZip(@RequestBody Map<String, Object> request) {
+        List<Path> files;
+        if (request.get("paths") instanceof List<?> paths) {
+            files = zipExportService.resolvePaths((List<String>) paths);
+        } else if (request.get("query") instanceof String query) {
+            String basePath = (String) request.getOrDefault("basePath", ".");
+            files = zipExportService.resolveSearch(query, basePath);
+        } else {
+            return ResponseEntity.badRequest().build();
+        }
+        if (files.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        StreamingResponseBody body = out -> zipExportService.export(files, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(zipFileName(request.get("filename")), StandardCharsets.UTF_8)
+                        .build().toString())
+                .body(body);
+    }
+
+    // 请求提供的文件名只取最后一段，去掉路径分隔符和控制字符；引号和非ASCII字符由ContentDisposition编码
+    private static String zipFileName(Object requested) {
+        String name = requested instanceof String value ? value : "";
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1)
+                .replaceAll("\\p{Cntrl}", "")
+                .trim();
+        return name.isEmpty() ? "export.zip" : name;
+    }
+
+    /**
+     * 获取下载缓存统计（命中率、节省流量）
+     */
+    @GetMapping("/download/cache/stats")
+    public Map<String, Object> getDownloadCacheStats() {
+        return downloadCacheService.getStats();
+    }
+
+    /**
+     * 获取带宽限制配置
+     */
+    @GetMapping("/download/limits")
+    public Map<String, Object> getBandwidthLimits() {
+        return bandwidthLimiter.getLimits();
+    }
+
+    /**
+     * 运行时调整带宽限制（字节/秒，0表示不限速），对进行中的任务立即生效
+     */
+    @PostMapping("/download/limits")
+    public Map<String, Object> updateBandwidthLimits(@RequestBody Map<String, Object> request) {
+        if (request.get("global") instanceof Number global) {
+            bandwidthLimiter.setGlobalLimit(global.longValue());
+        }
+        if (request.get("defaultPerHost") instanceof Number perHost) {
+            bandwidthLimiter.setDefaultHostLimit(perHost.longValue());
+        }
+        if (request.get("defaultPerTask") instanceof Number perTask) {
+            bandwidthLimiter.setDefaultTaskLimit(perTask.longValue());
+        }
+        if (request.get("hosts") instanceof Map<?, ?> hosts) {
+            hosts.forEach((host, limit) -> bandwidthLimiter.setHostLimit(String.valueOf(host), ((Number) limit).longValue()));
+        }
+        if (request.get("tasks") instanceof Map<?, ?> tasks) {
+            // 只能调整正在传输的任务；未开始的任务使用defaultPerTask
+            List<String> inactive = tasks.keySet().stream()
+                    .map(String::valueOf)
+                    .filter(taskId -> !bandwidthLimiter.isTransferring(taskId))
+                    .toList();
+            if (!inactive.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Download tasks not transferring: " + inactive);
+            }
+            tasks.forEach((taskId, limit) -> bandwidthLimiter.setTaskLimit(String.valueOf(taskId), ((Number) limit).longValue()));
+        }
+        return bandwidthLimiter.getLimits();
     }
 
     // ==================== 综合Agent接口 ====================
@@ -163,28 +360,30 @@ public class AgentController {
      * 智能文件搜索（结合AI分析）
      */
     @PostMapping("/smart-search")
-    public Map<String, Object> smartSearch(@RequestBody Map<String, String> request) {
+    public CompletableFuture<Map<String, Object>> smartSearch(@RequestBody Map<String, String> request) {
         String query = request.get("query");
         String basePath = request.getOrDefault("basePath", ".");
         
         if (query == null || query.trim().isEmpty()) {
-            return Map.of("error", "查询内容不能为空");
+            return CompletableFuture.completedFuture(Map.of("error", "查询内容不能为空"));
         }
 
-        // 执行文件搜索
-        List<FileSearchService.FileInfo> files = fileSearchService.searchFiles(query, basePath);
-        List<FileSearchService.FileContentMatch> contentMatches = fileSearchService.searchFileContent(query, basePath);
+        // 文件名和内容搜索并行执行
+        CompletableFuture<List<FileSearchService.FileInfo>> files =
+                blockingExecutor.supply(() -> fileSearchService.searchFiles(query, basePath));
+        CompletableFuture<List<FileSearchService.FileContentMatch>> contentMatches =
+                blockingExecutor.supply(() -> fileSearchService.searchFileContent(query, basePath));
 
-        return Map.of(
+        return files.thenCombine(contentMatches, (fileList, matchList) -> Map.of(
                 "query", query,
                 "basePath", basePath,
-                "files", files,
-                "contentMatches", contentMatches,
+                "files", fileList,
+                "contentMatches", matchList,
                 "summary", Map.of(
-                        "totalFiles", files.size(),
-                        "totalContentMatches", contentMatches.size()
+                        "totalFiles", fileList.size(),
+                        "totalContentMatches", matchList.size()
                 )
-        );
+        ));
     }
 
     /**
@@ -201,7 +400,7 @@ public class AgentController {
         }
 
         return urls.stream()
-                .map(url -> fileDownloadService.downloadFile(url, targetDirectory))
+                .map(url -> fileDownloadService.downloadFile(url, targetDirectory, FileDownloadService.DownloadPriority.BULK))
                 .toList();
     }
 
@@ -223,10 +422,8 @@ public class AgentController {
                         "usagePercent", String.format("%.1f%%", (double) usedMemory / totalMemory * 100)
                 ),
                 "downloads", Map.of(
-                        "activeTasks", fileDownloadService.getAllDownloadTasks().stream()
-                                .filter(task -> task.getStatus() == FileDownloadService.DownloadStatus.DOWNLOADING)
-                                .count(),
-                        "totalTasks", fileDownloadService.getAllDownloadTasks().size()
+                        "activeTasks", fileDownloadService.countTasks(FileDownloadService.DownloadStatus.DOWNLOADING),
+                        "totalTasks", fileDownloadService.getTaskCount()
                 ),
                 "timestamp", System.currentTimeMillis()
         );
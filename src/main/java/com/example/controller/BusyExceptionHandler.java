@@ -0,0 +1,34 @@
+package com.example.controller;
+
+import com.example.service.ModelGateway;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 有界线程池或模型网关拒绝请求时返回429/503，客户端稍后重试，而不是让请求无限排队
+ */
+@RestControllerAdvice
+public class BusyExceptionHandler {
+
+    private static final String RETRY_AFTER_SECONDS = "5";
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public Map<String, Object> handleRejected(RejectedExecutionException e) {
+        return Map.of("error", "服务繁忙，请稍后重试");
+    }
+
+    @ExceptionHandler(ModelGateway.RejectedException.class)
+    public ResponseEntity<Map<String, Object>> handleModelRejected(ModelGateway.RejectedException e) {
+        return ResponseEntity.status(e.getStatus())
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(Map.of("error", e.getMessage()));
+    }
+}
@@ -1,19 +1,36 @@
 package com.example.controller;
 
 import com.example.service.AgentService;
-import org.springframework.ai.chat.messages.AbstractMessage;
+import com.example.service.BlockingTaskExecutor;
+import com.example.service.ConversationContext;
+import com.example.service.ConversationHistory;
+import com.example.service.FileSummarizer;
+import com.example.service.IntentCache;
+import com.example.service.IntentRouter;
+import com.example.service.ModelGateway;
+import com.example.service.ModelProfiles;
+import com.example.service.ModelWarmup;
+import com.example.service.OllamaEndpointPool;
+import com.example.service.ResponseCache;
+import com.example.service.SpeculativeSearch;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
-import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import reactor.core.publisher.Flux;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/chat")
@@ -22,43 +39,73 @@ public class OllamaChatController {
 
     private final ChatModel ollamaChatModel;
     private final AgentService agentService;
+    private final IntentCache intentCache;
+    private final IntentRouter intentRouter;
+    private final SpeculativeSearch speculativeSearch;
+    private final BlockingTaskExecutor blockingExecutor;
+    private final ResponseCache responseCache;
+    private final ModelProfiles modelProfiles;
+    private final OllamaEndpointPool endpointPool;
+    private final ModelWarmup modelWarmup;
+    private final ConversationContext conversationContext;
+    private final ConversationHistory conversationHistory;
+    private final FileSummarizer fileSummarizer;
     private static final String DEFAULT_PROMPT = "你好，介绍下你自己吧。请用中文回答。";
+    private static final String SESSION_HEADER = "X-Session-Id";
 
-    public OllamaChatController(ChatModel chatModel, AgentService agentService) {
+    public OllamaChatController(ChatModel chatModel, AgentService agentService, IntentCache intentCache,
+                                IntentRouter intentRouter, SpeculativeSearch speculativeSearch,
+                                BlockingTaskExecutor blockingExecutor, ResponseCache responseCache,
+                                ModelProfiles modelProfiles, OllamaEndpointPool endpointPool,
+                                ModelWarmup modelWarmup, ConversationContext conversationContext,
+                                ConversationHistory conversationHistory, FileSummarizer fileSummarizer) {
         this.ollamaChatModel = chatModel;
         this.agentService = agentService;
+        this.intentCache = intentCache;
+        this.intentRouter = intentRouter;
+        this.speculativeSearch = speculativeSearch;
+        this.blockingExecutor = blockingExecutor;
+        this.responseCache = responseCache;
+        this.modelProfiles = modelProfiles;
+        this.endpointPool = endpointPool;
+        this.modelWarmup = modelWarmup;
+        this.conversationContext = conversationContext;
+        this.conversationHistory = conversationHistory;
+        this.fileSummarizer = fileSummarizer;
     }
 
     /**
-     * 简单聊天接口
+     * 简单聊天接口（固定提示词，回复经过缓存）
      */
     @GetMapping("/simple")
     public String simpleChat() {
-        return ollamaChatModel.call(new Prompt(DEFAULT_PROMPT))
+        return responseCache.get("simple", DEFAULT_PROMPT, () -> modelProfiles.timed(ModelProfiles.Task.CHAT,
+                        () -> ollamaChatModel.call(modelProfiles.prompt(ModelProfiles.Task.CHAT, DEFAULT_PROMPT)))
                 .getResult()
                 .getOutput()
-                .getText();
+                .getText());
     }
 
     /**
-     * 发送消息并获取回复
+     * 发送消息并获取回复（异步处理，等待期间不占用请求线程）
      */
     @PostMapping("/message")
-    public Map<String, Object> chat(@RequestBody Map<String, String> request) {
+    public CompletableFuture<Map<String, Object>> chat(@RequestBody Map<String, String> request, HttpServletRequest httpRequest,
+                                                       HttpServletResponse httpResponse) {
         String message = request.get("message");
         if (message == null || message.trim().isEmpty()) {
             message = DEFAULT_PROMPT;
         }
+        String finalMessage = message;
 
         // 使用Agent服务处理请求
-        AgentService.AgentResponse agentResponse = agentService.processRequest(message);
-        
-        return Map.of(
-                "message", message,
-                "reply", agentResponse.getMessage(),
-                "action", agentResponse.getAction(),
-                "data", agentResponse.getData()
-        );
+        return agentService.processRequestAsync(resolveSessionId(request, httpRequest, httpResponse), message)
+                .thenApply(agentResponse -> Map.of(
+                        "message", finalMessage,
+                        "reply", agentResponse.getMessage(),
+                        "action", agentResponse.getAction(),
+                        "data", agentResponse.getData()
+                ));
     }
 
     /**
@@ -71,15 +118,18 @@ public class OllamaChatController {
             message = DEFAULT_PROMPT;
         }
 
-        return ollamaChatModel.stream(new Prompt(message))
+        return modelProfiles.timed(ModelProfiles.Task.CHAT,
+                        ollamaChatModel.stream(modelProfiles.prompt(ModelProfiles.Task.CHAT, message)))
                 .map(response -> response.getResult().getOutput().getText());
     }
 
     /**
-     * 多轮对话接口
+     * 多轮对话接口：请求中带 messages 时使用客户端提供的历史；不带时使用服务端保存的会话历史，
+     * 客户端只需发送会话ID和新消息
      */
     @PostMapping("/conversation")
-    public Map<String, Object> conversation(@RequestBody Map<String, Object> request) {
+    public Map<String, Object> conversation(@RequestBody Map<String, Object> request, HttpServletRequest httpRequest,
+                                            HttpServletResponse httpResponse) {
         @SuppressWarnings("unchecked")
         List<Map<String, String>> messages = (List<Map<String, String>>) request.get("messages");
         String newMessage = (String) request.get("newMessage");
@@ -87,31 +137,69 @@ public class OllamaChatController {
         if (newMessage == null || newMessage.trim().isEmpty()) {
             return Map.of("error", "New message is required");
         }
+        if (messages == null) {
+            return sessionConversation(resolveSessionId(
+                    request.get("sessionId") != null ? String.valueOf(request.get("sessionId")) : null,
+                    httpRequest, httpResponse), newMessage);
+        }
 
         // 构建对话历史
-        List<? extends AbstractMessage> conversationHistory = messages.stream()
+        List<Message> history = messages.stream()
                 .map(msg -> {
                     String role = msg.get("role");
                     String content = msg.get("content");
-                    return "user".equals(role) ? new UserMessage(content) : new AssistantMessage(content);
+                    return "user".equals(role) ? (Message) new UserMessage(content) : new AssistantMessage(content);
                 })
                 .toList();
 
-        // 添加新消息
-        conversationHistory = List.of(
-                new UserMessage(newMessage)
+        // 按token预算截取最近的消息，更早的部分用后台生成的摘要代替
+        ConversationContext.Window window = conversationContext.build(history, newMessage);
+        ChatResponse response = modelProfiles.timed(ModelProfiles.Task.CHAT, () -> ollamaChatModel.call(window.getPrompt()));
+        String reply = response.getResult().getOutput().getText();
+
+        List<Map<String, String>> conversationHistory = new ArrayList<>(messages);
+        conversationHistory.add(Map.of("role", "user", "content", newMessage));
+        conversationHistory.add(Map.of("role", "assistant", "content", reply));
+        return Map.of(
+                "newMessage", newMessage,
+                "reply", reply,
+                "conversationHistory", conversationHistory,
+                "context", contextInfo(window)
         );
+    }
 
-        ChatResponse response = ollamaChatModel.call(new Prompt((Message) conversationHistory));
+    // 服务端会话：历史与Agent接口共享，响应中只返回本轮回复，不回传整个历史
+    private Map<String, Object> sessionConversation(String sessionId, String newMessage) {
+        ConversationContext.Window window = conversationContext.build(conversationHistory.transcript(sessionId), newMessage);
+        ChatResponse response = modelProfiles.timed(ModelProfiles.Task.CHAT, () -> ollamaChatModel.call(window.getPrompt()));
         String reply = response.getResult().getOutput().getText();
-
+        conversationHistory.append(sessionId, newMessage, reply);
         return Map.of(
+                "sessionId", sessionId,
                 "newMessage", newMessage,
                 "reply", reply,
-                "conversationHistory", conversationHistory
+                "turns", conversationHistory.turns(sessionId),
+                "context", contextInfo(window)
         );
     }
 
+    private static Map<String, Object> contextInfo(ConversationContext.Window window) {
+        return Map.of(
+                "promptTokens", window.getPromptTokens(),
+                "summarizedMessages", window.getSummarizedMessages(),
+                "recentMessages", window.getRecentMessages(),
+                "droppedMessages", window.getDroppedMessages());
+    }
+
+    /**
+     * 删除服务端保存的会话历史
+     */
+    @DeleteMapping("/conversation/{sessionId}")
+    public Map<String, Object> clearConversation(@PathVariable String sessionId) {
+        conversationHistory.clear(sessionId);
+        return Map.of("sessionId", sessionId, "cleared", true);
+    }
+
     /**
      * 健康检查接口
      */
@@ -121,16 +209,185 @@ public class OllamaChatController {
     }
 
     /**
-     * Agent智能处理接口
+     * Agent智能处理接口（异步处理，等待期间不占用请求线程）
      */
     @PostMapping("/agent")
-    public AgentService.AgentResponse agentChat(@RequestBody Map<String, String> request) {
+    public CompletableFuture<AgentService.AgentResponse> agentChat(@RequestBody Map<String, String> request,
+                                                                   HttpServletRequest httpRequest,
+                                                                   HttpServletResponse httpResponse) {
         String message = request.get("message");
         if (message == null || message.trim().isEmpty()) {
             message = DEFAULT_PROMPT;
         }
         
-        return agentService.processRequest(message);
+        return agentService.processRequestAsync(resolveSessionId(request, httpRequest, httpResponse), message);
+    }
+
+    /**
+     * 流式Agent接口（SSE）：事件依次为 intent、progress、hit、token，最后是 result
+     */
+    @PostMapping(value = "/agent/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> agentStream(@RequestBody Map<String, String> request, HttpServletRequest httpRequest,
+                                                     HttpServletResponse httpResponse) {
+        String message = request.get("message");
+        if (message == null || message.trim().isEmpty()) {
+            message = DEFAULT_PROMPT;
+        }
+
+        return agentService.streamRequest(resolveSessionId(request, httpRequest, httpResponse), message)
+                .map(event -> ServerSentEvent.builder(event.getData()).event(event.getType()).build())
+                .onErrorResume(e -> Flux.just(ServerSentEvent.<Object>builder(Map.of("message", String.valueOf(e.getMessage())))
+                        .event("error").build()));
+    }
+
+    /**
+     * 确定会话ID：请求体的 sessionId 优先，其次是 X-Session-Id 请求头，再次是已有的HTTP会话；
+     * 都没有时生成新ID（不创建HTTP会话）。会话ID通过 X-Session-Id 响应头返回，客户端在后续请求中带上即可
+     */
+    private String resolveSessionId(Map<String, String> request, HttpServletRequest httpRequest,
+                                    HttpServletResponse httpResponse) {
+        return resolveSessionId(request.get("sessionId"), httpRequest, httpResponse);
+    }
+
+    private String resolveSessionId(String sessionId, HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
+        if (sessionId == null || sessionId.isBlank()) {
+            sessionId = httpRequest.getHeader(SESSION_HEADER);
+        }
+        if (sessionId == null || sessionId.isBlank()) {
+            HttpSession session = httpRequest.getSession(false);
+            sessionId = session != null ? session.getId() : UUID.randomUUID().toString();
+        }
+        httpResponse.setHeader(SESSION_HEADER, sessionId);
+        return sessionId;
+    }
+
+    /**
+     * 意图缓存统计（命中率、合并的并发请求数）
+     */
+    @GetMapping("/intent-cache/stats")
+    public Map<String, Object> intentCacheStats() {
+        return intentCache.getStats();
+    }
+
+    /**
+     * 清空意图缓存
+     */
+    @DeleteMapping("/intent-cache")
+    public Map<String, Object> clearIntentCache() {
+        intentCache.clear();
+        return intentCache.getStats();
+    }
+
+    /**
+     * 分级意图路由统计（本地采用数、交给LLM的次数）
+     */
+    @GetMapping("/intent-router/stats")
+    public Map<String, Object> intentRouterStats() {
+        return intentRouter.getStats();
+    }
+
+    /**
+     * 运行时调整本地分类器的置信度阈值
+     */
+    @PostMapping("/intent-router/threshold")
+    public Map<String, Object> updateIntentRouterThreshold(@RequestBody Map<String, Double> request) {
+        Double threshold = request.get("threshold");
+        if (threshold != null) {
+            intentRouter.setThreshold(threshold);
+        }
+        return intentRouter.getStats();
+    }
+
+    /**
+     * 推测执行文件搜索的统计（命中率、节省和浪费的时间）
+     */
+    @GetMapping("/speculation/stats")
+    public Map<String, Object> speculationStats() {
+        return speculativeSearch.getStats();
+    }
+
+    /**
+     * 聊天回复缓存统计（精确/语义命中、节省的生成时间）
+     */
+    @GetMapping("/response-cache/stats")
+    public Map<String, Object> responseCacheStats() {
+        return responseCache.getStats();
+    }
+
+    /**
+     * 清空聊天回复缓存
+     */
+    @DeleteMapping("/response-cache")
+    public Map<String, Object> clearResponseCache() {
+        responseCache.clear();
+        return responseCache.getStats();
+    }
+
+    /**
+     * 模型调用网关统计（并发、排队、拒绝次数、熔断状态）
+     */
+    @GetMapping("/model-gateway/stats")
+    public Map<String, Object> modelGatewayStats() {
+        if (ollamaChatModel instanceof ModelGateway gateway) {
+            return gateway.getStats();
+        }
+        return Map.of("enabled", false);
+    }
+
+    /**
+     * Ollama节点统计（健康状态、未完成请求数、对冲请求次数）
+     */
+    @GetMapping("/ollama-endpoints/stats")
+    public Map<String, Object> ollamaEndpointsStats() {
+        return endpointPool.getStats();
+    }
+
+    /**
+     * 模型预热和保活统计（各节点各模型的冷启动和热状态耗时）
+     */
+    @GetMapping("/model-warmup/stats")
+    public Map<String, Object> modelWarmupStats() {
+        return modelWarmup.getStats();
+    }
+
+    /**
+     * 各调用场景的模型配置和延迟统计（分位数、SLO达成率）
+     */
+    @GetMapping("/model-profiles/stats")
+    public Map<String, Object> modelProfilesStats() {
+        return modelProfiles.getStats();
+    }
+
+    /**
+     * 文件分段摘要统计（分段数、缓存命中、模型调用次数）
+     */
+    @GetMapping("/file-summary/stats")
+    public Map<String, Object> fileSummaryStats() {
+        return fileSummarizer.getStats();
+    }
+
+    /**
+     * 服务端会话历史统计（会话数、淘汰和溢出到磁盘的次数）
+     */
+    @GetMapping("/conversation-history/stats")
+    public Map<String, Object> conversationHistoryStats() {
+        return conversationHistory.getStats();
+    }
+
+    /**
+     * 多轮对话上下文窗口统计（截断次数、摘要生成、提示词token数）
+     */
+    @GetMapping("/conversation-context/stats")
+    public Map<String, Object> conversationContextStats() {
+        return conversationContext.getStats();
+    }
+
+    /**
+     * 阻塞操作线程池统计（活跃线程、排队数、拒绝数）
+     */
+    @GetMapping("/executor/stats")
+    public Map<String, Object> executorStats() {
+        return blockingExecutor.getStats();
     }
 
     /**
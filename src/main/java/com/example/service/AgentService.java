@@ -1,16 +1,26 @@
 package com.example.service;
 
 
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Service
 public class AgentService {
@@ -18,83 +28,309 @@ public class AgentService {
     private final ChatModel chatModel;
     private final FileSearchService fileSearchService;
     private final FileDownloadService fileDownloadService;
+    private final ConversationStateStore conversationState;
+    private final IntentCache intentCache;
+    private final IntentRouter intentRouter;
+    private final SpeculativeSearch speculativeSearch;
+    private final BlockingTaskExecutor blockingExecutor;
+    private final ResponseCache responseCache;
+    private final ModelProfiles modelProfiles;
+    private final ConversationHistory conversationHistory;
+    private final ConversationContext conversationContext;
+    private final FileSummarizer fileSummarizer;
 
-    public AgentService(ChatModel chatModel, FileSearchService fileSearchService, FileDownloadService fileDownloadService) {
+    // 意图识别的system提示词，不含任何随请求变化的内容
+    private static final String INTENT_SYSTEM_PROMPT = """
+            请分析用户消息的意图，并返回JSON格式的结果。
+            
+            请从以下意图类型中选择：
+            1. FILE_SEARCH - 用户想要搜索文件
+            2. FILE_DOWNLOAD - 用户想要下载文件
+            3. FILE_READ - 用户想要读取文件内容
+            4. SYSTEM_INFO - 用户想要查看系统信息
+            5. GENERAL_CHAT - 一般聊天对话
+            
+            下载意图的判断规则：
+            - 如果消息包含"下载"、"download"等关键词，且后面跟着文件名，这是下载意图
+            - 如果消息直接说"下载XXX"（XXX是文件名），这是下载意图
+            - 如果是URL（以http或https开头），使用url字段
+            - 如果是具体的文件名或路径，使用filePath字段
+            - 如果是模糊的文件名（需要搜索），使用query字段
+            
+            特别注意：
+            - "下载OllamaChatController" 应该识别为下载意图，query为"OllamaChatController"
+            - "下载pom.xml" 应该识别为下载意图，query为"pom.xml"
+            - "下载 https://example.com/file.txt" 应该识别为下载意图，url为"https://example.com/file.txt"
+            
+            请返回JSON格式：
+            {
+                "intent": "意图类型",
+                "parameters": {
+                    "query": "搜索关键词",
+                    "url": "下载URL",
+                    "filePath": "文件路径",
+                    "targetDirectory": "目标目录"
+                }
+            }
+            
+            只返回JSON，不要其他内容。
+            """;
+
+    // LLM识别为读取文件、但用户要求的是摘要
+    private static final Pattern SUMMARY_REQUEST = Pattern.compile("总结|摘要|概括|summar", Pattern.CASE_INSENSITIVE);
+
+    // 回复缓存中一般聊天使用的接口名（agent.response-cache.disabled-endpoints）
+    private static final String CACHE_ENDPOINT = "agent";
+
+    public AgentService(ChatModel chatModel, FileSearchService fileSearchService, FileDownloadService fileDownloadService,
+                        ConversationStateStore conversationState, IntentCache intentCache, IntentRouter intentRouter,
+                        SpeculativeSearch speculativeSearch, BlockingTaskExecutor blockingExecutor,
+                        ResponseCache responseCache, ModelProfiles modelProfiles,
+                        ConversationHistory conversationHistory, ConversationContext conversationContext,
+                        FileSummarizer fileSummarizer) {
         this.chatModel = chatModel;
         this.fileSearchService = fileSearchService;
         this.fileDownloadService = fileDownloadService;
+        this.conversationState = conversationState;
+        this.intentCache = intentCache;
+        this.intentRouter = intentRouter;
+        this.speculativeSearch = speculativeSearch;
+        this.blockingExecutor = blockingExecutor;
+        this.responseCache = responseCache;
+        this.modelProfiles = modelProfiles;
+        this.conversationHistory = conversationHistory;
+        this.conversationContext = conversationContext;
+        this.fileSummarizer = fileSummarizer;
     }
 
     /**
-     * 智能Agent处理用户请求
+     * 智能Agent处理用户请求，sessionId用于隔离不同客户端的待确认状态
      */
-    public AgentResponse processRequest(String userMessage) {
-        // 检查是否是下载确认
-        if (isDownloadConfirmation(userMessage)) {
-            return handleDownloadConfirmation(userMessage);
+    public AgentResponse processRequest(String sessionId, String userMessage) {
+        return remember(sessionId, userMessage, handle(sessionId, userMessage, AgentListener.NONE, false));
+    }
+
+    /**
+     * 异步处理用户请求，调用线程不阻塞：LLM调用使用非阻塞的流式接口，
+     * 文件遍历等阻塞操作在有界的 {@link BlockingTaskExecutor} 中执行
+     */
+    public CompletableFuture<AgentResponse> processRequestAsync(String sessionId, String userMessage) {
+        ConversationStateStore.PendingDownload pending = conversationState.getPendingDownload(sessionId);
+        if (pending == null) {
+            return dispatchAsync(sessionId, userMessage)
+                    .thenApplyAsync(response -> remember(sessionId, userMessage, response), blockingExecutor);
+        }
+        // 确认下载会提交下载任务（可能检查本地文件），放到阻塞线程池
+        return blockingExecutor.supply(() -> handleDownloadConfirmation(sessionId, pending, userMessage))
+                .thenCompose(confirmation -> confirmation != null
+                        ? CompletableFuture.completedFuture(confirmation)
+                        : dispatchAsync(sessionId, userMessage))
+                .thenApplyAsync(response -> remember(sessionId, userMessage, response), blockingExecutor);
+    }
+
+    // 每一轮（包括工具调用）都记入会话历史，之后的聊天可以引用；
+    // 记录时可能写入磁盘，异步链路中在阻塞线程池执行，不占用模型客户端的事件线程
+    private AgentResponse remember(String sessionId, String userMessage, AgentResponse response) {
+        if (response != null) {
+            conversationHistory.append(sessionId, userMessage, response.getMessage());
+        }
+        return response;
+    }
+
+    // 会话已有历史时带上历史（按token预算截取），没有历史时返回null，使用单条消息的提示词和回复缓存
+    private Prompt contextualPrompt(String sessionId, String userMessage) {
+        ConversationHistory.Transcript transcript = conversationHistory.transcript(sessionId);
+        return transcript.getMessages().isEmpty() ? null : conversationContext.build(transcript, userMessage).getPrompt();
+    }
+
+    private CompletableFuture<AgentResponse> dispatchAsync(String sessionId, String userMessage) {
+        List<Intent> tools = MultiToolPlanner.plan(userMessage);
+        if (!tools.isEmpty()) {
+            return runTools(sessionId, userMessage, tools, AgentListener.NONE);
+        }
+        Intent regexIntent = analyzeIntentWithRegex(userMessage);
+        Intent local = intentRouter.tryLocal(userMessage, message -> regexIntent);
+        SpeculativeSearch.Speculation speculation = local != null ? speculativeSearch.none() : speculativeSearch.start(regexIntent);
+        CompletableFuture<Intent> intent = local != null
+                ? CompletableFuture.completedFuture(local)
+                : analyzeIntentWithLLMAsync(userMessage);
+        return intent
+                .thenCompose(resolved -> resolved.getType() == IntentType.GENERAL_CHAT
+                        ? generalChatAsync(sessionId, userMessage)
+                        : blockingExecutor.supply(() -> dispatch(sessionId, userMessage, resolved, speculation, AgentListener.NONE, true)))
+                .whenComplete((response, error) -> speculation.close());
+    }
+
+    /**
+     * 流式处理用户请求：依次推送意图、工具进度、每条搜索结果，一般聊天逐段推送模型输出，
+     * 最后以result事件结束。首个事件不必等待整个回复生成完毕。
+     */
+    public Flux<AgentEvent> streamRequest(String sessionId, String userMessage) {
+        return Flux.<AgentEvent>create(sink -> {
+            AgentListener listener = new AgentListener() {
+                @Override
+                public void onIntent(Intent intent) {
+                    sink.next(AgentEvent.of("intent", Map.of("type", intent.getType(), "parameters", intent.getParameters())));
+                }
+
+                @Override
+                public void onProgress(String stage) {
+                    sink.next(AgentEvent.of("progress", Map.of("stage", stage)));
+                }
+
+                @Override
+                public void onHit(String kind, Object hit) {
+                    sink.next(AgentEvent.of("hit", Map.of("kind", kind, "item", hit)));
+                }
+            };
+            AgentResponse response = handle(sessionId, userMessage, listener, true);
+            if (response != null) {
+                sink.next(AgentEvent.of("result", remember(sessionId, userMessage, response)));
+                sink.complete();
+                return;
+            }
+            // 一般聊天：命中回复缓存时一次推送，否则逐段转发模型输出，客户端断开时取消生成
+            Prompt contextual = contextualPrompt(sessionId, userMessage);
+            ResponseCache.Lookup cached = contextual == null ? responseCache.lookup(CACHE_ENDPOINT, userMessage) : null;
+            if (cached != null && cached.isHit()) {
+                sink.next(AgentEvent.of("token", Map.of("text", cached.getResponse())));
+                sink.next(AgentEvent.of("result", remember(sessionId, userMessage, new AgentResponse("general_chat",
+                        cached.getResponse(), Map.of("originalMessage", userMessage, "cached", true)))));
+                sink.complete();
+                return;
+            }
+            long start = System.nanoTime();
+            StringBuilder reply = new StringBuilder();
+            Disposable generation = modelProfiles.timed(ModelProfiles.Task.CHAT, chatModel.stream(contextual != null
+                            ? contextual : modelProfiles.prompt(ModelProfiles.Task.CHAT, userMessage)))
+                    .map(AgentService::chunkText)
+                    .filter(text -> !text.isEmpty())
+                    .subscribe(text -> {
+                        reply.append(text);
+                        sink.next(AgentEvent.of("token", Map.of("text", text)));
+                    }, sink::error, () -> {
+                        if (cached != null) {
+                            responseCache.store(cached, reply.toString(), elapsedMillis(start));
+                        }
+                        AgentResponse chat = new AgentResponse("general_chat", reply.toString(),
+                                Map.of("originalMessage", userMessage));
+                        // 记录历史放到阻塞线程池，完成后再发送result，下一轮请求能读到本轮
+                        blockingExecutor.supply(() -> remember(sessionId, userMessage, chat))
+                                .whenComplete((remembered, error) -> {
+                                    sink.next(AgentEvent.of("result", chat));
+                                    sink.complete();
+                                });
+                    });
+            sink.onDispose(generation);
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 识别意图并执行对应的工具；deferChat为true时一般聊天返回null，由调用方流式生成
+     */
+    private AgentResponse handle(String sessionId, String userMessage, AgentListener listener, boolean deferChat) {
+        // 检查是否是本会话的下载确认
+        ConversationStateStore.PendingDownload pending = conversationState.getPendingDownload(sessionId);
+        if (pending != null) {
+            AgentResponse confirmation = handleDownloadConfirmation(sessionId, pending, userMessage);
+            if (confirmation != null) {
+                return confirmation;
+            }
         }
         
-        // 使用LLM分析用户意图
-        Intent intent = analyzeIntentWithLLM(userMessage);
-        
+        // 一句话包含多个操作时拆成多个工具调用并行执行
+        List<Intent> tools = MultiToolPlanner.plan(userMessage);
+        if (!tools.isEmpty()) {
+            return runTools(sessionId, userMessage, tools, listener).join();
+        }
+
+        // 先用本地分类器识别意图，没有把握时再交给LLM；等待LLM期间按规则预判提前搜索文件
+        Intent regexIntent = analyzeIntentWithRegex(userMessage);
+        Intent intent = intentRouter.tryLocal(userMessage, message -> regexIntent);
+        SpeculativeSearch.Speculation speculation = intent != null ? speculativeSearch.none() : speculativeSearch.start(regexIntent);
+        try (speculation) {
+            if (intent == null) {
+                intent = analyzeIntentWithLLM(userMessage);
+            }
+            return dispatch(sessionId, userMessage, intent, speculation, listener, deferChat);
+        }
+    }
+
+    /**
+     * 按意图执行对应的工具；deferChat为true时一般聊天返回null
+     */
+    private AgentResponse dispatch(String sessionId, String userMessage, Intent intent,
+                                   SpeculativeSearch.Speculation speculation, AgentListener listener, boolean deferChat) {
         // 添加调试信息
         System.out.println("DEBUG - User message: " + userMessage);
         System.out.println("DEBUG - Detected intent: " + intent.getType());
         System.out.println("DEBUG - Parameters: " + intent.getParameters());
+        listener.onIntent(intent);
         
         switch (intent.getType()) {
             case FILE_SEARCH:
-                return handleFileSearch(intent, userMessage);
+                return handleFileSearch(intent, speculation, listener);
             case FILE_DOWNLOAD:
-                return handleFileDownload(intent, userMessage);
+                return handleFileDownload(sessionId, intent, speculation, listener);
             case FILE_READ:
+                listener.onProgress("reading_file");
                 return handleFileRead(intent, userMessage);
             case SYSTEM_INFO:
                 return handleSystemInfo();
             case GENERAL_CHAT:
             default:
-                return handleGeneralChat(userMessage);
+                return deferChat ? null : handleGeneralChat(sessionId, userMessage);
         }
     }
 
-    // 存储待确认的下载信息
-    private static final Map<String, Object> pendingDownload = new HashMap<>();
-
     /**
-     * 检查是否是下载确认消息
+     * 并行执行复合请求中的各个工具，全部完成后合并为一个响应，总耗时取决于最慢的工具。
+     * 单个工具失败不影响其他工具，失败信息放在该工具的结果中
      */
-    private boolean isDownloadConfirmation(String userMessage) {
-        return pendingDownload.containsKey("needConfirmation") && 
-               (pendingDownload.get("needConfirmation").equals(true));
+    private CompletableFuture<AgentResponse> runTools(String sessionId, String userMessage, List<Intent> tools,
+                                                      AgentListener listener) {
+        long start = System.nanoTime();
+        List<CompletableFuture<AgentResponse>> results = new ArrayList<>();
+        for (Intent tool : tools) {
+            results.add(blockingExecutor
+                    .supply(() -> dispatch(sessionId, userMessage, tool, speculativeSearch.none(), listener, false))
+                    .exceptionally(e -> new AgentResponse("error", "执行失败：" + rootMessage(e),
+                            Map.of("intent", tool.getType()))));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                .thenApply(done -> {
+                    List<AgentResponse> responses = results.stream().map(CompletableFuture::join).toList();
+                    String message = responses.stream()
+                            .map(AgentResponse::getMessage)
+                            .collect(Collectors.joining("\n\n"));
+                    return new AgentResponse("multi_tool", message, Map.of(
+                            "results", responses,
+                            "elapsedMillis", elapsedMillis(start)));
+                });
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
     }
 
     /**
-     * 处理下载确认
+     * 处理下载确认，消息无法识别为选择时清除待确认状态并返回null，按新请求处理
      */
-    private AgentResponse handleDownloadConfirmation(String userMessage) {
-        @SuppressWarnings("unchecked")
-        List<FileSearchService.FileInfo> files = (List<FileSearchService.FileInfo>) pendingDownload.get("files");
-        String targetDirectory = (String) pendingDownload.get("targetDirectory");
-        
-        if (files == null || files.isEmpty()) {
-            pendingDownload.clear();
-            return new AgentResponse(
-                "file_download_error",
-                "下载确认信息已过期，请重新发起下载请求。",
-                Map.of()
-            );
-        }
+    private AgentResponse handleDownloadConfirmation(String sessionId, ConversationStateStore.PendingDownload pending,
+                                                     String userMessage) {
+        String targetDirectory = pending.getTargetDirectory();
         
         // 尝试解析用户选择
-        String selectedFile = parseFileSelection(userMessage, files);
+        String selectedFile = parseFileSelection(userMessage, pending);
+        
+        // 无论是否选中，本次待确认状态都已消费
+        conversationState.clearPendingDownload(sessionId, pending);
         
         if (selectedFile != null) {
             // 执行下载
             FileDownloadService.DownloadTask task = fileDownloadService.downloadLocalFile(selectedFile, targetDirectory);
             
-            // 清除待确认信息
-            pendingDownload.clear();
-            
             String aiResponse = String.format(
                 "已开始下载文件：%s\n" +
                 "任务ID：%s\n" +
@@ -108,26 +344,21 @@ public class AgentService {
                 aiResponse,
                 Map.of("downloadTask", task)
             );
-        } else {
-            return new AgentResponse(
-                "file_download_error",
-                "无法识别您的选择，请尝试：\n• 数字：1、2、3...\n• 中文：第一个、第二个...\n• 文件名：pom.xml、README.md...\n• 部分文件名：pom、readme...",
-                Map.of("needConfirmation", true)
-            );
         }
+        return null;
     }
 
     /**
      * 解析用户选择的文件
      */
-    private String parseFileSelection(String userMessage, List<FileSearchService.FileInfo> files) {
+    private String parseFileSelection(String userMessage, ConversationStateStore.PendingDownload files) {
         String message = userMessage.trim().toLowerCase();
         
         // 1. 优先尝试解析数字选择（最简单）
         try {
             int index = Integer.parseInt(message);
             if (index >= 1 && index <= files.size()) {
-                return files.get(index - 1).getPath();
+                return files.getPath(index - 1);
             }
         } catch (NumberFormatException e) {
             // 不是数字，继续检查
@@ -136,44 +367,39 @@ public class AgentService {
         // 2. 尝试解析中文数字
         int chineseNumber = parseChineseNumber(message);
         if (chineseNumber >= 1 && chineseNumber <= files.size()) {
-            return files.get(chineseNumber - 1).getPath();
+            return files.getPath(chineseNumber - 1);
         }
         
         // 3. 尝试匹配文件名（不区分大小写）
-        for (FileSearchService.FileInfo file : files) {
-            if (file.getName().toLowerCase().equals(message)) {
-                return file.getPath();
+        for (int i = 0; i < files.size(); i++) {
+            if (files.getName(i).toLowerCase().equals(message)) {
+                return files.getPath(i);
             }
         }
         
         // 4. 尝试部分文件名匹配（更宽松）
-        for (FileSearchService.FileInfo file : files) {
-            if (file.getName().toLowerCase().contains(message)) {
-                return file.getPath();
+        for (int i = 0; i < files.size(); i++) {
+            if (files.getName(i).toLowerCase().contains(message)) {
+                return files.getPath(i);
             }
         }
         
         // 5. 尝试路径中的任何部分匹配
-        for (FileSearchService.FileInfo file : files) {
-            if (file.getPath().toLowerCase().contains(message)) {
-                return file.getPath();
+        for (int i = 0; i < files.size(); i++) {
+            if (files.getPath(i).toLowerCase().contains(message)) {
+                return files.getPath(i);
             }
         }
         
-        // 6. 如果只有一个文件，直接返回
-        if (files.size() == 1) {
-            return files.get(0).getPath();
-        }
-        
-        // 7. 尝试匹配"第一个"、"第二个"等表达
+        // 6. 尝试匹配"第一个"、"第二个"等表达
         if (message.contains("第一个") || message.contains("第一") || message.equals("1")) {
-            return files.get(0).getPath();
+            return files.getPath(0);
         }
         if (message.contains("第二个") || message.contains("第二") || message.equals("2")) {
-            if (files.size() >= 2) return files.get(1).getPath();
+            if (files.size() >= 2) return files.getPath(1);
         }
         if (message.contains("第三个") || message.contains("第三") || message.equals("3")) {
-            if (files.size() >= 3) return files.get(2).getPath();
+            if (files.size() >= 3) return files.getPath(2);
         }
         
         return null;
@@ -199,12 +425,17 @@ public class AgentService {
     /**
      * 处理文件搜索请求
      */
-    private AgentResponse handleFileSearch(Intent intent, String userMessage) {
+    private AgentResponse handleFileSearch(Intent intent, SpeculativeSearch.Speculation speculation, AgentListener listener) {
         String query = intent.getParameters().get("query");
         String basePath = intent.getParameters().getOrDefault("basePath", ".");
         
-        List<FileSearchService.FileInfo> files = fileSearchService.searchFiles(query, basePath);
-        List<FileSearchService.FileContentMatch> contentMatches = fileSearchService.searchFileContent(query, basePath);
+        // 文件名搜索较快，先推送文件名结果再搜索内容
+        listener.onProgress("searching_files");
+        List<FileSearchService.FileInfo> files = speculation.searchFiles(query, basePath);
+        files.forEach(file -> listener.onHit("file", file));
+        listener.onProgress("searching_content");
+        List<FileSearchService.FileContentMatch> contentMatches = speculation.searchFileContent(query, basePath);
+        contentMatches.forEach(match -> listener.onHit("content", match));
         
         // 构建AI回复
         String aiResponse = buildFileSearchResponse(files, contentMatches, query);
@@ -224,7 +455,8 @@ public class AgentService {
     /**
      * 处理文件下载请求
      */
-    private AgentResponse handleFileDownload(Intent intent, String userMessage) {
+    private AgentResponse handleFileDownload(String sessionId, Intent intent, SpeculativeSearch.Speculation speculation,
+                                             AgentListener listener) {
         String url = intent.getParameters().get("url");
         String filePath = intent.getParameters().get("filePath");
         String query = intent.getParameters().get("query");
@@ -270,7 +502,7 @@ public class AgentService {
         
         // 如果是模糊查询，先搜索再确认
         if (query != null) {
-            return handleDownloadWithSearch(query, targetDirectory);
+            return handleDownloadWithSearch(sessionId, query, targetDirectory, speculation, listener);
         }
         
         return new AgentResponse(
@@ -283,9 +515,12 @@ public class AgentService {
     /**
      * 处理需要搜索的下载请求
      */
-    private AgentResponse handleDownloadWithSearch(String query, String targetDirectory) {
+    private AgentResponse handleDownloadWithSearch(String sessionId, String query, String targetDirectory,
+                                                   SpeculativeSearch.Speculation speculation, AgentListener listener) {
         // 先搜索文件
-        List<FileSearchService.FileInfo> files = fileSearchService.searchFiles(query, ".");
+        listener.onProgress("searching_files");
+        List<FileSearchService.FileInfo> files = speculation.searchFiles(query, ".");
+        files.forEach(file -> listener.onHit("file", file));
         
         if (files.isEmpty()) {
             return new AgentResponse(
@@ -315,12 +550,8 @@ public class AgentService {
         response.append("\n• 文件名：pom.xml、README.md...");
         response.append("\n• 部分文件名：pom、readme...");
         
-        // 存储待确认信息
-        pendingDownload.clear();
-        pendingDownload.put("needConfirmation", true);
-        pendingDownload.put("files", files);
-        pendingDownload.put("targetDirectory", targetDirectory);
-        pendingDownload.put("query", query);
+        // 存储本会话的待确认信息
+        conversationState.putPendingDownload(sessionId, files, targetDirectory, query);
         
         return new AgentResponse(
                 "file_download_confirm",
@@ -342,6 +573,10 @@ public class AgentService {
         
         String content = fileSearchService.readFileContent(filePath);
         
+        boolean summary = "summary".equals(intent.getParameters().get("mode")) || SUMMARY_REQUEST.matcher(userMessage).find();
+        if (content != null && summary) {
+            return handleFileSummary(filePath, content);
+        }
         if (content != null) {
             String aiResponse = String.format(
                     "文件内容已读取：%s\n\n内容预览（前500字符）：\n%s",
@@ -367,6 +602,36 @@ public class AgentService {
         }
     }
 
+    /**
+     * 分段生成文件摘要，模型不可用时退回内容预览
+     */
+    private AgentResponse handleFileSummary(String filePath, String content) {
+        try {
+            FileSummarizer.Summary summary = fileSummarizer.summarize(content);
+            return new AgentResponse(
+                    "file_summary",
+                    String.format("文件摘要：%s（共%d段，%d段使用缓存）\n\n%s",
+                            filePath, summary.getChunks(), summary.getCachedChunks(), summary.getText()),
+                    Map.of(
+                            "filePath", filePath,
+                            "summary", summary.getText(),
+                            "contentLength", content.length(),
+                            "chunks", summary.getChunks(),
+                            "cachedChunks", summary.getCachedChunks(),
+                            "modelCalls", summary.getModelCalls(),
+                            "elapsedMillis", summary.getElapsedMillis()
+                    )
+            );
+        } catch (RuntimeException e) {
+            return new AgentResponse(
+                    "file_read",
+                    String.format("无法生成摘要（%s），内容预览（前500字符）：\n%s", rootMessage(e),
+                            content.length() > 500 ? content.substring(0, 500) + "..." : content),
+                    Map.of("filePath", filePath, "content", content, "contentLength", content.length())
+            );
+        }
+    }
+
     /**
      * 处理系统信息请求
      */
@@ -376,10 +641,8 @@ public class AgentService {
         long freeMemory = runtime.freeMemory();
         long usedMemory = totalMemory - freeMemory;
         
-        List<FileDownloadService.DownloadTask> downloadTasks = fileDownloadService.getAllDownloadTasks();
-        long activeDownloads = downloadTasks.stream()
-                .filter(task -> task.getStatus() == FileDownloadService.DownloadStatus.DOWNLOADING)
-                .count();
+        long activeDownloads = fileDownloadService.countTasks(FileDownloadService.DownloadStatus.DOWNLOADING);
+        long totalDownloads = fileDownloadService.getTaskCount();
         
         String aiResponse = String.format(
                 "系统信息：\n" +
@@ -390,7 +653,7 @@ public class AgentService {
                 usedMemory / (1024.0 * 1024.0),
                 totalMemory / (1024.0 * 1024.0),
                 activeDownloads,
-                downloadTasks.size()
+                totalDownloads
         );
         
         return new AgentResponse(
@@ -404,7 +667,7 @@ public class AgentService {
                         ),
                         "downloads", Map.of(
                                 "active", activeDownloads,
-                                "total", downloadTasks.size()
+                                "total", totalDownloads
                         )
                 )
         );
@@ -413,9 +676,14 @@ public class AgentService {
     /**
      * 处理一般聊天请求
      */
-    private AgentResponse handleGeneralChat(String userMessage) {
-        ChatResponse response = chatModel.call(new Prompt(userMessage));
-        String aiResponse = response.getResult().getOutput().getText();
+    private AgentResponse handleGeneralChat(String sessionId, String userMessage) {
+        Prompt contextual = contextualPrompt(sessionId, userMessage);
+        String aiResponse = contextual != null
+                ? modelProfiles.timed(ModelProfiles.Task.CHAT, () -> chatModel.call(contextual)).getResult().getOutput().getText()
+                : responseCache.get(CACHE_ENDPOINT, userMessage,
+                        () -> modelProfiles.timed(ModelProfiles.Task.CHAT,
+                                () -> chatModel.call(modelProfiles.prompt(ModelProfiles.Task.CHAT, userMessage)))
+                                .getResult().getOutput().getText());
         
         return new AgentResponse(
                 "general_chat",
@@ -425,63 +693,121 @@ public class AgentService {
     }
 
     /**
-     * 使用LLM分析用户意图
+     * 一般聊天的非阻塞版本：汇总流式输出，不占用等待线程。
+     * 回复缓存的查找可能计算向量（阻塞调用），在阻塞线程池中执行
+     */
+    private CompletableFuture<AgentResponse> generalChatAsync(String sessionId, String userMessage) {
+        Prompt contextual = contextualPrompt(sessionId, userMessage);
+        if (contextual != null) {
+            return collectReply(contextual)
+                    .thenApply(reply -> new AgentResponse("general_chat", reply, Map.of("originalMessage", userMessage)));
+        }
+        return blockingExecutor.supply(() -> responseCache.lookup(CACHE_ENDPOINT, userMessage))
+                .thenCompose(lookup -> {
+                    if (lookup.isHit()) {
+                        return CompletableFuture.completedFuture(lookup.getResponse());
+                    }
+                    long start = System.nanoTime();
+                    return collectReply(modelProfiles.prompt(ModelProfiles.Task.CHAT, userMessage))
+                            .thenApply(reply -> {
+                                responseCache.store(lookup, reply, elapsedMillis(start));
+                                return reply;
+                            });
+                })
+                .thenApply(reply -> new AgentResponse("general_chat", reply, Map.of("originalMessage", userMessage)));
+    }
+
+    private CompletableFuture<String> collectReply(Prompt prompt) {
+        return modelProfiles.timed(ModelProfiles.Task.CHAT, chatModel.stream(prompt))
+                .map(AgentService::chunkText)
+                .reduce(new StringBuilder(), StringBuilder::append)
+                .map(StringBuilder::toString)
+                .toFuture();
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 使用LLM分析用户意图，结果按规范化后的消息缓存
      */
     private Intent analyzeIntentWithLLM(String userMessage) {
-        String prompt = String.format("""
-            请分析以下用户消息的意图，并返回JSON格式的结果。
-            
-            用户消息: %s
-            
-            请从以下意图类型中选择：
-            1. FILE_SEARCH - 用户想要搜索文件
-            2. FILE_DOWNLOAD - 用户想要下载文件
-            3. FILE_READ - 用户想要读取文件内容
-            4. SYSTEM_INFO - 用户想要查看系统信息
-            5. GENERAL_CHAT - 一般聊天对话
-            
-            下载意图的判断规则：
-            - 如果消息包含"下载"、"download"等关键词，且后面跟着文件名，这是下载意图
-            - 如果消息直接说"下载XXX"（XXX是文件名），这是下载意图
-            - 如果是URL（以http或https开头），使用url字段
-            - 如果是具体的文件名或路径，使用filePath字段
-            - 如果是模糊的文件名（需要搜索），使用query字段
-            
-            特别注意：
-            - "下载OllamaChatController" 应该识别为下载意图，query为"OllamaChatController"
-            - "下载pom.xml" 应该识别为下载意图，query为"pom.xml"
-            - "下载 https://example.com/file.txt" 应该识别为下载意图，url为"https://example.com/file.txt"
-            
-            请返回JSON格式：
-            {
-                "intent": "意图类型",
-                "parameters": {
-                    "query": "搜索关键词",
-                    "url": "下载URL",
-                    "filePath": "文件路径",
-                    "targetDirectory": "目标目录"
-                }
-            }
-            
-            只返回JSON，不要其他内容。
-            """, userMessage);
-        
+        if (isModelUnavailable()) {
+            return analyzeIntentWithRegex(userMessage);
+        }
         try {
-            ChatResponse response = chatModel.call(new Prompt(prompt));
-            String jsonResponse = response.getResult().getOutput().getText().trim();
-            
-            // 解析JSON响应
-            return parseIntentFromJSON(jsonResponse);
+            return intentCache.get(userMessage, this::classifyWithLLM);
         } catch (Exception e) {
-            // 如果LLM分析失败，回退到正则表达式分析
+            // 如果LLM分析失败，回退到正则表达式分析（回退结果不缓存）
             return analyzeIntentWithRegex(userMessage);
         }
     }
 
+    /**
+     * analyzeIntentWithLLM 的非阻塞版本，失败时同样回退到正则分析
+     */
+    private CompletableFuture<Intent> analyzeIntentWithLLMAsync(String userMessage) {
+        if (isModelUnavailable()) {
+            return CompletableFuture.completedFuture(analyzeIntentWithRegex(userMessage));
+        }
+        return intentCache.getAsync(userMessage, this::classifyWithLLMAsync)
+                .exceptionally(e -> analyzeIntentWithRegex(userMessage));
+    }
+
+    private Intent classifyWithLLM(String userMessage) {
+        return learnFrom(userMessage, StreamingIntentParser.parse(streamIntent(userMessage)).block());
+    }
+
+    // 学习和缓存写入是文件操作，不在HTTP客户端的事件循环线程中执行
+    private CompletableFuture<Intent> classifyWithLLMAsync(String userMessage) {
+        return StreamingIntentParser.parse(streamIntent(userMessage)).toFuture()
+                .thenApplyAsync(intent -> learnFrom(userMessage, intent), blockingExecutor);
+    }
+
+    // 模型网关熔断期间意图识别直接走正则，不再排队等待不可用的模型
+    private boolean isModelUnavailable() {
+        return chatModel instanceof ModelGateway gateway && gateway.isCircuitOpen();
+    }
+
+    private Intent learnFrom(String userMessage, Intent intent) {
+        if (intent == null) {
+            return new Intent(IntentType.GENERAL_CHAT, Map.of());
+        }
+        // 识别结果同时作为本地分类器的训练样本
+        intentRouter.learn(userMessage, intent.getType());
+        return intent;
+    }
+
+    private Flux<String> streamIntent(String userMessage) {
+        // 按JSON Schema约束输出并流式解析，intent和必需参数完整后立即返回并取消剩余生成。
+        // 固定的说明放在system消息里、用户消息单独放在最后，所有请求共享同一前缀，后端可以复用前缀的KV缓存
+        Prompt intentPrompt = new Prompt(List.of(new SystemMessage(INTENT_SYSTEM_PROMPT), new UserMessage(userMessage)),
+                modelProfiles.options(ModelProfiles.Task.INTENT).format(StreamingIntentParser.SCHEMA).build());
+        // 推理模型可能先输出<think>块：推理内容不交给解析器，超过预算时抛出异常取消生成，由调用方回退到正则
+        return Flux.defer(() -> {
+            ReasoningFilter filter = new ReasoningFilter(modelProfiles.getReasoningBudget(ModelProfiles.Task.INTENT));
+            return modelProfiles.timed(ModelProfiles.Task.INTENT, chatModel.stream(intentPrompt))
+                    .map(response -> filter.feed(chunkText(response)))
+                    .concatWith(Mono.fromCallable(filter::finish))
+                    .filter(text -> !text.isEmpty())
+                    .doFinally(signal -> modelProfiles.recordReasoning(ModelProfiles.Task.INTENT,
+                            filter.getReasoningChunks(), filter.isTruncated()));
+        });
+    }
+
+    private static String chunkText(ChatResponse response) {
+        if (response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        String text = response.getResult().getOutput().getText();
+        return text != null ? text : "";
+    }
+
     /**
      * 正则表达式分析（作为备用方案）
      */
-    private Intent analyzeIntentWithRegex(String userMessage) {
+    static Intent analyzeIntentWithRegex(String userMessage) {
         String lowerMessage = userMessage.toLowerCase();
         
         // 文件搜索模式
@@ -527,6 +853,15 @@ public class AgentService {
             }
         }
         
+        // 文件摘要模式
+        if (lowerMessage.contains("总结") || lowerMessage.contains("摘要") || lowerMessage.contains("概括") || lowerMessage.contains("summar")) {
+            Pattern pattern = Pattern.compile("(总结|摘要|概括|summarize|summarise)\\s*(?:一下|下)?\\s*[：:]*\\s*([\\w\\-./\\\\]+\\.\\w+)");
+            Matcher matcher = pattern.matcher(userMessage);
+            if (matcher.find()) {
+                return new Intent(IntentType.FILE_READ, Map.of("filePath", matcher.group(2), "mode", "summary"));
+            }
+        }
+        
         // 文件读取模式
         if (lowerMessage.contains("读取") || lowerMessage.contains("打开") || lowerMessage.contains("read") || lowerMessage.contains("open")) {
             Pattern pattern = Pattern.compile("(读取|打开|read|open)\\s*[：:]*\\s*(\\S+)");
@@ -544,61 +879,6 @@ public class AgentService {
         return new Intent(IntentType.GENERAL_CHAT, Map.of());
     }
 
-    /**
-     * 解析LLM返回的JSON意图
-     */
-    private Intent parseIntentFromJSON(String jsonResponse) {
-        try {
-            // 简单的JSON解析（实际项目中建议使用Jackson）
-            jsonResponse = jsonResponse.replaceAll("```json\\s*|\\s*```", "");
-            
-            // 提取intent
-            Pattern intentPattern = Pattern.compile("\"intent\"\\s*:\\s*\"([^\"]+)\"");
-            Matcher intentMatcher = intentPattern.matcher(jsonResponse);
-            if (!intentMatcher.find()) {
-                return new Intent(IntentType.GENERAL_CHAT, Map.of());
-            }
-            
-            String intentStr = intentMatcher.group(1);
-            IntentType intentType = IntentType.valueOf(intentStr);
-            
-            // 提取parameters
-            Map<String, String> parameters = new HashMap<>();
-            
-            // 提取query
-            Pattern queryPattern = Pattern.compile("\"query\"\\s*:\\s*\"([^\"]+)\"");
-            Matcher queryMatcher = queryPattern.matcher(jsonResponse);
-            if (queryMatcher.find()) {
-                parameters.put("query", queryMatcher.group(1));
-            }
-            
-            // 提取url
-            Pattern urlPattern = Pattern.compile("\"url\"\\s*:\\s*\"([^\"]+)\"");
-            Matcher urlMatcher = urlPattern.matcher(jsonResponse);
-            if (urlMatcher.find()) {
-                parameters.put("url", urlMatcher.group(1));
-            }
-            
-            // 提取filePath
-            Pattern filePathPattern = Pattern.compile("\"filePath\"\\s*:\\s*\"([^\"]+)\"");
-            Matcher filePathMatcher = filePathPattern.matcher(jsonResponse);
-            if (filePathMatcher.find()) {
-                parameters.put("filePath", filePathMatcher.group(1));
-            }
-            
-            // 提取targetDirectory
-            Pattern targetDirPattern = Pattern.compile("\"targetDirectory\"\\s*:\\s*\"([^\"]+)\"");
-            Matcher targetDirMatcher = targetDirPattern.matcher(jsonResponse);
-            if (targetDirMatcher.find()) {
-                parameters.put("targetDirectory", targetDirMatcher.group(1));
-            }
-            
-            return new Intent(intentType, parameters);
-        } catch (Exception e) {
-            return new Intent(IntentType.GENERAL_CHAT, Map.of());
-        }
-    }
-
     /**
      * 构建文件搜索的AI回复
      */
@@ -663,6 +943,35 @@ public class AgentService {
         public Map<String, String> getParameters() { return parameters; }
     }
 
+    /**
+     * 处理过程中的事件回调，非流式处理时使用NONE
+     */
+    private interface AgentListener {
+        AgentListener NONE = new AgentListener() {};
+
+        default void onIntent(Intent intent) {}
+        default void onProgress(String stage) {}
+        default void onHit(String kind, Object hit) {}
+    }
+
+    // 流式处理事件：intent、progress、hit、token、result
+    public static class AgentEvent {
+        private final String type;
+        private final Object data;
+
+        private AgentEvent(String type, Object data) {
+            this.type = type;
+            this.data = data;
+        }
+
+        static AgentEvent of(String type, Object data) {
+            return new AgentEvent(type, data);
+        }
+
+        public String getType() { return type; }
+        public Object getData() { return data; }
+    }
+
     // Agent响应类
     public static class AgentResponse {
         private final String action;
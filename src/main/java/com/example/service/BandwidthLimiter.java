@@ -0,0 +1,292 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 下载带宽整形
+ *
+ * 令牌桶分为全局、每个主机、每个任务三级，读取每个数据块前依次扣减；限速可以在运行时调整，
+ * 正在进行的下载会在下一个数据块生效。交互式下载进行时，批量下载暂停让出带宽。
+ * 任务的令牌桶随传输结束移除；主机的令牌桶在没有传输且未单独设置限速时移除。
+ */
+@Service
+public class BandwidthLimiter {
+
+    // 等待交互式下载结束期间检查任务状态的最长间隔（取消任务时会立即唤醒，这里只是兜底）
+    private static final long PREEMPT_CHECK_INTERVAL_MS = 1000;
+
+    private final TokenBucket globalBucket;
+    private final ConcurrentHashMap<String, HostBucket> hostBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> taskBuckets = new ConcurrentHashMap<>();
+    private volatile long defaultHostLimit;
+    private volatile long defaultTaskLimit;
+    private final AtomicInteger activeInteractive = new AtomicInteger(0);
+    private final ReentrantLock idleLock = new ReentrantLock();
+    private final Condition interactiveIdle = idleLock.newCondition();
+
+    public BandwidthLimiter(
+            @Value("${agent.download.bandwidth.global:0}") long globalLimit,
+            @Value("${agent.download.bandwidth.per-host:0}") long defaultHostLimit,
+            @Value("${agent.download.bandwidth.per-task:0}") long defaultTaskLimit) {
+        this.globalBucket = new TokenBucket(globalLimit);
+        this.defaultHostLimit = defaultHostLimit;
+        this.defaultTaskLimit = defaultTaskLimit;
+    }
+
+    /**
+     * 包装下载流，按任务优先级和三级限速读取数据
+     */
+    public InputStream throttle(InputStream inputStream, String host, FileDownloadService.DownloadTask task) {
+        return new ThrottledInputStream(inputStream, host, task);
+    }
+
+    /**
+     * 设置全局限速（字节/秒，0表示不限速）
+     */
+    public void setGlobalLimit(long bytesPerSecond) {
+        globalBucket.setRate(bytesPerSecond);
+    }
+
+    /**
+     * 设置新主机的默认限速，已有主机保持各自的设置
+     */
+    public void setDefaultHostLimit(long bytesPerSecond) {
+        this.defaultHostLimit = bytesPerSecond;
+    }
+
+    /**
+     * 设置指定主机的限速（保留到下次调整，不随传输结束移除）
+     */
+    public void setHostLimit(String host, long bytesPerSecond) {
+        hostBuckets.compute(host, (h, bucket) -> {
+            HostBucket result = bucket != null ? bucket : new HostBucket(bytesPerSecond);
+            result.setRate(bytesPerSecond);
+            result.overridden = true;
+            return result;
+        });
+    }
+
+    /**
+     * 设置新任务的默认限速
+     */
+    public void setDefaultTaskLimit(long bytesPerSecond) {
+        this.defaultTaskLimit = bytesPerSecond;
+    }
+
+    /**
+     * 设置正在传输的任务的限速，任务不在传输中（未开始或已结束）时不设置并返回false
+     */
+    public boolean setTaskLimit(String taskId, long bytesPerSecond) {
+        return taskBuckets.computeIfPresent(taskId, (id, bucket) -> {
+            bucket.setRate(bytesPerSecond);
+            return bucket;
+        }) != null;
+    }
+
+    /**
+     * 任务是否正在传输
+     */
+    public boolean isTransferring(String taskId) {
+        return taskBuckets.containsKey(taskId);
+    }
+
+    /**
+     * 唤醒等待中的批量下载，使其重新检查任务状态（任务取消后调用）
+     */
+    public void wakeUp() {
+        idleLock.lock();
+        try {
+            interactiveIdle.signalAll();
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    /**
+     * 获取当前限速配置
+     */
+    public Map<String, Object> getLimits() {
+        Map<String, Long> hosts = new LinkedHashMap<>();
+        hostBuckets.forEach((host, bucket) -> hosts.put(host, bucket.getRate()));
+        Map<String, Long> tasks = new LinkedHashMap<>();
+        taskBuckets.forEach((taskId, bucket) -> tasks.put(taskId, bucket.getRate()));
+
+        Map<String, Object> limits = new LinkedHashMap<>();
+        limits.put("global", globalBucket.getRate());
+        limits.put("defaultPerHost", defaultHostLimit);
+        limits.put("defaultPerTask", defaultTaskLimit);
+        limits.put("hosts", hosts);
+        limits.put("tasks", tasks);
+        limits.put("activeInteractive", activeInteractive.get());
+        return limits;
+    }
+
+    private void acquire(TokenBucket taskBucket, TokenBucket hostBucket, long bytes) throws InterruptedException {
+        taskBucket.acquire(bytes);
+        hostBucket.acquire(bytes);
+        globalBucket.acquire(bytes);
+    }
+
+    private void awaitInteractiveIdle(FileDownloadService.DownloadTask task) throws InterruptedException {
+        if (activeInteractive.get() == 0) {
+            return;
+        }
+        idleLock.lock();
+        try {
+            while (activeInteractive.get() > 0 && task.getStatus() == FileDownloadService.DownloadStatus.DOWNLOADING) {
+                interactiveIdle.await(PREEMPT_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    private HostBucket openHost(String host) {
+        return hostBuckets.compute(host, (h, bucket) -> {
+            HostBucket result = bucket != null ? bucket : new HostBucket(defaultHostLimit);
+            result.transfers++;
+            return result;
+        });
+    }
+
+    private void closeHost(String host) {
+        hostBuckets.computeIfPresent(host, (h, bucket) -> --bucket.transfers == 0 && !bucket.overridden ? null : bucket);
+    }
+
+    private void interactiveFinished() {
+        if (activeInteractive.decrementAndGet() == 0) {
+            wakeUp();
+        }
+    }
+
+    // 限速输入流
+    private class ThrottledInputStream extends FilterInputStream {
+        private final FileDownloadService.DownloadTask task;
+        private final String host;
+        private final TokenBucket hostBucket;
+        private final TokenBucket taskBucket;
+        private final boolean interactive;
+        private boolean closed;
+
+        ThrottledInputStream(InputStream in, String host, FileDownloadService.DownloadTask task) {
+            super(in);
+            this.task = task;
+            this.host = host == null ? "" : host;
+            this.hostBucket = openHost(this.host);
+            this.taskBucket = taskBuckets.computeIfAbsent(task.getTaskId(), id -> new TokenBucket(defaultTaskLimit));
+            this.interactive = task.getPriority() == FileDownloadService.DownloadPriority.INTERACTIVE;
+            if (interactive) {
+                activeInteractive.incrementAndGet();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ensureNotCancelled();
+            try {
+                if (!interactive) {
+                    awaitInteractiveIdle(task);
+                    ensureNotCancelled();
+                }
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    acquire(taskBucket, hostBucket, n);
+                }
+                return n;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("下载被中断");
+            }
+        }
+
+        private void ensureNotCancelled() throws IOException {
+            if (task.getStatus() == FileDownloadService.DownloadStatus.CANCELLED) {
+                throw new IOException("下载已取消");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                if (interactive) {
+                    interactiveFinished();
+                }
+                taskBuckets.remove(task.getTaskId());
+                closeHost(host);
+            }
+            super.close();
+        }
+    }
+
+    // 主机的令牌桶，transfers和overridden只在hostBuckets的compute中修改
+    static class HostBucket extends TokenBucket {
+        private int transfers;
+        private boolean overridden;
+
+        HostBucket(long rate) {
+            super(rate);
+        }
+    }
+
+    // 令牌桶，突发容量为一秒的流量
+    static class TokenBucket {
+        private volatile long rate;
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        long getRate() {
+            return rate;
+        }
+
+        void setRate(long rate) {
+            this.rate = rate;
+        }
+
+        void acquire(long bytes) throws InterruptedException {
+            long waitNanos = reserve(bytes);
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+
+        // 先扣减令牌（允许透支），返回需要等待的时间
+        private synchronized long reserve(long bytes) {
+            long currentRate = rate;
+            long now = System.nanoTime();
+            if (currentRate <= 0) {
+                lastRefillNanos = now;
+                return 0;
+            }
+            tokens = Math.min(currentRate, tokens + (now - lastRefillNanos) / 1e9 * currentRate);
+            lastRefillNanos = now;
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens / currentRate * 1e9);
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多轮对话的上下文窗口
+ *
+ * 按估算的token数控制发送给模型的历史长度：历史未超出预算时原样发送；超出时只保留最近的若干条消息，
+ * 更早的消息用摘要代替。摘要在后台增量生成（已有摘要 + 新移出窗口的消息，按token预算分批，每次调用的长度有上限），
+ * 按消息前缀缓存，同一对话后续请求直接复用；服务端会话移除早期消息后，前缀摘要值从移除的消息接续计算，已有摘要仍然有效。
+ * 摘要尚未生成时，本次请求先用已有的较短前缀的摘要，因此提示词长度（以及预填充耗时）不随对话轮数增长。
+ */
+@Component
+public class ConversationContext {
+
+    private static final String SUMMARY_PREFIX = "以下是之前对话的摘要，请结合摘要继续对话：\n";
+    // 每条消息的角色标记等固定开销
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private final ChatModel chatModel;
+    private final ModelProfiles modelProfiles;
+    private final Executor executor;
+    private final int maxHistoryTokens;
+    private final int summaryTokens;
+    private final int maxSummaries;
+
+    // 消息前缀的摘要，key为前缀的链式摘要值，按访问顺序淘汰
+    private final Map<String, String> summaries;
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong trimmedRequests = new AtomicLong(0);
+    private final AtomicLong summaryHits = new AtomicLong(0);
+    private final AtomicLong unsummarizedDropped = new AtomicLong(0);
+    private final AtomicLong summarizations = new AtomicLong(0);
+    private final AtomicLong summarizationFailures = new AtomicLong(0);
+    private final AtomicLong promptTokens = new AtomicLong(0);
+    private final AtomicLong maxPromptTokens = new AtomicLong(0);
+
+    @Autowired
+    public ConversationContext(ChatModel chatModel, ModelProfiles modelProfiles,
+                               @Value("${agent.conversation-context.max-history-tokens:2048}") int maxHistoryTokens,
+                               @Value("${agent.conversation-context.summary-tokens:256}") int summaryTokens,
+                               @Value("${agent.conversation-context.max-summaries:1000}") int maxSummaries,
+                               @Value("${agent.conversation-context.summary-threads:1}") int summaryThreads) {
+        this(chatModel, modelProfiles, summaryExecutor(summaryThreads), maxHistoryTokens, summaryTokens, maxSummaries);
+    }
+
+    ConversationContext(ChatModel chatModel, ModelProfiles modelProfiles, Executor executor,
+                        int maxHistoryTokens, int summaryTokens, int maxSummaries) {
+        this.chatModel = chatModel;
+        this.modelProfiles = modelProfiles;
+        this.executor = executor;
+        this.maxHistoryTokens = maxHistoryTokens;
+        this.summaryTokens = Math.min(summaryTokens, maxHistoryTokens / 2);
+        this.maxSummaries = maxSummaries;
+        this.summaries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > ConversationContext.this.maxSummaries;
+            }
+        };
+    }
+
+    /**
+     * 按token预算组装本轮对话的提示词（使用聊天场景的模型配置）；历史过长时在后台为移出窗口的消息生成摘要
+     */
+    public Window build(List<Message> history, String newMessage) {
+        return build("", history, newMessage);
+    }
+
+    /**
+     * 按服务端会话的历史组装提示词，摘要的前缀从会话已移除的消息接续
+     */
+    public Window build(ConversationHistory.Transcript transcript, String newMessage) {
+        return build(transcript.getPrefixKey(), transcript.getMessages(), newMessage);
+    }
+
+    private Window build(String prefixKey, List<Message> history, String newMessage) {
+        requests.incrementAndGet();
+        List<Message> messages = new ArrayList<>();
+        int total = 0;
+        for (Message message : history) {
+            total += estimateTokens(message);
+        }
+
+        int cut = 0;
+        String summary = null;
+        int summarized = 0;
+        if (total > maxHistoryTokens) {
+            trimmedRequests.incrementAndGet();
+            // 从最新的消息往前保留，给摘要留出空间
+            int budget = maxHistoryTokens - summaryTokens;
+            int used = 0;
+            cut = history.size();
+            while (cut > 0 && used + estimateTokens(history.get(cut - 1)) <= budget) {
+                used += estimateTokens(history.get(cut - 1));
+                cut--;
+            }
+            String[] keys = prefixKeys(prefixKey, history, cut);
+            // 最长的已有摘要；与cut之间的消息本次不发送，等后台摘要完成
+            for (summarized = cut; summarized > 0; summarized--) {
+                summary = cachedSummary(keys[summarized]);
+                if (summary != null) {
+                    break;
+                }
+            }
+            if (summary != null) {
+                summaryHits.incrementAndGet();
+            }
+            if (summarized < cut) {
+                unsummarizedDropped.addAndGet(cut - summarized);
+                summarizeInBackground(keys, summarized, cut, summary, history);
+            }
+        }
+
+        if (summary != null) {
+            messages.add(new SystemMessage(SUMMARY_PREFIX + summary));
+        }
+        messages.addAll(history.subList(cut, history.size()));
+        messages.add(new UserMessage(newMessage));
+        int tokens = 0;
+        for (Message message : messages) {
+            tokens += estimateTokens(message);
+        }
+        promptTokens.addAndGet(tokens);
+        maxPromptTokens.accumulateAndGet(tokens, Math::max);
+        return new Window(new Prompt(messages, modelProfiles.options(ModelProfiles.Task.CHAT).build()),
+                tokens, summarized, history.size() - cut, cut - summarized);
+    }
+
+    // 摘要线程独立于处理请求的线程池，优先级较低、队列有界：摘要积压时放弃，不占用请求的线程
+    private static ExecutorService summaryExecutor(int threads) {
+        int poolSize = Math.max(1, threads);
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(poolSize * 16), runnable -> {
+                    Thread thread = new Thread(runnable, "conversation-summary-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    private String cachedSummary(String key) {
+        synchronized (summaries) {
+            return summaries.get(key);
+        }
+    }
+
+    // 同一前缀只生成一次，摘要线程池已满时放弃，下次请求再试。
+    // 每批完成后即缓存对应前缀的摘要，中途失败时下次请求从已完成的部分继续
+    private void summarizeInBackground(String[] keys, int from, int to, String previousSummary, List<Message> history) {
+        String key = keys[to];
+        if (!summarizing.add(key)) {
+            return;
+        }
+        List<Batch> batches = batches(keys, from, to, history);
+        try {
+            executor.execute(() -> {
+                try {
+                    String summary = previousSummary;
+                    for (Batch batch : batches) {
+                        summary = summarize(summary, batch.messages);
+                        synchronized (summaries) {
+                            summaries.put(batch.key, summary);
+                        }
+                        summarizations.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    summarizationFailures.incrementAndGet();
+                } finally {
+                    summarizing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            summarizing.remove(key);
+        }
+    }
+
+    // 按token预算把 [from, to) 的消息分批，每批加上已有摘要不超过历史预算
+    private List<Batch> batches(String[] keys, int from, int to, List<Message> history) {
+        int budget = batchTokens();
+        List<Batch> batches = new ArrayList<>();
+        int start = from;
+        int used = 0;
+        for (int i = from; i < to; i++) {
+            int tokens = estimateTokens(history.get(i));
+            if (i > start && used + tokens > budget) {
+                batches.add(new Batch(keys[i], history.subList(start, i)));
+                start = i;
+                used = 0;
+            }
+            used += tokens;
+        }
+        batches.add(new Batch(keys[to], history.subList(start, to)));
+        return batches;
+    }
+
+    private int batchTokens() {
+        return Math.max(1, maxHistoryTokens - summaryTokens);
+    }
+
+    private String summarize(String previousSummary, List<Message> messages) {
+        StringBuilder request = new StringBuilder("请把下面的对话压缩成一段简洁的摘要，保留用户的目标、已确定的事实和未解决的问题，只输出摘要。\n\n");
+        if (previousSummary != null) {
+            request.append("已有摘要：\n").append(previousSummary).append("\n\n");
+        }
+        request.append("新增对话：\n");
+        for (Message message : messages) {
+            // 单条消息超出预算时截断（按每字一个token的上限估计）
+            String text = String.valueOf(message.getText());
+            if (text.length() > batchTokens()) {
+                text = text.substring(0, batchTokens());
+            }
+            request.append(message instanceof AssistantMessage ? "助手：" : "用户：").append(text).append('\n');
+        }
+        Prompt prompt = new Prompt(request.toString(),
+                modelProfiles.options(ModelProfiles.Task.SUMMARIZATION).numPredict(summaryTokens).build());
+        String text = modelProfiles.timed(ModelProfiles.Task.SUMMARIZATION, () -> chatModel.call(prompt))
+                .getResult().getOutput().getText();
+        return text != null ? text.trim() : "";
+    }
+
+    // keys[i] 为前i条消息的链式摘要值，keys[0] 为已移除消息的摘要值（没有移除时为空串）
+    private static String[] prefixKeys(String prefixKey, List<Message> history, int count) {
+        String[] keys = new String[count + 1];
+        keys[0] = prefixKey;
+        for (int i = 0; i < count; i++) {
+            keys[i + 1] = prefixKey(keys[i], history.get(i));
+        }
+        return keys;
+    }
+
+    /**
+     * 在前缀摘要值后接一条消息，得到新前缀的摘要值；会话移除早期消息时用它折算被移除的部分
+     */
+    static String prefixKey(String previous, Message message) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(previous.getBytes(StandardCharsets.UTF_8));
+            digest.update(message.getMessageType().getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(message.getText()).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 估算token数：中日韩文字每字约一个token，其他文字约每4个字符一个token
+     */
+    static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+            if (script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                    || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL) {
+                cjk++;
+            } else {
+                other++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    private static int estimateTokens(Message message) {
+        return MESSAGE_OVERHEAD_TOKENS + estimateTokens(message.getText());
+    }
+
+    /**
+     * 获取上下文窗口统计信息
+     */
+    public Map<String, Object> getStats() {
+        long total = requests.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxHistoryTokens", maxHistoryTokens);
+        stats.put("summaryTokens", summaryTokens);
+        stats.put("requests", total);
+        stats.put("trimmedRequests", trimmedRequests.get());
+        stats.put("summaryHits", summaryHits.get());
+        stats.put("unsummarizedDropped", unsummarizedDropped.get());
+        stats.put("summarizations", summarizations.get());
+        stats.put("summarizationFailures", summarizationFailures.get());
+        synchronized (summaries) {
+            stats.put("cachedSummaries", summaries.size());
+        }
+        stats.put("avgPromptTokens", total == 0 ? 0 : promptTokens.get() / total);
+        stats.put("maxPromptTokens", maxPromptTokens.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ExecutorService service) {
+            service.shutdownNow();
+        }
+    }
+
+    // 一次摘要调用合并的消息，完成后缓存在key（该批末尾的前缀）下
+    private static class Batch {
+        private final String key;
+        private final List<Message> messages;
+
+        Batch(String key, List<Message> messages) {
+            this.key = key;
+            this.messages = List.copyOf(messages);
+        }
+    }
+
+    /**
+     * 本轮发送给模型的提示词及其组成
+     */
+    public static class Window {
+        private final Prompt prompt;
+        private final int promptTokens;
+        private final int summarizedMessages;
+        private final int recentMessages;
+        private final int droppedMessages;
+
+        Window(Prompt prompt, int promptTokens, int summarizedMessages, int recentMessages, int droppedMessages) {
+            this.prompt = prompt;
+            this.promptTokens = promptTokens;
+            this.summarizedMessages = summarizedMessages;
+            this.recentMessages = recentMessages;
+            this.droppedMessages = droppedMessages;
+        }
+
+        public Prompt getPrompt() { return prompt; }
+        public int getPromptTokens() { return promptTokens; }
+        // 由摘要代替的早期消息数
+        public int getSummarizedMessages() { return summarizedMessages; }
+        // 原样发送的最近消息数
+        public int getRecentMessages() { return recentMessages; }
+        // 移出窗口但摘要尚未生成、本轮未发送的消息数
+        public int getDroppedMessages() { return droppedMessages; }
+    }
+}
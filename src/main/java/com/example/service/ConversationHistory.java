@@ -0,0 +1,363 @@
+package com.example.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务端保存的多轮对话历史
+ *
+ * 以会话ID为键保存每轮的用户消息和回复，客户端每次只需发送会话ID和新消息，不必重发整个历史。
+ * 一般聊天和Agent处理的每一轮都记录在同一份历史中。每个会话的消息数有上限，超出后一次移除最早的四分之一；
+ * 移除的消息折算为前缀摘要值随会话保存，上下文窗口的摘要键从它接续计算，移除前生成的摘要仍可复用。空闲超过有效期的会话被淘汰，
+ * 会话数超过上限时淘汰最久未访问的会话，配置了溢出目录时写入磁盘，再次访问时读回。
+ * 会话按访问顺序排列，过期和超额的会话都从最久未访问的一端移除，每次淘汰为O(1)。
+ */
+@Component
+public class ConversationHistory {
+
+    private static final String SPILL_SUFFIX = ".json";
+
+    // 按访问顺序排列（最久未访问的在前），读写都在该对象的锁内进行
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final long ttlMillis;
+    private final int maxSessions;
+    private final int maxMessages;
+    private final int maxMessageChars;
+    private final Path spillDirectory;
+    private final long sweepIntervalMillis;
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+    private final AtomicLong appended = new AtomicLong(0);
+    private final AtomicLong trimmedMessages = new AtomicLong(0);
+    private final AtomicLong expired = new AtomicLong(0);
+    private final AtomicLong evicted = new AtomicLong(0);
+    private final AtomicLong spilled = new AtomicLong(0);
+    private final AtomicLong restored = new AtomicLong(0);
+
+    public ConversationHistory(@Value("${agent.conversation-history.ttl:30m}") Duration ttl,
+                               @Value("${agent.conversation-history.max-sessions:10000}") int maxSessions,
+                               @Value("${agent.conversation-history.max-messages:200}") int maxMessages,
+                               @Value("${agent.conversation-history.max-message-chars:4000}") int maxMessageChars,
+                               @Value("${agent.conversation-history.spill-directory:}") String spillDirectory) {
+        this.ttlMillis = ttl.toMillis();
+        this.maxSessions = maxSessions;
+        // 按轮（用户消息+回复）成对保存
+        this.maxMessages = Math.max(2, maxMessages - maxMessages % 2);
+        this.maxMessageChars = maxMessageChars;
+        this.spillDirectory = StringUtils.hasText(spillDirectory) ? Paths.get(spillDirectory) : null;
+        this.sweepIntervalMillis = Math.max(1000, ttlMillis / 10);
+    }
+
+    /**
+     * 会话的历史消息（按时间顺序），不存在或已过期时为空列表
+     */
+    public List<Message> get(String sessionId) {
+        return transcript(sessionId).getMessages();
+    }
+
+    /**
+     * 会话的历史消息及已移除消息的前缀摘要值（同一时刻的快照），用于组装上下文窗口
+     */
+    public Transcript transcript(String sessionId) {
+        Session session = find(sessionId);
+        if (session == null) {
+            return new Transcript(List.of(), "");
+        }
+        synchronized (session) {
+            List<Message> messages = new ArrayList<>(session.texts.size());
+            for (int i = 0; i < session.texts.size(); i++) {
+                messages.add(message(i, session.texts.get(i)));
+            }
+            return new Transcript(messages, session.prefixKey);
+        }
+    }
+
+    private static Message message(int index, String text) {
+        return index % 2 == 0 ? new UserMessage(text) : new AssistantMessage(text);
+    }
+
+    /**
+     * 追加一轮对话
+     */
+    public void append(String sessionId, String userMessage, String reply) {
+        if (sessionId == null) {
+            return;
+        }
+        Session session = find(sessionId);
+        if (session == null) {
+            synchronized (sessions) {
+                session = sessions.computeIfAbsent(sessionId, id -> new Session());
+            }
+        }
+        synchronized (session) {
+            session.texts.add(truncate(userMessage));
+            session.texts.add(truncate(reply));
+            if (session.texts.size() > maxMessages) {
+                int remove = Math.max(2, (maxMessages / 4) & ~1);
+                for (int i = 0; i < remove; i++) {
+                    session.prefixKey = ConversationContext.prefixKey(session.prefixKey, message(i, session.texts.get(i)));
+                }
+                session.texts.subList(0, remove).clear();
+                trimmedMessages.addAndGet(remove);
+            }
+        }
+        appended.incrementAndGet();
+        evictIfNeeded();
+    }
+
+    /**
+     * 删除会话历史（内存和磁盘）
+     */
+    public void clear(String sessionId) {
+        synchronized (sessions) {
+            sessions.remove(sessionId);
+        }
+        if (spillDirectory != null) {
+            try {
+                Files.deleteIfExists(spillFile(sessionId));
+            } catch (IOException e) {
+                // 删除失败时由过期清理处理
+            }
+        }
+    }
+
+    /**
+     * 会话中的对话轮数
+     */
+    public int turns(String sessionId) {
+        Session session;
+        synchronized (sessions) {
+            session = sessions.get(sessionId);
+        }
+        if (session == null) {
+            return 0;
+        }
+        synchronized (session) {
+            return session.texts.size() / 2;
+        }
+    }
+
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    // 查找会话并记为最近访问；过期的会话直接移除
+    private Session find(String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (sessions) {
+            Session session = sessions.get(sessionId);
+            if (session != null) {
+                if (isExpired(session.lastAccess, now)) {
+                    sessions.remove(sessionId);
+                    expired.incrementAndGet();
+                    return null;
+                }
+                session.lastAccess = now;
+                return session;
+            }
+        }
+        return restore(sessionId);
+    }
+
+    private String truncate(String text) {
+        String value = text != null ? text : "";
+        return value.length() > maxMessageChars ? value.substring(0, maxMessageChars) : value;
+    }
+
+    /**
+     * 从最久未访问的一端移除空闲会话，以及超过上限的会话（写入磁盘在锁外进行）；
+     * 磁盘上过期的溢出文件定期清理
+     */
+    void evictIfNeeded() {
+        long now = System.currentTimeMillis();
+        List<String> evictedIds = new ArrayList<>();
+        List<Session> evictedSessions = new ArrayList<>();
+        synchronized (sessions) {
+            Iterator<Map.Entry<String, Session>> eldest = sessions.entrySet().iterator();
+            while (eldest.hasNext()) {
+                Map.Entry<String, Session> entry = eldest.next();
+                if (isExpired(entry.getValue().lastAccess, now)) {
+                    eldest.remove();
+                    expired.incrementAndGet();
+                } else if (sessions.size() > maxSessions) {
+                    evictedIds.add(entry.getKey());
+                    evictedSessions.add(entry.getValue());
+                    eldest.remove();
+                    evicted.incrementAndGet();
+                } else {
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < evictedIds.size(); i++) {
+            spill(evictedIds.get(i), evictedSessions.get(i));
+        }
+        long last = lastSweep.get();
+        if (spillDirectory != null && now - last >= sweepIntervalMillis && lastSweep.compareAndSet(last, now)) {
+            deleteExpiredSpills(now);
+        }
+    }
+
+    private boolean isExpired(long lastAccess, long now) {
+        return now - lastAccess > ttlMillis;
+    }
+
+    private void spill(String sessionId, Session session) {
+        if (spillDirectory == null) {
+            return;
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        synchronized (session) {
+            snapshot.put("sessionId", sessionId);
+            snapshot.put("lastAccess", session.lastAccess);
+            snapshot.put("texts", new ArrayList<>(session.texts));
+            snapshot.put("prefixKey", session.prefixKey);
+        }
+        try {
+            Files.createDirectories(spillDirectory);
+            objectMapper.writeValue(spillFile(sessionId).toFile(), snapshot);
+            spilled.incrementAndGet();
+        } catch (IOException e) {
+            // 写入失败时该会话历史丢失，不影响服务
+        }
+    }
+
+    private Session restore(String sessionId) {
+        if (spillDirectory == null) {
+            return null;
+        }
+        Path file = spillFile(sessionId);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            Map<String, Object> snapshot = objectMapper.readValue(file.toFile(), new TypeReference<Map<String, Object>>() {});
+            Files.deleteIfExists(file);
+            long lastAccess = ((Number) snapshot.get("lastAccess")).longValue();
+            if (!sessionId.equals(snapshot.get("sessionId")) || isExpired(lastAccess, System.currentTimeMillis())) {
+                return null;
+            }
+            Session session = new Session();
+            for (Object text : (List<?>) snapshot.get("texts")) {
+                session.texts.add(String.valueOf(text));
+            }
+            Object prefixKey = snapshot.get("prefixKey");
+            session.prefixKey = prefixKey != null ? String.valueOf(prefixKey) : "";
+            Session existing;
+            synchronized (sessions) {
+                existing = sessions.putIfAbsent(sessionId, session);
+            }
+            restored.incrementAndGet();
+            return existing != null ? existing : session;
+        } catch (IOException | RuntimeException e) {
+            // 文件损坏时从空历史开始
+            return null;
+        }
+    }
+
+    private void deleteExpiredSpills(long now) {
+        if (!Files.isDirectory(spillDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory, "*" + SPILL_SUFFIX)) {
+            for (Path file : files) {
+                if (isExpired(Files.getLastModifiedTime(file).toMillis(), now)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            // 下次清理时重试
+        }
+    }
+
+    // 会话ID由客户端提供，文件名使用其摘要
+    private Path spillFile(String sessionId) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(sessionId.getBytes(StandardCharsets.UTF_8));
+            return spillDirectory.resolve(HexFormat.of().formatHex(hash) + SPILL_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 获取会话历史统计信息
+     */
+    public Map<String, Object> getStats() {
+        List<Session> snapshot;
+        synchronized (sessions) {
+            snapshot = new ArrayList<>(sessions.values());
+        }
+        long messages = 0;
+        for (Session session : snapshot) {
+            synchronized (session) {
+                messages += session.texts.size();
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", snapshot.size());
+        stats.put("messages", messages);
+        stats.put("appendedTurns", appended.get());
+        stats.put("trimmedMessages", trimmedMessages.get());
+        stats.put("expired", expired.get());
+        stats.put("evicted", evicted.get());
+        stats.put("spillEnabled", spillDirectory != null);
+        stats.put("spilled", spilled.get());
+        stats.put("restored", restored.get());
+        return stats;
+    }
+
+    // 偶数位置是用户消息，奇数位置是对应的回复
+    private static class Session {
+        private final List<String> texts = new ArrayList<>();
+        // 已移除消息的链式摘要值
+        private String prefixKey = "";
+        private volatile long lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * 会话历史快照
+     */
+    public static class Transcript {
+        private final List<Message> messages;
+        private final String prefixKey;
+
+        Transcript(List<Message> messages, String prefixKey) {
+            this.messages = messages;
+            this.prefixKey = prefixKey;
+        }
+
+        public List<Message> getMessages() { return messages; }
+        // 已移除消息的前缀摘要值，没有移除时为空串
+        public String getPrefixKey() { return prefixKey; }
+    }
+}
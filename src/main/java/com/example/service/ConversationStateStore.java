@@ -0,0 +1,135 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按会话保存的对话状态（待确认的下载候选）
+ *
+ * 以客户端会话ID为键，不同会话互不影响；状态超过有效期或会话数超过上限时按创建顺序淘汰。
+ * 候选文件只保存路径数组，不保留完整的 FileInfo 列表。
+ */
+@Component
+public class ConversationStateStore {
+
+    // 最多保存的候选数，与确认提示中列出的条数一致
+    static final int MAX_CANDIDATES = 10;
+
+    private final ConcurrentHashMap<String, PendingDownload> pendingBySession = new ConcurrentHashMap<>();
+    // 按创建顺序排队，用于过期和容量淘汰
+    private final ConcurrentLinkedQueue<PendingDownload> creationQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong evicted = new AtomicLong(0);
+    private final long ttlMillis;
+    private final int maxSessions;
+
+    public ConversationStateStore(
+            @Value("${agent.conversation.ttl:10m}") Duration ttl,
+            @Value("${agent.conversation.max-sessions:10000}") int maxSessions) {
+        this.ttlMillis = ttl.toMillis();
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * 保存会话的待确认下载，覆盖该会话之前的状态
+     */
+    public void putPendingDownload(String sessionId, List<FileSearchService.FileInfo> files,
+                                   String targetDirectory, String query) {
+        String[] paths = files.stream()
+                .limit(MAX_CANDIDATES)
+                .map(FileSearchService.FileInfo::getPath)
+                .toArray(String[]::new);
+        PendingDownload pending = new PendingDownload(sessionId, paths, targetDirectory, query, System.currentTimeMillis());
+        pendingBySession.put(sessionId, pending);
+        creationQueue.add(pending);
+        evictExpired();
+    }
+
+    /**
+     * 获取会话的待确认下载，过期或不存在时返回null
+     */
+    public PendingDownload getPendingDownload(String sessionId) {
+        PendingDownload pending = pendingBySession.get(sessionId);
+        if (pending == null) {
+            return null;
+        }
+        if (isExpired(pending, System.currentTimeMillis())) {
+            pendingBySession.remove(sessionId, pending);
+            return null;
+        }
+        return pending;
+    }
+
+    /**
+     * 清除会话的待确认下载（只清除仍是同一份状态时，避免并发请求误删新状态）
+     */
+    public void clearPendingDownload(String sessionId, PendingDownload pending) {
+        pendingBySession.remove(sessionId, pending);
+    }
+
+    public int size() {
+        return pendingBySession.size();
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    /**
+     * 淘汰过期状态，并把会话数控制在上限以内
+     */
+    void evictExpired() {
+        long now = System.currentTimeMillis();
+        PendingDownload head;
+        while ((head = creationQueue.peek()) != null) {
+            boolean superseded = pendingBySession.get(head.sessionId) != head;
+            if (!superseded && !isExpired(head, now) && pendingBySession.size() <= maxSessions) {
+                break;
+            }
+            if (creationQueue.remove(head) && !superseded && pendingBySession.remove(head.sessionId, head)) {
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean isExpired(PendingDownload pending, long now) {
+        return now - pending.createdAt > ttlMillis;
+    }
+
+    // 待确认的下载
+    public static class PendingDownload {
+        private final String sessionId;
+        private final String[] paths;
+        private final String targetDirectory;
+        private final String query;
+        private final long createdAt;
+
+        PendingDownload(String sessionId, String[] paths, String targetDirectory, String query, long createdAt) {
+            this.sessionId = sessionId;
+            this.paths = paths;
+            this.targetDirectory = targetDirectory;
+            this.query = query;
+            this.createdAt = createdAt;
+        }
+
+        public int size() { return paths.length; }
+        public String getPath(int index) { return paths[index]; }
+        public String getTargetDirectory() { return targetDirectory; }
+        public String getQuery() { return query; }
+        public long getCreatedAt() { return createdAt; }
+
+        /**
+         * 候选文件名（路径的最后一段）
+         */
+        public String getName(int index) {
+            String path = paths[index];
+            int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+            return path.substring(slash + 1);
+        }
+    }
+}
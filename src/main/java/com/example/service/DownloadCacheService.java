@@ -0,0 +1,318 @@
+package com.example.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * 内容寻址的下载缓存
+ *
+ * 文件按SHA-256摘要存放在 objects/ab/abcdef... 下，index.json 记录 URL（或本地文件路径）到摘要的映射
+ * 以及用于条件请求的 ETag / Last-Modified。总大小超过上限时按LRU淘汰。
+ * 命中时把内容复制到目标位置，下载得到的文件与缓存内容互不影响；索引按间隔批量写出，关闭时写出剩余的修改。
+ */
+@Service
+public class DownloadCacheService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SAVE_INTERVAL_MILLIS = 30_000;
+
+    private final Path cacheRoot;
+    private final Path objectsDir;
+    private final Path indexFile;
+    private final long maxSizeBytes;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // key(URL或file:路径) -> 缓存条目
+    private final ConcurrentHashMap<String, CacheEntry> index = new ConcurrentHashMap<>();
+    // 摘要 -> 大小，按访问顺序排列，用于LRU淘汰
+    private final LinkedHashMap<String, Long> lru = new LinkedHashMap<>(16, 0.75f, true);
+    // 正在复制到目标位置的摘要 -> 引用数，淘汰时跳过
+    private final Map<String, Integer> pinned = new HashMap<>();
+    private long totalBytes = 0;
+    private volatile boolean dirty;
+    private volatile long lastSaved = System.currentTimeMillis();
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong bytesSaved = new AtomicLong(0);
+
+    public DownloadCacheService(
+            @Value("${agent.download.cache.dir:./downloads/.cache}") String cacheDir,
+            @Value("${agent.download.cache.max-size:1073741824}") long maxSizeBytes) {
+        this.cacheRoot = Paths.get(cacheDir);
+        this.objectsDir = cacheRoot.resolve("objects");
+        this.indexFile = cacheRoot.resolve("index.json");
+        this.maxSizeBytes = maxSizeBytes;
+        loadIndex();
+    }
+
+    /**
+     * 查找缓存条目（仅当对应的内容文件仍然存在时返回）
+     */
+    public CacheEntry lookup(String key) {
+        CacheEntry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!Files.exists(blobPath(entry.getDigest()))) {
+            index.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 将输入流写入缓存，写入过程中同步计算SHA-256，并复制到目标位置（target为null时只写入缓存）。
+     * 复制完成前该内容不会被淘汰，超过缓存上限的文件复制后立即淘汰，不影响目标文件。
+     */
+    public CacheEntry store(String key, InputStream inputStream, String etag, String lastModified,
+                            Path target, LongConsumer onProgress) throws IOException {
+        Files.createDirectories(objectsDir);
+        Path tempFile = Files.createTempFile(cacheRoot, "incoming_", ".tmp");
+        try {
+            MessageDigest digest = newSha256();
+            long size = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                    if (onProgress != null) {
+                        onProgress.accept(size);
+                    }
+                }
+            }
+
+            String hex = toHex(digest.digest());
+            Path blob = blobPath(hex);
+            Files.createDirectories(blob.getParent());
+            synchronized (lru) {
+                if (Files.exists(blob)) {
+                    // 内容相同的文件已存在，直接复用
+                    Files.delete(tempFile);
+                    lru.get(hex);
+                } else {
+                    Files.move(tempFile, blob, StandardCopyOption.ATOMIC_MOVE);
+                    blob.toFile().setReadOnly();
+                    lru.put(hex, size);
+                    totalBytes += size;
+                }
+                pinned.merge(hex, 1, Integer::sum);
+            }
+
+            CacheEntry entry = new CacheEntry(hex, size, etag, lastModified, System.currentTimeMillis());
+            index.put(key, entry);
+            try {
+                if (target != null) {
+                    materialize(entry, target);
+                }
+            } finally {
+                synchronized (lru) {
+                    pinned.computeIfPresent(hex, (digestHex, count) -> count > 1 ? count - 1 : null);
+                }
+            }
+            evictIfNecessary();
+            dirty = true;
+            if (System.currentTimeMillis() - lastSaved > SAVE_INTERVAL_MILLIS) {
+                save();
+            }
+            return entry;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * 缓存命中：将缓存内容复制到目标位置，并记录节省的流量
+     */
+    public long materializeHit(CacheEntry entry, Path target) throws IOException {
+        long size = materialize(entry, target);
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(size);
+        synchronized (lru) {
+            lru.get(entry.getDigest());
+        }
+        return size;
+    }
+
+    /**
+     * 将缓存内容复制到目标位置。不使用硬链接：用户修改下载的文件时不能改动缓存中按摘要寻址的内容
+     */
+    public long materialize(CacheEntry entry, Path target) throws IOException {
+        Files.copy(blobPath(entry.getDigest()), target, StandardCopyOption.REPLACE_EXISTING);
+        // 缓存内容是只读的，复制得到的文件恢复为可写
+        target.toFile().setWritable(true);
+        return entry.getSize();
+    }
+
+    /**
+     * 记录一次未命中（需要完整传输）
+     */
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("bytesSaved", bytesSaved.get());
+        synchronized (lru) {
+            stats.put("objects", lru.size());
+            stats.put("sizeBytes", totalBytes);
+        }
+        stats.put("maxSizeBytes", maxSizeBytes);
+        stats.put("indexEntries", index.size());
+        return stats;
+    }
+
+    Path blobPath(String digest) {
+        return objectsDir.resolve(digest.substring(0, 2)).resolve(digest);
+    }
+
+    private void evictIfNecessary() {
+        synchronized (lru) {
+            Iterator<Map.Entry<String, Long>> iterator = lru.entrySet().iterator();
+            while (totalBytes > maxSizeBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (pinned.containsKey(eldest.getKey())) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(blobPath(eldest.getKey()));
+                } catch (IOException e) {
+                    // 删除失败时仅从统计中移除，下次启动重新扫描
+                }
+                totalBytes -= eldest.getValue();
+                iterator.remove();
+                String evicted = eldest.getKey();
+                index.values().removeIf(entry -> entry.getDigest().equals(evicted));
+            }
+        }
+    }
+
+    private void loadIndex() {
+        try {
+            if (Files.exists(indexFile)) {
+                Map<String, CacheEntry> stored = objectMapper.readValue(indexFile.toFile(),
+                        new TypeReference<HashMap<String, CacheEntry>>() {});
+                index.putAll(stored);
+            }
+            if (Files.isDirectory(objectsDir)) {
+                // 按修改时间重建LRU顺序
+                try (Stream<Path> blobs = Files.walk(objectsDir)) {
+                    blobs.filter(Files::isRegularFile)
+                            .sorted((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()))
+                            .forEach(blob -> {
+                                long size = blob.toFile().length();
+                                lru.put(blob.getFileName().toString(), size);
+                                totalBytes += size;
+                            });
+                }
+            }
+            index.values().removeIf(entry -> !lru.containsKey(entry.getDigest()));
+        } catch (IOException e) {
+            index.clear();
+        }
+    }
+
+    /**
+     * 写出索引（有未保存的修改时）
+     */
+    @PreDestroy
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            Files.createDirectories(cacheRoot);
+            Path temp = cacheRoot.resolve("index.json.tmp");
+            objectMapper.writeValue(temp.toFile(), new HashMap<>(index));
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 索引写入失败不影响下载结果
+            dirty = true;
+        }
+        lastSaved = System.currentTimeMillis();
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    // 缓存条目
+    public static class CacheEntry {
+        private String digest;
+        private long size;
+        private String etag;
+        private String lastModified;
+        private long storedAt;
+
+        public CacheEntry() {
+        }
+
+        public CacheEntry(String digest, long size, String etag, String lastModified, long storedAt) {
+            this.digest = digest;
+            this.size = size;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        // Getters and Setters
+        public String getDigest() { return digest; }
+        public void setDigest(String digest) { this.digest = digest; }
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+        public String getEtag() { return etag; }
+        public void setEtag(String etag) { this.etag = etag; }
+        public String getLastModified() { return lastModified; }
+        public void setLastModified(String lastModified) { this.lastModified = lastModified; }
+        public long getStoredAt() { return storedAt; }
+        public void setStoredAt(long storedAt) { this.storedAt = storedAt; }
+    }
+}
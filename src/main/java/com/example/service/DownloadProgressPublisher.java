@@ -0,0 +1,104 @@
+package com.example.service;
+
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+
+/**
+ * 下载进度推送
+ *
+ * 任务的进度和状态变化发布到一个多播流；订阅方按任务分组并按间隔采样，
+ * 每个订阅者每个任务在一个间隔内最多收到一条最新进度，结束事件会立即发送并结束该任务的分组。
+ */
+@Component
+public class DownloadProgressPublisher {
+
+    // 其他线程正在发送时中间进度最多重试的次数，超过后丢弃（会被后续进度覆盖）
+    private static final int MAX_PROGRESS_EMIT_ATTEMPTS = 64;
+
+    // 没有订阅者或订阅者处理不过来时直接丢弃，进度事件本身可以被后续事件覆盖
+    private final Sinks.Many<ProgressEvent> sink = Sinks.many().multicast().directBestEffort();
+
+    /**
+     * 发布任务的当前进度。多个下载线程并发发布时不加全局锁：只有其他线程正在发送（FAIL_NON_SERIALIZED）时自旋重试，
+     * 结束事件一直重试到发送成功，订阅方的流才能结束
+     */
+    public void publish(FileDownloadService.DownloadTask task) {
+        ProgressEvent event = ProgressEvent.of(task);
+        int attempts = 0;
+        while (sink.tryEmitNext(event) == Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+            if (!event.isTerminal() && ++attempts >= MAX_PROGRESS_EMIT_ATTEMPTS) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * 订阅单个任务的进度，首先发送当前快照，任务结束后流结束。
+     * 快照在实际订阅、且已订阅实时事件之后才生成：这之前任务已结束时快照就是结束事件，流同样会结束
+     */
+    public Flux<ProgressEvent> subscribe(FileDownloadService.DownloadTask task, Duration interval) {
+        Flux<ProgressEvent> live = sink.asFlux().filter(event -> event.getTaskId().equals(task.getTaskId()));
+        Flux<ProgressEvent> snapshot = Flux.defer(() -> Flux.just(ProgressEvent.of(task)));
+        return coalesce(Flux.merge(live, snapshot), interval);
+    }
+
+    /**
+     * 订阅所有任务的进度
+     */
+    public Flux<ProgressEvent> subscribeAll(Duration interval) {
+        return sink.asFlux()
+                .groupBy(ProgressEvent::getTaskId)
+                .flatMap(group -> coalesce(group, interval), Integer.MAX_VALUE);
+    }
+
+    private Flux<ProgressEvent> coalesce(Flux<ProgressEvent> events, Duration interval) {
+        // 中间进度按间隔采样，结束事件不经过采样立即发送
+        return events.takeUntil(ProgressEvent::isTerminal)
+                .publish(shared -> Flux.merge(
+                        shared.filter(event -> !event.isTerminal()).sample(interval),
+                        shared.filter(ProgressEvent::isTerminal)))
+                .takeUntil(ProgressEvent::isTerminal);
+    }
+
+    // 进度事件（只包含展示进度所需的字段）
+    public static class ProgressEvent {
+        private final String taskId;
+        private final FileDownloadService.DownloadStatus status;
+        private final long downloadedSize;
+        private final long totalSize;
+        private final String errorMessage;
+        private final long timestamp;
+
+        public ProgressEvent(String taskId, FileDownloadService.DownloadStatus status, long downloadedSize,
+                             long totalSize, String errorMessage, long timestamp) {
+            this.taskId = taskId;
+            this.status = status;
+            this.downloadedSize = downloadedSize;
+            this.totalSize = totalSize;
+            this.errorMessage = errorMessage;
+            this.timestamp = timestamp;
+        }
+
+        static ProgressEvent of(FileDownloadService.DownloadTask task) {
+            return new ProgressEvent(task.getTaskId(), task.getStatus(), task.getDownloadedSize(),
+                    task.getTotalSize(), task.getErrorMessage(), System.currentTimeMillis());
+        }
+
+        public String getTaskId() { return taskId; }
+        public FileDownloadService.DownloadStatus getStatus() { return status; }
+        public long getDownloadedSize() { return downloadedSize; }
+        public long getTotalSize() { return totalSize; }
+        public String getErrorMessage() { return errorMessage; }
+        public long getTimestamp() { return timestamp; }
+        public boolean isTerminal() { return status.isTerminal(); }
+
+        public double getProgress() {
+            if (totalSize <= 0) return 0.0;
+            return (double) downloadedSize / totalSize * 100.0;
+        }
+    }
+}
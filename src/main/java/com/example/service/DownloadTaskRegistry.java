@@ -0,0 +1,171 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载任务注册表
+ *
+ * 各状态的任务数在状态变化时增量维护，统计为O(1)；已结束的任务超过保留时间或数量上限后自动淘汰，
+ * 进行中的任务不会被淘汰。
+ */
+@Component
+public class DownloadTaskRegistry {
+
+    private final ConcurrentHashMap<String, FileDownloadService.DownloadTask> tasksById = new ConcurrentHashMap<>();
+    // 按注册顺序排列，用于分页
+    private final ConcurrentSkipListMap<Long, FileDownloadService.DownloadTask> tasksBySequence = new ConcurrentSkipListMap<>();
+    // 已结束的任务，按结束顺序排队等待淘汰
+    private final ConcurrentLinkedQueue<FileDownloadService.DownloadTask> terminalQueue = new ConcurrentLinkedQueue<>();
+    private final Map<FileDownloadService.DownloadStatus, AtomicLong> statusCounts = new EnumMap<>(FileDownloadService.DownloadStatus.class);
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final AtomicLong evicted = new AtomicLong(0);
+    private final long ttlMillis;
+    private final int maxRetainedTerminal;
+    private final DownloadProgressPublisher progressPublisher;
+
+    public DownloadTaskRegistry(
+            @Value("${agent.download.tasks.ttl:1h}") Duration ttl,
+            @Value("${agent.download.tasks.max-retained:1000}") int maxRetainedTerminal,
+            DownloadProgressPublisher progressPublisher) {
+        this.progressPublisher = progressPublisher;
+        this.ttlMillis = ttl.toMillis();
+        this.maxRetainedTerminal = maxRetainedTerminal;
+        for (FileDownloadService.DownloadStatus status : FileDownloadService.DownloadStatus.values()) {
+            statusCounts.put(status, new AtomicLong(0));
+        }
+    }
+
+    /**
+     * 注册新任务
+     */
+    public void register(FileDownloadService.DownloadTask task) {
+        evictExpired();
+        long seq = sequence.incrementAndGet();
+        synchronized (task) {
+            task.attach(this, seq);
+            tasksById.put(task.getTaskId(), task);
+            tasksBySequence.put(seq, task);
+            statusCounts.get(task.getStatus()).incrementAndGet();
+        }
+    }
+
+    public FileDownloadService.DownloadTask get(String taskId) {
+        return tasksById.get(taskId);
+    }
+
+    /**
+     * 移除任务
+     */
+    public boolean remove(String taskId) {
+        FileDownloadService.DownloadTask task = tasksById.get(taskId);
+        return task != null && detach(task);
+    }
+
+    /**
+     * 状态变化回调，在任务锁内调用，只更新计数；状态事件由任务在锁外通过 {@link #onProgress} 发布
+     */
+    void onStatusChange(FileDownloadService.DownloadTask task, FileDownloadService.DownloadStatus from,
+                        FileDownloadService.DownloadStatus to) {
+        statusCounts.get(from).decrementAndGet();
+        statusCounts.get(to).incrementAndGet();
+        if (to.isTerminal()) {
+            terminalQueue.add(task);
+        }
+    }
+
+    /**
+     * 进度或状态变化回调（不在任务锁内调用）
+     */
+    void onProgress(FileDownloadService.DownloadTask task) {
+        progressPublisher.publish(task);
+    }
+
+    /**
+     * 按状态统计任务数
+     */
+    public long count(FileDownloadService.DownloadStatus status) {
+        return statusCounts.get(status).get();
+    }
+
+    public long size() {
+        return tasksById.size();
+    }
+
+    /**
+     * 分页获取任务，最新的任务在前；status为null时返回全部状态
+     */
+    public List<FileDownloadService.DownloadTask> page(FileDownloadService.DownloadStatus status, int page, int size) {
+        evictExpired();
+        long skip = (long) Math.max(page, 0) * size;
+        List<FileDownloadService.DownloadTask> result = new ArrayList<>(Math.min(size, 256));
+        for (FileDownloadService.DownloadTask task : tasksBySequence.descendingMap().values()) {
+            if (status != null && task.getStatus() != status) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (result.size() >= size) {
+                break;
+            }
+            result.add(task);
+        }
+        return result;
+    }
+
+    public List<FileDownloadService.DownloadTask> all() {
+        evictExpired();
+        return new ArrayList<>(tasksBySequence.values());
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    /**
+     * 淘汰超过保留时间或超出数量上限的已结束任务，均摊O(1)
+     */
+    void evictExpired() {
+        long expireBefore = System.currentTimeMillis() - ttlMillis;
+        FileDownloadService.DownloadTask head;
+        while ((head = terminalQueue.peek()) != null) {
+            boolean overCapacity = terminalCount() > maxRetainedTerminal;
+            if (!overCapacity && head.getFinishedTime() > expireBefore) {
+                break;
+            }
+            if (terminalQueue.remove(head) && detach(head)) {
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    private long terminalCount() {
+        return count(FileDownloadService.DownloadStatus.COMPLETED)
+                + count(FileDownloadService.DownloadStatus.FAILED)
+                + count(FileDownloadService.DownloadStatus.CANCELLED);
+    }
+
+    private boolean detach(FileDownloadService.DownloadTask task) {
+        synchronized (task) {
+            if (!tasksById.remove(task.getTaskId(), task)) {
+                return false;
+            }
+            tasksBySequence.remove(task.getSequence());
+            statusCounts.get(task.getStatus()).decrementAndGet();
+            task.attach(null, task.getSequence());
+            return true;
+        }
+    }
+}
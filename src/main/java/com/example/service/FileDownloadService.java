@@ -1,47 +1,90 @@
 package com.example.service;
 
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.time.Duration;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 @Service
 public class FileDownloadService {
 
-    private final ConcurrentHashMap<String, DownloadTask> downloadTasks = new ConcurrentHashMap<>();
+    private final DownloadTaskRegistry taskRegistry;
     private final AtomicLong taskIdCounter = new AtomicLong(0);
+    private final AtomicLong submitSequence = new AtomicLong(0);
+    private final DownloadCacheService downloadCache;
+    private final BandwidthLimiter bandwidthLimiter;
+    // 共享的HTTP客户端：连接池复用keep-alive连接，优先协商HTTP/2
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    // 按优先级出队的下载线程池，交互式任务优先于批量任务
+    private final ThreadPoolExecutor downloadExecutor;
+
+    public FileDownloadService(DownloadTaskRegistry taskRegistry, DownloadCacheService downloadCache,
+                               BandwidthLimiter bandwidthLimiter,
+                               @Value("${agent.download.http.connect-timeout:10s}") Duration connectTimeout,
+                               @Value("${agent.download.http.request-timeout:30m}") Duration requestTimeout,
+                               @Value("${agent.download.max-concurrent:8}") int maxConcurrent) {
+        this.taskRegistry = taskRegistry;
+        this.downloadCache = downloadCache;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.requestTimeout = requestTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .build();
+        this.downloadExecutor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>());
+        this.downloadExecutor.allowCoreThreadTimeOut(true);
+    }
 
     /**
      * 下载文件（从URL）
      */
     public DownloadTask downloadFile(String url, String targetDirectory) {
+        return downloadFile(url, targetDirectory, DownloadPriority.INTERACTIVE);
+    }
+
+    /**
+     * 按指定优先级下载文件（从URL）
+     */
+    public DownloadTask downloadFile(String url, String targetDirectory, DownloadPriority priority) {
+        return downloadFile(url, targetDirectory, priority, null);
+    }
+
+    /**
+     * 下载文件并在传输过程中校验摘要，check为null时不校验；只支持http/https地址，其他地址抛出IllegalArgumentException
+     */
+    public DownloadTask downloadFile(String url, String targetDirectory, DownloadPriority priority,
+                                     IntegrityCheck check) {
+        toHttpUri(url);
         String taskId = "task_" + taskIdCounter.incrementAndGet();
         
         DownloadTask task = new DownloadTask(taskId, url, targetDirectory);
-        downloadTasks.put(taskId, task);
+        task.setPriority(priority);
+        task.setIntegrityCheck(check);
+        taskRegistry.register(task);
         
-        CompletableFuture.runAsync(() -> {
-            try {
-                performDownload(task);
-            } catch (Exception e) {
-                task.setStatus(DownloadStatus.FAILED);
-                task.setErrorMessage(e.getMessage());
-            }
-        });
+        submit(task, () -> performDownload(task));
         
         return task;
     }
@@ -50,91 +93,116 @@ public class FileDownloadService {
      * 下载本地文件（复制到指定目录）
      */
     public DownloadTask downloadLocalFile(String sourceFilePath, String targetDirectory) {
+        return downloadLocalFile(sourceFilePath, targetDirectory, null);
+    }
+
+    /**
+     * 复制本地文件并校验摘要，check为null时不校验
+     */
+    public DownloadTask downloadLocalFile(String sourceFilePath, String targetDirectory, IntegrityCheck check) {
         String taskId = "task_" + taskIdCounter.incrementAndGet();
         
         DownloadTask task = new DownloadTask(taskId, sourceFilePath, targetDirectory);
         task.setLocalPath(sourceFilePath);
-        downloadTasks.put(taskId, task);
+        task.setIntegrityCheck(check);
+        taskRegistry.register(task);
         
-        CompletableFuture.runAsync(() -> {
+        submit(task, () -> performLocalFileCopy(task));
+        
+        return task;
+    }
+
+    private void submit(DownloadTask task, Runnable work) {
+        downloadExecutor.execute(new PrioritizedDownload(task, submitSequence.incrementAndGet(), () -> {
+            if (task.getStatus() == DownloadStatus.CANCELLED) {
+                return;
+            }
             try {
-                performLocalFileCopy(task);
+                work.run();
             } catch (Exception e) {
-                task.setStatus(DownloadStatus.FAILED);
-                task.setErrorMessage(e.getMessage());
+                task.fail(e.getMessage());
             }
-        });
-        
-        return task;
+        }));
     }
 
     /**
      * 获取下载任务状态
      */
     public DownloadTask getDownloadTask(String taskId) {
-        return downloadTasks.get(taskId);
+        return taskRegistry.get(taskId);
     }
 
     /**
      * 获取所有下载任务
      */
     public java.util.List<DownloadTask> getAllDownloadTasks() {
-        return downloadTasks.values().stream().toList();
+        return taskRegistry.all();
     }
 
     /**
-     * 取消下载任务
+     * 分页获取下载任务（最新的在前），status为null时不过滤
      */
-    public boolean cancelDownload(String taskId) {
-        DownloadTask task = downloadTasks.get(taskId);
-        if (task != null && task.getStatus() == DownloadStatus.DOWNLOADING) {
-            task.setStatus(DownloadStatus.CANCELLED);
-            return true;
-        }
-        return false;
+    public java.util.List<DownloadTask> getDownloadTasks(DownloadStatus status, int page, int size) {
+        return taskRegistry.page(status, page, size);
     }
 
     /**
-     * 删除下载任务
+     * 获取指定状态的任务数（O(1)）
      */
-    public boolean deleteDownloadTask(String taskId) {
-        return downloadTasks.remove(taskId) != null;
+    public long countTasks(DownloadStatus status) {
+        return taskRegistry.count(status);
     }
 
     /**
-     * 下载本地文件
+     * 获取注册表中的任务总数
      */
-    public ResponseEntity<Resource> downloadLocalFile(String filePath) {
-        try {
-            Path path = Paths.get(filePath);
-            if (!Files.exists(path) || !Files.isRegularFile(path)) {
-                return ResponseEntity.notFound().build();
-            }
-
-            Resource resource = new UrlResource(path.toUri());
-            
-            String contentType = determineContentType(path);
-            String filename = path.getFileName().toString();
+    public long getTaskCount() {
+        return taskRegistry.size();
+    }
 
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                    .body(resource);
-        } catch (IOException e) {
-            return ResponseEntity.internalServerError().build();
+    /**
+     * 取消下载任务
+     */
+    public boolean cancelDownload(String taskId) {
+        DownloadTask task = taskRegistry.get(taskId);
+        if (task == null || !task.cancel()) {
+            return false;
         }
+        bandwidthLimiter.wakeUp();
+        return true;
+    }
+
+    /**
+     * 删除下载任务
+     */
+    public boolean deleteDownloadTask(String taskId) {
+        return taskRegistry.remove(taskId);
     }
 
     private void performDownload(DownloadTask task) {
         try {
             task.setStatus(DownloadStatus.DOWNLOADING);
             
-            URL url = new URL(task.getUrl());
-            URLConnection connection = url.openConnection();
+            URI uri = toHttpUri(task.getUrl());
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                    .timeout(requestTimeout)
+                    .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                    .GET();
             
-            // 获取文件大小
-            int contentLength = connection.getContentLength();
-            task.setTotalSize(contentLength);
+            // 已缓存过的URL发起条件请求
+            DownloadCacheService.CacheEntry cached = downloadCache.lookup(task.getUrl());
+            if (cached != null && !verifyCached(task, cached)) {
+                // 缓存内容与期望摘要不符（上游已更新或缓存不可信），不发条件请求，重新完整下载
+                cached = null;
+            }
+            if (cached != null) {
+                if (StringUtils.hasText(cached.getEtag())) {
+                    request.header(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+                }
+                if (StringUtils.hasText(cached.getLastModified())) {
+                    request.header(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+                }
+            }
             
             // 确定文件名
             String fileName = getFileNameFromUrl(task.getUrl());
@@ -151,16 +219,51 @@ public class FileDownloadService {
             Path targetFile = targetDir.resolve(fileName);
             task.setLocalPath(targetFile.toString());
             
-            // 开始下载
-            try (var inputStream = connection.getInputStream()) {
-                long downloadedBytes = Files.copy(inputStream, targetFile, StandardCopyOption.REPLACE_EXISTING);
-                task.setDownloadedSize(downloadedBytes);
+            HttpResponse<InputStream> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            
+            // 304 Not Modified：直接使用本地缓存
+            if (cached != null && response.statusCode() == 304) {
+                response.body().close();
+                task.setTotalSize(cached.getSize());
+                task.setDownloadedSize(downloadCache.materializeHit(cached, targetFile));
+                task.setCacheHit(true);
+                task.setStatus(DownloadStatus.COMPLETED);
+                return;
+            }
+            if (response.statusCode() >= 400) {
+                response.body().close();
+                throw new IOException("Server returned HTTP response code: " + response.statusCode() + " for URL: " + task.getUrl());
+            }
+            
+            // gzip传输时Content-Length是压缩后的大小，进度按解压后字节计算
+            boolean gzip = response.headers().firstValue(HttpHeaders.CONTENT_ENCODING)
+                    .map(encoding -> encoding.equalsIgnoreCase("gzip"))
+                    .orElse(false);
+            task.setTotalSize(gzip ? -1 : response.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1));
+            
+            // 开始下载，边下载边计算摘要并写入缓存；校验失败时read抛出异常，内容不会进入缓存
+            downloadCache.recordMiss();
+            // 包装流全部在try中创建，GZIP头解析失败时限速流也会关闭
+            try (InputStream throttled = bandwidthLimiter.throttle(response.body(), uri.getHost(), task);
+                 InputStream body = gzip ? new GZIPInputStream(throttled) : throttled) {
+                IntegrityCheck.VerifyingInputStream verifying = task.integrityCheck() != null
+                        ? task.integrityCheck().wrap(body) : null;
+                InputStream inputStream = verifying != null ? verifying : body;
+                DownloadCacheService.CacheEntry entry = downloadCache.store(task.getUrl(), inputStream,
+                        response.headers().firstValue(HttpHeaders.ETAG).orElse(null),
+                        response.headers().firstValue(HttpHeaders.LAST_MODIFIED).orElse(null),
+                        targetFile, task::setDownloadedSize);
+                recordDigest(task, entry, verifying);
+                task.setDownloadedSize(entry.getSize());
+                task.setTotalSize(entry.getSize());
                 task.setStatus(DownloadStatus.COMPLETED);
             }
             
         } catch (IOException e) {
-            task.setStatus(DownloadStatus.FAILED);
-            task.setErrorMessage(e.getMessage());
+            task.fail(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.fail("下载被中断");
         }
     }
 
@@ -188,18 +291,96 @@ public class FileDownloadService {
             
             Path targetFile = targetDir.resolve(fileName);
             
-            // 复制文件
-            long copiedBytes = Files.copy(sourcePath, targetFile, StandardCopyOption.REPLACE_EXISTING).getNameCount();
-            task.setDownloadedSize(copiedBytes);
+            // 本地文件以大小+修改时间作为校验值，未变化时直接复制缓存内容
+            String cacheKey = "file:" + sourcePath.toAbsolutePath().normalize();
+            String validator = fileSize + "-" + Files.getLastModifiedTime(sourcePath).toMillis();
+            DownloadCacheService.CacheEntry cached = downloadCache.lookup(cacheKey);
+            if (cached != null && validator.equals(cached.getEtag()) && verifyCached(task, cached)) {
+                task.setDownloadedSize(downloadCache.materializeHit(cached, targetFile));
+                task.setCacheHit(true);
+            } else {
+                downloadCache.recordMiss();
+                try (InputStream source = Files.newInputStream(sourcePath)) {
+                    IntegrityCheck.VerifyingInputStream verifying = task.integrityCheck() != null
+                            ? task.integrityCheck().wrap(source) : null;
+                    DownloadCacheService.CacheEntry entry = downloadCache.store(cacheKey,
+                            verifying != null ? verifying : source,
+                            validator, null, targetFile, task::setDownloadedSize);
+                    recordDigest(task, entry, verifying);
+                    task.setDownloadedSize(entry.getSize());
+                }
+            }
             task.setLocalPath(targetFile.toString());
             task.setStatus(DownloadStatus.COMPLETED);
             
         } catch (IOException e) {
-            task.setStatus(DownloadStatus.FAILED);
-            task.setErrorMessage(e.getMessage());
+            task.fail(e.getMessage());
         }
     }
 
+    /**
+     * 校验缓存内容是否符合期望摘要；SHA-256直接比对缓存已记录的摘要，其他算法读取缓存文件计算
+     */
+    private boolean verifyCached(DownloadTask task, DownloadCacheService.CacheEntry cached) throws IOException {
+        IntegrityCheck check = task.integrityCheck();
+        if (check == null) {
+            task.setDigest("sha256:" + cached.getDigest());
+            return true;
+        }
+        if (check.matchesSha256(cached.getDigest())) {
+            task.setDigest("sha256:" + cached.getDigest());
+            task.setIntegrityVerified(true);
+            return true;
+        }
+        if (check.getAlgorithm() == IntegrityCheck.Algorithm.SHA_256 && !check.isSegmented()) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(downloadCache.blobPath(cached.getDigest()))) {
+            task.setDigest(check.verify(in));
+            task.setIntegrityVerified(true);
+            return true;
+        } catch (IntegrityCheck.IntegrityException e) {
+            return false;
+        }
+    }
+
+    private void recordDigest(DownloadTask task, DownloadCacheService.CacheEntry entry,
+                              IntegrityCheck.VerifyingInputStream verifying) {
+        if (verifying != null) {
+            task.setDigest(verifying.getDigest());
+            task.setIntegrityVerified(true);
+        } else {
+            task.setDigest("sha256:" + entry.getDigest());
+        }
+    }
+
+    /**
+     * 解析下载地址：未转义的字符（如空格）按各组成部分重新编码；HttpClient只支持http/https，
+     * 其他协议（file:、ftp:等）直接拒绝，本地文件使用本地下载
+     */
+    static URI toHttpUri(String url) {
+        URI uri;
+        try {
+            uri = new URI(url.trim());
+        } catch (URISyntaxException e) {
+            try {
+                URL parsed = new URL(url.trim());
+                uri = new URI(parsed.getProtocol(), parsed.getUserInfo(), parsed.getHost(), parsed.getPort(),
+                        parsed.getPath(), parsed.getQuery(), parsed.getRef());
+            } catch (MalformedURLException | URISyntaxException ex) {
+                throw new IllegalArgumentException("无效的下载地址: " + url);
+            }
+        }
+        String scheme = uri.getScheme();
+        if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))) {
+            throw new IllegalArgumentException("只支持http/https下载地址，本地文件请使用本地下载: " + url);
+        }
+        if (uri.getHost() == null) {
+            throw new IllegalArgumentException("下载地址缺少主机名: " + url);
+        }
+        return uri;
+    }
+
     private String getFileNameFromUrl(String url) {
         try {
             String fileName = url.substring(url.lastIndexOf('/') + 1);
@@ -214,44 +395,65 @@ public class FileDownloadService {
         }
     }
 
-    private String determineContentType(Path path) {
-        String fileName = path.getFileName().toString().toLowerCase();
-        
-        if (fileName.endsWith(".pdf")) return "application/pdf";
-        if (fileName.endsWith(".txt")) return "text/plain";
-        if (fileName.endsWith(".html") || fileName.endsWith(".htm")) return "text/html";
-        if (fileName.endsWith(".css")) return "text/css";
-        if (fileName.endsWith(".js")) return "application/javascript";
-        if (fileName.endsWith(".json")) return "application/json";
-        if (fileName.endsWith(".xml")) return "application/xml";
-        if (fileName.endsWith(".zip")) return "application/zip";
-        if (fileName.endsWith(".tar")) return "application/x-tar";
-        if (fileName.endsWith(".gz")) return "application/gzip";
-        if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")) return "image/jpeg";
-        if (fileName.endsWith(".png")) return "image/png";
-        if (fileName.endsWith(".gif")) return "image/gif";
-        if (fileName.endsWith(".mp4")) return "video/mp4";
-        if (fileName.endsWith(".mp3")) return "audio/mpeg";
-        
-        return "application/octet-stream";
-    }
-
     // 下载状态枚举
     public enum DownloadStatus {
-        PENDING, DOWNLOADING, COMPLETED, FAILED, CANCELLED
+        PENDING, DOWNLOADING, COMPLETED, FAILED, CANCELLED;
+
+        public boolean isTerminal() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
     }
 
-    // 下载任务类
+    // 下载优先级：Agent发起的单文件下载为交互式，批量下载为后台任务
+    public enum DownloadPriority {
+        INTERACTIVE, BULK
+    }
+
+    // 可排序的下载任务，先按优先级、再按提交顺序
+    private static class PrioritizedDownload implements Runnable, Comparable<PrioritizedDownload> {
+        private final DownloadTask task;
+        private final long sequence;
+        private final Runnable work;
+
+        PrioritizedDownload(DownloadTask task, long sequence, Runnable work) {
+            this.task = task;
+            this.sequence = sequence;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            work.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedDownload other) {
+            int byPriority = task.getPriority().compareTo(other.task.getPriority());
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // 下载任务类，字段均为volatile，可以在下载线程和请求线程之间安全发布
     public static class DownloadTask {
         private final String taskId;
         private final String url;
         private final String targetDirectory;
-        private String localPath;
-        private DownloadStatus status = DownloadStatus.PENDING;
-        private long totalSize = -1;
-        private long downloadedSize = 0;
-        private String errorMessage;
+        private volatile String localPath;
+        private volatile DownloadStatus status = DownloadStatus.PENDING;
+        private volatile long totalSize = -1;
+        private volatile long downloadedSize = 0;
+        private volatile String errorMessage;
+        private volatile boolean cacheHit;
+        private volatile DownloadPriority priority = DownloadPriority.INTERACTIVE;
+        private volatile IntegrityCheck integrityCheck;
+        // 内容摘要（"算法:十六进制"），未指定期望摘要时为SHA-256
+        private volatile String digest;
+        private volatile boolean integrityVerified;
         private final long startTime = System.currentTimeMillis();
+        private volatile long finishedTime;
+        // 所属注册表，由注册表在锁内维护
+        private volatile DownloadTaskRegistry registry;
+        private long sequence;
 
         public DownloadTask(String taskId, String url, String targetDirectory) {
             this.taskId = taskId;
@@ -266,22 +468,100 @@ public class FileDownloadService {
         public String getLocalPath() { return localPath; }
         public void setLocalPath(String localPath) { this.localPath = localPath; }
         public DownloadStatus getStatus() { return status; }
-        public void setStatus(DownloadStatus status) { this.status = status; }
         public long getTotalSize() { return totalSize; }
         public void setTotalSize(long totalSize) { this.totalSize = totalSize; }
         public long getDownloadedSize() { return downloadedSize; }
-        public void setDownloadedSize(long downloadedSize) { this.downloadedSize = downloadedSize; }
+        public void setDownloadedSize(long downloadedSize) {
+            this.downloadedSize = downloadedSize;
+            DownloadTaskRegistry owner = registry;
+            if (owner != null) {
+                owner.onProgress(this);
+            }
+        }
         public String getErrorMessage() { return errorMessage; }
         public void setErrorMessage(String errorMessage) { this.errorMessage = errorMessage; }
+        public boolean isCacheHit() { return cacheHit; }
+        public void setCacheHit(boolean cacheHit) { this.cacheHit = cacheHit; }
+        public DownloadPriority getPriority() { return priority; }
+        public void setPriority(DownloadPriority priority) { this.priority = priority; }
+        public String getExpectedDigest() { return integrityCheck != null ? integrityCheck.describe() : null; }
+        public void setIntegrityCheck(IntegrityCheck integrityCheck) { this.integrityCheck = integrityCheck; }
+        public String getDigest() { return digest; }
+        public void setDigest(String digest) { this.digest = digest; }
+        public boolean isIntegrityVerified() { return integrityVerified; }
+        public void setIntegrityVerified(boolean integrityVerified) { this.integrityVerified = integrityVerified; }
         public long getStartTime() { return startTime; }
+        public long getFinishedTime() { return finishedTime; }
+
+        /**
+         * 状态变更，已结束的任务不再改变状态
+         */
+        public void setStatus(DownloadStatus status) {
+            transition(status);
+        }
+
+        /**
+         * 标记失败，先写入错误信息再发布状态
+         */
+        public void fail(String errorMessage) {
+            transition(DownloadStatus.FAILED, errorMessage);
+        }
+
+        /**
+         * 取消未结束的任务
+         */
+        public boolean cancel() {
+            return transition(DownloadStatus.CANCELLED);
+        }
+
+        private boolean transition(DownloadStatus to) {
+            return transition(to, null);
+        }
+
+        // 状态和计数在任务锁内更新，进度事件在锁外发布，推送不会阻塞持有任务锁的线程
+        private boolean transition(DownloadStatus to, String error) {
+            DownloadTaskRegistry owner;
+            synchronized (this) {
+                DownloadStatus from = this.status;
+                if (from == to || from.isTerminal()) {
+                    return false;
+                }
+                if (error != null) {
+                    this.errorMessage = error;
+                }
+                if (to.isTerminal()) {
+                    this.finishedTime = System.currentTimeMillis();
+                }
+                this.status = to;
+                owner = registry;
+                if (owner != null) {
+                    owner.onStatusChange(this, from, to);
+                }
+            }
+            if (owner != null) {
+                owner.onProgress(this);
+            }
+            return true;
+        }
+
+        synchronized void attach(DownloadTaskRegistry registry, long sequence) {
+            this.registry = registry;
+            this.sequence = sequence;
+        }
+
+        long getSequence() { return sequence; }
+
+        IntegrityCheck integrityCheck() { return integrityCheck; }
         
         public double getProgress() {
-            if (totalSize <= 0) return 0.0;
-            return (double) downloadedSize / totalSize * 100.0;
+            long total = totalSize;
+            if (total <= 0) return 0.0;
+            return (double) downloadedSize / total * 100.0;
         }
         
         public long getElapsedTime() {
-            return System.currentTimeMillis() - startTime;
+            long end = finishedTime;
+            return (end > 0 ? end : System.currentTimeMillis()) - startTime;
         }
     }
-} 
\ No newline at end of file
+}
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -35,6 +36,7 @@ public class FileSearchService {
 
         try {
             return Files.walk(searchPath)
+                    .peek(path -> abortIfInterrupted())
                     .filter(Files::isRegularFile)
                     .filter(path -> !isExcluded(path))
                     .filter(path -> matchesQuery(path, query))
@@ -64,6 +66,7 @@ public class FileSearchService {
         
         try {
             Files.walk(searchPath)
+                    .peek(path -> abortIfInterrupted())
                     .filter(Files::isRegularFile)
                     .filter(path -> !isExcluded(path))
                     .filter(path -> isTextFile(path))
@@ -82,6 +85,15 @@ public class FileSearchService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 遍历中响应线程中断（推测执行的搜索被取消时尽快停止）
+     */
+    private static void abortIfInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("文件搜索已取消");
+        }
+    }
+
     /**
      * 获取文件列表
      */
@@ -0,0 +1,256 @@
+package com.example.service;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 大文件的分段摘要（map-reduce）
+ *
+ * 把文件按估算的token数切成若干段，各段并行生成摘要（同时进行的调用数有上限，避免占满模型网关的队列），
+ * 再把段摘要按组逐层合并，直到只剩一份。段的边界按行内容确定（某些行作为候选边界），
+ * 文件局部修改后只有附近的段发生变化；段摘要和合并结果都按内容摘要值缓存，
+ * 重新读取未修改或小幅修改的文件时只为变化的段调用模型。
+ */
+@Component
+public class FileSummarizer {
+
+    // 行的摘要值对该数取模为0时作为候选分段边界
+    private static final int BOUNDARY_MODULUS = 8;
+    private static final String MAP_INSTRUCTION =
+            "下面是一个文件的其中一段，请用简洁的中文概括这段的主要内容（定义了什么、做了什么），只输出概括。\n\n";
+    private static final String REDUCE_INSTRUCTION =
+            "下面是同一个文件中连续几段内容的概括，请合并为一份连贯、简洁的中文摘要，只输出摘要。\n\n";
+
+    private final ChatModel chatModel;
+    private final ModelProfiles modelProfiles;
+    private final int chunkTokens;
+    private final int parallelism;
+    private final int fanIn;
+    private final int maxCached;
+    private final Duration timeout;
+
+    // 内容摘要值 -> 摘要，按访问顺序淘汰
+    private final Map<String, String> cache;
+
+    private final AtomicLong files = new AtomicLong(0);
+    private final AtomicLong chunks = new AtomicLong(0);
+    private final AtomicLong cacheHits = new AtomicLong(0);
+    private final AtomicLong mapCalls = new AtomicLong(0);
+    private final AtomicLong reduceCalls = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+
+    public FileSummarizer(ChatModel chatModel, ModelProfiles modelProfiles,
+                          @Value("${agent.file-summary.chunk-tokens:1500}") int chunkTokens,
+                          @Value("${agent.file-summary.parallelism:2}") int parallelism,
+                          @Value("${agent.file-summary.fan-in:8}") int fanIn,
+                          @Value("${agent.file-summary.max-cached:5000}") int maxCached,
+                          @Value("${agent.file-summary.timeout:5m}") Duration timeout) {
+        this.chatModel = chatModel;
+        this.modelProfiles = modelProfiles;
+        this.chunkTokens = Math.max(64, chunkTokens);
+        this.parallelism = Math.max(1, parallelism);
+        this.fanIn = Math.max(2, fanIn);
+        this.maxCached = maxCached;
+        this.timeout = timeout;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > FileSummarizer.this.maxCached;
+            }
+        };
+    }
+
+    /**
+     * 生成文件内容的摘要，阻塞直到完成；模型调用失败时抛出异常
+     */
+    public Summary summarize(String content) {
+        long start = System.nanoTime();
+        files.incrementAndGet();
+        List<String> parts = split(content);
+        chunks.addAndGet(parts.size());
+        AtomicInteger cached = new AtomicInteger();
+        AtomicInteger calls = new AtomicInteger();
+
+        List<String> level = summarizeAll(parts, MAP_INSTRUCTION, mapCalls, cached, calls);
+        int chunkCount = parts.size();
+        int cachedChunks = cached.get();
+        // 逐层合并，每组最多fanIn份摘要
+        while (level.size() > 1) {
+            List<String> groups = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += fanIn) {
+                groups.add(String.join("\n\n", level.subList(i, Math.min(level.size(), i + fanIn))));
+            }
+            level = summarizeAll(groups, REDUCE_INSTRUCTION, reduceCalls, cached, calls);
+        }
+        return new Summary(level.isEmpty() ? "" : level.get(0), chunkCount, cachedChunks, calls.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // 按原顺序返回各段摘要；未缓存的段以有限并发调用模型（流式接口，不占用等待线程）
+    private List<String> summarizeAll(List<String> inputs, String instruction,
+                                      AtomicLong counter, AtomicInteger cached, AtomicInteger calls) {
+        return Flux.fromIterable(inputs)
+                .flatMapSequential(input -> {
+                    String key = key(instruction, input);
+                    String hit = cached(key);
+                    if (hit != null) {
+                        cacheHits.incrementAndGet();
+                        cached.incrementAndGet();
+                        return Mono.just(hit);
+                    }
+                    counter.incrementAndGet();
+                    calls.incrementAndGet();
+                    return call(instruction + input)
+                            .doOnNext(summary -> {
+                                synchronized (cache) {
+                                    cache.put(key, summary);
+                                }
+                            })
+                            .doOnError(e -> failures.incrementAndGet());
+                }, parallelism)
+                .collectList()
+                .block(timeout);
+    }
+
+    private Mono<String> call(String request) {
+        Prompt prompt = new Prompt(request, modelProfiles.options(ModelProfiles.Task.SUMMARIZATION).build());
+        return modelProfiles.timed(ModelProfiles.Task.SUMMARIZATION, chatModel.stream(prompt))
+                .map(FileSummarizer::text)
+                .reduce(new StringBuilder(), StringBuilder::append)
+                .map(summary -> summary.toString().trim());
+    }
+
+    private String cached(String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    /**
+     * 按行切分：达到最小长度后在候选边界行处分段，超过上限时强制分段，单行过长时按字符切开
+     */
+    List<String> split(String content) {
+        List<String> parts = new ArrayList<>();
+        if (content == null || content.isEmpty()) {
+            return parts;
+        }
+        int minTokens = chunkTokens / 4;
+        StringBuilder current = new StringBuilder();
+        int tokens = 0;
+        for (String line : content.split("(?<=\n)")) {
+            int lineTokens = ConversationContext.estimateTokens(line);
+            if (lineTokens > chunkTokens) {
+                if (current.length() > 0) {
+                    parts.add(current.toString());
+                    current.setLength(0);
+                    tokens = 0;
+                }
+                for (int i = 0; i < line.length(); i += chunkTokens) {
+                    parts.add(line.substring(i, Math.min(line.length(), i + chunkTokens)));
+                }
+                continue;
+            }
+            if (tokens + lineTokens > chunkTokens && current.length() > 0) {
+                parts.add(current.toString());
+                current.setLength(0);
+                tokens = 0;
+            }
+            current.append(line);
+            tokens += lineTokens;
+            if (tokens >= minTokens && Math.floorMod(line.strip().hashCode(), BOUNDARY_MODULUS) == 0) {
+                parts.add(current.toString());
+                current.setLength(0);
+                tokens = 0;
+            }
+        }
+        if (current.length() > 0) {
+            parts.add(current.toString());
+        }
+        return parts;
+    }
+
+    // 提示词和内容共同决定缓存键，提示词修改后旧摘要自动失效
+    private static String key(String instruction, String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(instruction.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String text(ChatResponse response) {
+        if (response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        String text = response.getResult().getOutput().getText();
+        return text != null ? text : "";
+    }
+
+    /**
+     * 获取文件摘要统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("chunkTokens", chunkTokens);
+        stats.put("parallelism", parallelism);
+        stats.put("fanIn", fanIn);
+        stats.put("files", files.get());
+        stats.put("chunks", chunks.get());
+        stats.put("cacheHits", cacheHits.get());
+        stats.put("mapCalls", mapCalls.get());
+        stats.put("reduceCalls", reduceCalls.get());
+        stats.put("failures", failures.get());
+        synchronized (cache) {
+            stats.put("cached", cache.size());
+        }
+        return stats;
+    }
+
+    /**
+     * 摘要结果
+     */
+    public static class Summary {
+        private final String text;
+        private final int chunks;
+        private final int cachedChunks;
+        private final int modelCalls;
+        private final long elapsedMillis;
+
+        Summary(String text, int chunks, int cachedChunks, int modelCalls, long elapsedMillis) {
+            this.text = text;
+            this.chunks = chunks;
+            this.cachedChunks = cachedChunks;
+            this.modelCalls = modelCalls;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getText() { return text; }
+        public int getChunks() { return chunks; }
+        // 直接使用缓存摘要的段数
+        public int getCachedChunks() { return cachedChunks; }
+        // 本次实际调用模型的次数（分段和合并）
+        public int getModelCalls() { return modelCalls; }
+        public long getElapsedMillis() { return elapsedMillis; }
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * 下载完整性校验
+ *
+ * 期望摘要支持 "sha256:十六进制" 与 SRI 风格的 "sha256-Base64" 两种写法，算法为 SHA-256 / SHA-512 / CRC32C。
+ * 摘要在数据流经时增量计算，无需下载完成后重新读盘。分段模式下每读满一段即校验该段，
+ * 数据损坏时可以在出错的段立即失败，而不必等整个文件传完。
+ */
+public class IntegrityCheck {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Algorithm algorithm;
+    // 整体摘要（十六进制小写），仅分段校验时可以为null
+    private final String expected;
+    private final long segmentSize;
+    private final List<String> segmentDigests;
+
+    private IntegrityCheck(Algorithm algorithm, String expected, long segmentSize, List<String> segmentDigests) {
+        this.algorithm = algorithm;
+        this.expected = expected;
+        this.segmentSize = segmentSize;
+        this.segmentDigests = segmentDigests;
+    }
+
+    /**
+     * 整体摘要校验
+     */
+    public static IntegrityCheck of(String digest) {
+        ParsedDigest parsed = ParsedDigest.parse(digest);
+        return new IntegrityCheck(parsed.algorithm, parsed.hex, 0, List.of());
+    }
+
+    /**
+     * 分段校验：每 segmentSize 字节一段（最后一段可以不满），digest 为可选的整体摘要
+     */
+    public static IntegrityCheck segmented(String algorithm, long segmentSize, List<String> segmentDigests, String digest) {
+        if (segmentSize <= 0 || segmentDigests == null || segmentDigests.isEmpty()) {
+            throw new IllegalArgumentException("分段校验需要指定段大小和每段摘要");
+        }
+        Algorithm alg = Algorithm.fromName(algorithm);
+        List<String> segments = segmentDigests.stream()
+                .map(segment -> ParsedDigest.decode(alg, segment))
+                .toList();
+        String whole = null;
+        if (digest != null && !digest.isBlank()) {
+            ParsedDigest parsed = ParsedDigest.parse(digest);
+            if (parsed.algorithm != alg) {
+                throw new IllegalArgumentException("整体摘要与分段摘要的算法不一致");
+            }
+            whole = parsed.hex;
+        }
+        return new IntegrityCheck(alg, whole, segmentSize, segments);
+    }
+
+    public Algorithm getAlgorithm() { return algorithm; }
+
+    public boolean isSegmented() { return segmentSize > 0; }
+
+    /**
+     * 期望值的描述，例如 "sha256:ab12..." 或 "sha256 x 16 segments"
+     */
+    public String describe() {
+        if (isSegmented()) {
+            return algorithm.label + " x " + segmentDigests.size() + " segments of " + segmentSize + " bytes";
+        }
+        return algorithm.label + ":" + expected;
+    }
+
+    /**
+     * 包装输入流，读取时计算并校验摘要，不匹配时由read抛出IntegrityException
+     */
+    public VerifyingInputStream wrap(InputStream in) {
+        return new VerifyingInputStream(in);
+    }
+
+    /**
+     * 用缓存条目已记录的SHA-256直接判断，不需要重新读取内容
+     */
+    boolean matchesSha256(String sha256Hex) {
+        return algorithm == Algorithm.SHA_256 && !isSegmented() && expected.equalsIgnoreCase(sha256Hex);
+    }
+
+    /**
+     * 校验整个输入流，返回实际摘要（"算法:十六进制"）
+     */
+    public String verify(InputStream in) throws IOException {
+        try (VerifyingInputStream verifying = wrap(in)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (verifying.read(buffer) != -1) {
+                // 读到流末尾时完成校验
+            }
+            return verifying.getDigest();
+        }
+    }
+
+    // 摘要算法
+    public enum Algorithm {
+        SHA_256("sha256", "SHA-256"),
+        SHA_512("sha512", "SHA-512"),
+        CRC32C("crc32c", null);
+
+        private final String label;
+        private final String jcaName;
+
+        Algorithm(String label, String jcaName) {
+            this.label = label;
+            this.jcaName = jcaName;
+        }
+
+        public String getLabel() { return label; }
+
+        static Algorithm fromName(String name) {
+            String normalized = name.trim().toLowerCase(Locale.ROOT).replace("-", "").replace("_", "");
+            for (Algorithm algorithm : values()) {
+                if (algorithm.label.equals(normalized)) {
+                    return algorithm;
+                }
+            }
+            throw new IllegalArgumentException("不支持的摘要算法: " + name);
+        }
+
+        Hasher newHasher() {
+            if (jcaName == null) {
+                return new ChecksumHasher(new CRC32C());
+            }
+            try {
+                return new DigestHasher(MessageDigest.getInstance(jcaName));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int length() {
+            return switch (this) {
+                case SHA_256 -> 32;
+                case SHA_512 -> 64;
+                case CRC32C -> 4;
+            };
+        }
+    }
+
+    /**
+     * 摘要不匹配
+     */
+    public static class IntegrityException extends IOException {
+        public IntegrityException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 边读边校验的输入流
+     */
+    public class VerifyingInputStream extends FilterInputStream {
+        private final Hasher whole = algorithm.newHasher();
+        private final Hasher segment = isSegmented() ? algorithm.newHasher() : null;
+        private long segmentPosition = 0;
+        private int segmentIndex = 0;
+        private String digest;
+
+        VerifyingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * 实际摘要（"算法:十六进制"），读到流末尾并校验通过后可用
+         */
+        public String getDigest() {
+            return digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n == -1) {
+                complete();
+                return -1;
+            }
+            whole.update(b, off, n);
+            if (segment != null) {
+                updateSegments(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // 跳过的数据也要参与摘要计算
+            byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(n, 0))];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void updateSegments(byte[] b, int off, int len) throws IntegrityException {
+            while (len > 0) {
+                int chunk = (int) Math.min(len, segmentSize - segmentPosition);
+                segment.update(b, off, chunk);
+                segmentPosition += chunk;
+                off += chunk;
+                len -= chunk;
+                if (segmentPosition == segmentSize) {
+                    checkSegment();
+                }
+            }
+        }
+
+        private void checkSegment() throws IntegrityException {
+            if (segmentIndex >= segmentDigests.size()) {
+                throw new IntegrityException("完整性校验失败: 数据超出预期的 " + segmentDigests.size() + " 个分段");
+            }
+            String actual = HexFormat.of().formatHex(segment.finish());
+            if (!actual.equals(segmentDigests.get(segmentIndex))) {
+                throw new IntegrityException("完整性校验失败: 第 " + (segmentIndex + 1) + " 段 "
+                        + algorithm.label + " 不匹配，实际为 " + actual);
+            }
+            segmentIndex++;
+            segmentPosition = 0;
+        }
+
+        private void complete() throws IntegrityException {
+            if (digest != null) {
+                return;
+            }
+            if (segment != null) {
+                if (segmentPosition > 0) {
+                    checkSegment();
+                }
+                if (segmentIndex != segmentDigests.size()) {
+                    throw new IntegrityException("完整性校验失败: 只收到 " + segmentIndex + " 个分段，预期 "
+                            + segmentDigests.size() + " 个");
+                }
+            }
+            String actual = HexFormat.of().formatHex(whole.finish());
+            if (expected != null && !actual.equals(expected)) {
+                throw new IntegrityException("完整性校验失败: 期望 " + algorithm.label + ":" + expected
+                        + "，实际为 " + algorithm.label + ":" + actual);
+            }
+            digest = algorithm.label + ":" + actual;
+        }
+    }
+
+    // 解析后的摘要
+    private static class ParsedDigest {
+        final Algorithm algorithm;
+        final String hex;
+
+        ParsedDigest(Algorithm algorithm, String hex) {
+            this.algorithm = algorithm;
+            this.hex = hex;
+        }
+
+        static ParsedDigest parse(String digest) {
+            if (digest == null || digest.isBlank()) {
+                throw new IllegalArgumentException("摘要不能为空");
+            }
+            String value = digest.trim();
+            int colon = value.indexOf(':');
+            if (colon > 0) {
+                Algorithm algorithm = Algorithm.fromName(value.substring(0, colon));
+                return new ParsedDigest(algorithm, decode(algorithm, value.substring(colon + 1)));
+            }
+            // SRI风格：sha256-Base64
+            int dash = value.lastIndexOf('-');
+            if (dash > 0) {
+                Algorithm algorithm = Algorithm.fromName(value.substring(0, dash));
+                return new ParsedDigest(algorithm, decode(algorithm, value.substring(dash + 1)));
+            }
+            throw new IllegalArgumentException("无法识别的摘要格式: " + digest);
+        }
+
+        // 统一转换为十六进制小写，同时接受十六进制和Base64
+        static String decode(Algorithm algorithm, String value) {
+            String trimmed = value.trim();
+            if (trimmed.length() == algorithm.length() * 2 && trimmed.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+                return trimmed.toLowerCase(Locale.ROOT);
+            }
+            try {
+                byte[] bytes = Base64.getDecoder().decode(trimmed);
+                if (bytes.length == algorithm.length()) {
+                    return HexFormat.of().formatHex(bytes);
+                }
+            } catch (IllegalArgumentException e) {
+                // 落到下面的统一错误
+            }
+            throw new IllegalArgumentException("摘要长度与算法 " + algorithm.label + " 不符: " + value);
+        }
+    }
+
+    // 统一 MessageDigest 与 Checksum 的增量计算接口
+    private interface Hasher {
+        void update(byte[] b, int off, int len);
+
+        // 返回摘要并重置状态
+        byte[] finish();
+    }
+
+    private static class DigestHasher implements Hasher {
+        private final MessageDigest digest;
+
+        DigestHasher(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            digest.update(b, off, len);
+        }
+
+        @Override
+        public byte[] finish() {
+            return digest.digest();
+        }
+    }
+
+    private static class ChecksumHasher implements Hasher {
+        private final Checksum checksum;
+
+        ChecksumHasher(Checksum checksum) {
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            checksum.update(b, off, len);
+        }
+
+        @Override
+        public byte[] finish() {
+            byte[] value = ByteBuffer.allocate(4).putInt((int) checksum.getValue()).array();
+            checksum.reset();
+            return value;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * 意图识别结果缓存
+ *
+ * 以规范化后的用户消息为键（全半角、空白、大小写、中文数字统一），按LRU和有效期淘汰。
+ * 相同消息的并发识别只调用一次LLM，其余请求等待同一结果。配置了持久化文件时重启后恢复缓存。
+ */
+@Component
+public class IntentCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // 汉字两侧的空白没有分词意义，"下载 pom.xml" 与 "下载pom.xml" 视为相同
+    private static final Pattern SPACE_AROUND_HAN = Pattern.compile(" (?=\\p{IsHan})|(?<=\\p{IsHan}) ");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[。！？!?～~]+$");
+    private static final String CHINESE_DIGITS = "〇一二三四五六七八九";
+    private static final long SAVE_INTERVAL_MILLIS = 30_000;
+
+    private final LinkedHashMap<String, CachedIntent> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<AgentService.Intent>> inFlight = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Path persistFile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private volatile long lastSaved = System.currentTimeMillis();
+    private volatile boolean dirty;
+
+    public IntentCache(@Value("${agent.intent-cache.max-size:1000}") int maxEntries,
+                       @Value("${agent.intent-cache.ttl:1h}") Duration ttl,
+                       @Value("${agent.intent-cache.file:}") String persistFile) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.persistFile = StringUtils.hasText(persistFile) ? Paths.get(persistFile) : null;
+        load();
+    }
+
+    /**
+     * 获取消息的意图；未命中时调用classifier，相同消息并发请求时只调用一次。
+     * classifier抛出的异常会传给所有等待者，结果不缓存。
+     */
+    public AgentService.Intent get(String message, Function<String, AgentService.Intent> classifier) {
+        String key = normalize(message);
+        AgentService.Intent cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<AgentService.Intent> mine = new CompletableFuture<>();
+        CompletableFuture<AgentService.Intent> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+            }
+        }
+
+        try {
+            // 抢到识别权之前可能刚有请求完成
+            cached = lookup(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                mine.complete(cached);
+                return cached;
+            }
+            misses.incrementAndGet();
+            AgentService.Intent intent = classifier.apply(message);
+            put(key, intent);
+            mine.complete(intent);
+            return intent;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * 异步版本：未命中时调用返回future的classifier，不阻塞调用线程。
+     * 与 {@link #get} 共用进行中的识别，同一消息无论同步还是异步请求都只识别一次。
+     */
+    public CompletableFuture<AgentService.Intent> getAsync(String message,
+                                                           Function<String, CompletableFuture<AgentService.Intent>> classifier) {
+        String key = normalize(message);
+        AgentService.Intent cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<AgentService.Intent> mine = new CompletableFuture<>();
+        CompletableFuture<AgentService.Intent> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+
+        cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            inFlight.remove(key, mine);
+            mine.complete(cached);
+            return mine;
+        }
+        misses.incrementAndGet();
+        CompletableFuture<AgentService.Intent> classified;
+        try {
+            classified = classifier.apply(message);
+        } catch (RuntimeException e) {
+            classified = CompletableFuture.failedFuture(e);
+        }
+        classified.whenComplete((intent, error) -> {
+            if (error == null) {
+                put(key, intent);
+            }
+            inFlight.remove(key, mine);
+            if (error != null) {
+                mine.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                mine.complete(intent);
+            }
+        });
+        return mine;
+    }
+
+    /**
+     * 规范化消息：NFKC（全角转半角）、折叠空白、去掉汉字两侧空格、中文数字转阿拉伯数字、
+     * 非路径/URL片段转小写（路径和URL区分大小写，保持原样）
+     */
+    public static String normalize(String message) {
+        String text = Normalizer.normalize(message == null ? "" : message, Normalizer.Form.NFKC).trim();
+        text = TRAILING_PUNCTUATION.matcher(text).replaceAll("");
+        StringBuilder normalized = new StringBuilder(text.length());
+        for (String token : WHITESPACE.split(text)) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            if (normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            if (isPathLike(token)) {
+                normalized.append(token);
+                continue;
+            }
+            for (int i = 0; i < token.length(); i++) {
+                char c = token.charAt(i);
+                int digit = CHINESE_DIGITS.indexOf(c);
+                normalized.append(digit >= 0 ? (char) ('0' + digit) : Character.toLowerCase(c));
+            }
+        }
+        return SPACE_AROUND_HAN.matcher(normalized).replaceAll("");
+    }
+
+    private static boolean isPathLike(String token) {
+        return token.contains("://") || token.indexOf('/') >= 0 || token.indexOf('\\') >= 0 || token.indexOf('.') >= 0;
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("coalesced", coalesced.get());
+        stats.put("evictions", evictions.get());
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxEntries);
+        stats.put("ttlSeconds", ttlMillis / 1000);
+        stats.put("persistent", persistFile != null);
+        return stats;
+    }
+
+    /**
+     * 清空缓存（例如修改了意图提示词之后）
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        dirty = true;
+        save();
+    }
+
+    private AgentService.Intent lookup(String key) {
+        synchronized (entries) {
+            CachedIntent entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.storedAt > ttlMillis) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                return null;
+            }
+            return entry.toIntent();
+        }
+    }
+
+    private void put(String key, AgentService.Intent intent) {
+        synchronized (entries) {
+            entries.put(key, CachedIntent.of(intent, System.currentTimeMillis()));
+            Iterator<CachedIntent> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        dirty = true;
+        if (System.currentTimeMillis() - lastSaved > SAVE_INTERVAL_MILLIS) {
+            save();
+        }
+    }
+
+    private void load() {
+        if (persistFile == null || !Files.exists(persistFile)) {
+            return;
+        }
+        try {
+            Map<String, CachedIntent> stored = objectMapper.readValue(persistFile.toFile(),
+                    new TypeReference<LinkedHashMap<String, CachedIntent>>() {});
+            long now = System.currentTimeMillis();
+            synchronized (entries) {
+                stored.forEach((key, entry) -> {
+                    if (now - entry.storedAt <= ttlMillis && entries.size() < maxEntries && entry.isValid()) {
+                        entries.put(key, entry);
+                    }
+                });
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // 持久化文件损坏时从空缓存开始
+        }
+    }
+
+    @PreDestroy
+    public synchronized void save() {
+        if (persistFile == null || !dirty) {
+            return;
+        }
+        try {
+            Map<String, CachedIntent> snapshot;
+            synchronized (entries) {
+                // 按访问顺序写出，重新加载时保持LRU顺序
+                snapshot = new LinkedHashMap<>(entries);
+            }
+            if (persistFile.getParent() != null) {
+                Files.createDirectories(persistFile.getParent());
+            }
+            Path temp = persistFile.resolveSibling(persistFile.getFileName() + ".tmp");
+            objectMapper.writeValue(temp.toFile(), snapshot);
+            Files.move(temp, persistFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            // 写入失败不影响意图识别
+        }
+        lastSaved = System.currentTimeMillis();
+    }
+
+    // 缓存条目（同时用于持久化）
+    public static class CachedIntent {
+        private String type;
+        private Map<String, String> parameters;
+        private long storedAt;
+
+        public CachedIntent() {
+        }
+
+        static CachedIntent of(AgentService.Intent intent, long storedAt) {
+            CachedIntent entry = new CachedIntent();
+            entry.type = intent.getType().name();
+            entry.parameters = Map.copyOf(intent.getParameters());
+            entry.storedAt = storedAt;
+            return entry;
+        }
+
+        boolean isValid() {
+            try {
+                AgentService.IntentType.valueOf(type);
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+
+        AgentService.Intent toIntent() {
+            return new AgentService.Intent(AgentService.IntentType.valueOf(type), parameters);
+        }
+
+        // Getters and Setters
+        public String getType() { return type; }
+        public void setType(String type) { this.type = type; }
+        public Map<String, String> getParameters() { return parameters; }
+        public void setParameters(Map<String, String> parameters) { this.parameters = parameters == null ? Map.of() : Map.copyOf(parameters); }
+        public long getStoredAt() { return storedAt; }
+        public void setStoredAt(long storedAt) { this.storedAt = storedAt; }
+    }
+}
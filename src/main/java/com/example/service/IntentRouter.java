@@ -0,0 +1,230 @@
+package com.example.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 分级意图路由
+ *
+ * 先用进程内的朴素贝叶斯分类器判断意图，置信度达到阈值、且正则能提取出该意图所需参数时直接采用，
+ * 其余消息才交给LLM。LLM的识别结果作为训练样本增量学习，并可追加到训练日志中，重启后继续使用。
+ */
+@Component
+public class IntentRouter {
+
+    private static final String SEED_RESOURCE = "/intent-seed.tsv";
+    // 增量学习的样本数上限，超过后只使用已有模型
+    private static final int MAX_LEARNED = 50_000;
+    // 不需要参数的意图，只要分类器有把握即可采用
+    private static final Set<AgentService.IntentType> PARAMETERLESS = Set.of(
+            AgentService.IntentType.SYSTEM_INFO, AgentService.IntentType.GENERAL_CHAT);
+
+    private final NaiveBayesIntentClassifier classifier = new NaiveBayesIntentClassifier();
+    private final boolean enabled;
+    private volatile double threshold;
+    private final Path trainingLog;
+    // 已学习过的（规范化消息, 意图），避免重复样本放大权重
+    private final Set<String> learned = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong localAccepted = new AtomicLong(0);
+    private final AtomicLong escalated = new AtomicLong(0);
+    private final AtomicLong learnedFromLlm = new AtomicLong(0);
+
+    public IntentRouter(@Value("${agent.intent-router.enabled:true}") boolean enabled,
+                        @Value("${agent.intent-router.threshold:0.7}") double threshold,
+                        @Value("${agent.intent-router.training-log:}") String trainingLog) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.trainingLog = StringUtils.hasText(trainingLog) ? Paths.get(trainingLog) : null;
+        loadSeed();
+        loadTrainingLog();
+    }
+
+    /**
+     * 尝试在本地完成意图识别，无法确定时返回null（由调用方交给LLM）
+     *
+     * @param parameterExtractor 从消息中提取参数的规则（正则）分析
+     */
+    public AgentService.Intent tryLocal(String message, Function<String, AgentService.Intent> parameterExtractor) {
+        AgentService.Intent intent = enabled ? classify(message, threshold, parameterExtractor) : null;
+        (intent != null ? localAccepted : escalated).incrementAndGet();
+        return intent;
+    }
+
+    /**
+     * 从LLM的识别结果学习
+     */
+    public void learn(String message, AgentService.IntentType type) {
+        if (learned.size() >= MAX_LEARNED || !learned.add(type + "\t" + IntentCache.normalize(message))) {
+            return;
+        }
+        classifier.learn(message, type);
+        learnedFromLlm.incrementAndGet();
+        appendTrainingLog(message, type);
+    }
+
+    public double getThreshold() { return threshold; }
+
+    /**
+     * 运行时调整置信度阈值，大于1相当于全部交给LLM
+     */
+    public void setThreshold(double threshold) { this.threshold = threshold; }
+
+    /**
+     * 获取路由统计信息
+     */
+    public Map<String, Object> getStats() {
+        long local = localAccepted.get();
+        long total = local + escalated.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("threshold", threshold);
+        stats.put("localAccepted", local);
+        stats.put("escalatedToLlm", escalated.get());
+        stats.put("llmCallsSavedRatio", total == 0 ? 0.0 : (double) local / total);
+        stats.put("trainingExamples", classifier.getTrainingSize());
+        stats.put("learnedFromLlm", learnedFromLlm.get());
+        return stats;
+    }
+
+    /**
+     * 离线评估：按给定阈值模拟分级路由，假设交给LLM的消息都能识别正确，
+     * 统计本地采用率（节省的LLM调用）和本地结果的准确率
+     */
+    public Map<String, Object> evaluate(List<LabeledExample> examples, double threshold,
+                                        Function<String, AgentService.Intent> parameterExtractor) {
+        int local = 0;
+        int localCorrect = 0;
+        for (LabeledExample example : examples) {
+            AgentService.Intent intent = classify(example.message, threshold, parameterExtractor);
+            if (intent != null) {
+                local++;
+                if (intent.getType() == example.type) {
+                    localCorrect++;
+                }
+            }
+        }
+        int total = examples.size();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("threshold", threshold);
+        result.put("examples", total);
+        result.put("llmCallsSaved", total == 0 ? 0.0 : (double) local / total);
+        result.put("localAccuracy", local == 0 ? 1.0 : (double) localCorrect / local);
+        result.put("overallAccuracy", total == 0 ? 1.0 : (double) (total - local + localCorrect) / total);
+        return result;
+    }
+
+    private AgentService.Intent classify(String message, double threshold,
+                                         Function<String, AgentService.Intent> parameterExtractor) {
+        NaiveBayesIntentClassifier.Prediction prediction = classifier.predict(message);
+        if (prediction == null || prediction.getConfidence() < threshold) {
+            return null;
+        }
+        AgentService.Intent extracted = parameterExtractor.apply(message);
+        if (extracted.getType() == prediction.getType()) {
+            return extracted;
+        }
+        if (PARAMETERLESS.contains(prediction.getType())) {
+            return new AgentService.Intent(prediction.getType(), Map.of());
+        }
+        // 分类器有把握但规则提取不出参数，交给LLM
+        return null;
+    }
+
+    /**
+     * 读取 "意图<TAB>消息" 格式的样本，#开头的行为注释
+     */
+    public static List<LabeledExample> readExamples(InputStream in) throws IOException {
+        List<LabeledExample> examples = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (line.isBlank() || line.startsWith("#") || tab < 0) {
+                    continue;
+                }
+                try {
+                    examples.add(new LabeledExample(line.substring(tab + 1),
+                            AgentService.IntentType.valueOf(line.substring(0, tab).trim())));
+                } catch (IllegalArgumentException e) {
+                    // 未知意图的样本跳过
+                }
+            }
+        }
+        return examples;
+    }
+
+    private void loadSeed() {
+        try (InputStream in = IntentRouter.class.getResourceAsStream(SEED_RESOURCE)) {
+            if (in != null) {
+                readExamples(in).forEach(example -> classifier.learn(example.message, example.type));
+            }
+        } catch (IOException e) {
+            // 没有初始样本时完全依赖LLM学习
+        }
+    }
+
+    private void loadTrainingLog() {
+        if (trainingLog == null || !Files.exists(trainingLog)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(trainingLog)) {
+            for (LabeledExample example : readExamples(in)) {
+                if (learned.add(example.type + "\t" + IntentCache.normalize(example.message))) {
+                    classifier.learn(example.message, example.type);
+                }
+            }
+        } catch (IOException e) {
+            // 训练日志损坏时忽略
+        }
+    }
+
+    private synchronized void appendTrainingLog(String message, AgentService.IntentType type) {
+        if (trainingLog == null) {
+            return;
+        }
+        try {
+            if (trainingLog.getParent() != null) {
+                Files.createDirectories(trainingLog.getParent());
+            }
+            String line = type + "\t" + message.replaceAll("[\\t\\r\\n]+", " ") + "\n";
+            Files.writeString(trainingLog, line, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // 写入失败只影响重启后的训练数据
+        }
+    }
+
+    // 带标注的样本
+    public static class LabeledExample {
+        private final String message;
+        private final AgentService.IntentType type;
+
+        public LabeledExample(String message, AgentService.IntentType type) {
+            this.message = message;
+            this.type = type;
+        }
+
+        public String getMessage() { return message; }
+        public AgentService.IntentType getType() { return type; }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.service;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 本地文件下载响应
+ *
+ * 支持单段/多段Range请求、基于文件大小和修改时间的强ETag与Last-Modified条件请求；
+ * 容器支持时大文件交给Tomcat的sendfile发送，否则通过FileChannel.transferTo写出。
+ */
+@Component
+public class LocalFileResponder {
+
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private final long sendfileThreshold;
+
+    public LocalFileResponder(@Value("${agent.download.sendfile-threshold:49152}") long sendfileThreshold) {
+        this.sendfileThreshold = sendfileThreshold;
+    }
+
+    /**
+     * 输出本地文件
+     */
+    public void serve(String filePath, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path path = Paths.get(filePath);
+        if (!Files.exists(path) || !Files.isRegularFile(path)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long length = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        String contentType = determineContentType(path);
+        String filename = path.getFileName().toString();
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        // 处理 If-None-Match / If-Modified-Since / If-Match / If-Unmodified-Since，命中时已写入304或412
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (!StringUtils.hasText(rangeHeader) || !ifRangeMatches(request, etag, lastModified)) {
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            writeRegion(path, 0, length, request, response);
+            return;
+        }
+
+        List<HttpRange> ranges;
+        try {
+            // 范围数超过100时parseRanges直接抛出异常
+            ranges = HttpRange.parseRanges(rangeHeader);
+            long total = 0;
+            for (HttpRange range : ranges) {
+                // 校验每个范围是否可满足
+                long start = range.getRangeStart(length);
+                long end = range.getRangeEnd(length);
+                if (start >= length || end < start) {
+                    throw new IllegalArgumentException("Unsatisfiable range: " + range);
+                }
+                total += end - start + 1;
+            }
+            // 与HttpRange.toResourceRegions一致：重叠的范围合计超过文件大小时拒绝，避免同一内容被重复发送多次
+            if (ranges.size() > 1 && total > length) {
+                throw new IllegalArgumentException("The sum of all ranges (" + total + ") is greater than the file length (" + length + ")");
+            }
+        } catch (IllegalArgumentException e) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(length);
+            long end = ranges.get(0).getRangeEnd(length);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            response.setContentLengthLong(end - start + 1);
+            writeRegion(path, start, end - start + 1, request, response);
+            return;
+        }
+
+        writeMultipartRanges(path, ranges, length, contentType, request, response);
+    }
+
+    private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (!StringUtils.hasText(ifRange)) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range 只允许强校验
+            return ifRange.equals(etag);
+        }
+        long since = request.getDateHeader(HttpHeaders.IF_RANGE);
+        return since != -1 && lastModified / 1000 <= since / 1000;
+    }
+
+    private void writeRegion(Path path, long start, long count, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        if (HttpMethod.HEAD.matches(request.getMethod()) || count == 0) {
+            return;
+        }
+        if (count >= sendfileThreshold && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            // 由容器直接从文件描述符发送到socket，不经过用户态缓冲
+            request.setAttribute(SENDFILE_FILENAME_ATTR, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + count);
+            return;
+        }
+        ServletOutputStream out = response.getOutputStream();
+        transfer(path, start, count, Channels.newChannel(out));
+        out.flush();
+    }
+
+    private void writeMultipartRanges(Path path, List<HttpRange> ranges, long length, String contentType,
+                                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        if (HttpMethod.HEAD.matches(request.getMethod())) {
+            return;
+        }
+        ServletOutputStream out = response.getOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            String partHeader = "\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + start + "-" + end + "/" + length + "\r\n\r\n";
+            out.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+            transfer(path, start, end - start + 1, channel);
+        }
+        out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private void transfer(Path path, long start, long count, WritableByteChannel target) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long written = file.transferTo(position, remaining, target);
+                if (written <= 0) {
+                    break;
+                }
+                position += written;
+                remaining -= written;
+            }
+        }
+    }
+
+    /**
+     * 根据文件扩展名推断Content-Type
+     */
+    public String determineContentType(Path path) {
+        String fileName = path.getFileName().toString().toLowerCase();
+
+        if (fileName.endsWith(".pdf")) return "application/pdf";
+        if (fileName.endsWith(".txt")) return "text/plain";
+        if (fileName.endsWith(".html") || fileName.endsWith(".htm")) return "text/html";
+        if (fileName.endsWith(".css")) return "text/css";
+        if (fileName.endsWith(".js")) return "application/javascript";
+        if (fileName.endsWith(".json")) return "application/json";
+        if (fileName.endsWith(".xml")) return "application/xml";
+        if (fileName.endsWith(".zip")) return "application/zip";
+        if (fileName.endsWith(".tar")) return "application/x-tar";
+        if (fileName.endsWith(".gz")) return "application/gzip";
+        if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")) return "image/jpeg";
+        if (fileName.endsWith(".png")) return "image/png";
+        if (fileName.endsWith(".gif")) return "image/gif";
+        if (fileName.endsWith(".mp4")) return "video/mp4";
+        if (fileName.endsWith(".mp3")) return "audio/mpeg";
+
+        return "application/octet-stream";
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.service;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模型调用网关
+ *
+ * 包装Ollama节点池（作为主ChatModel注入到各处），对所有调用做准入控制：
+ * <ul>
+ *   <li>同时生成数不超过 max-concurrent × 节点数，超出的调用进入有界等待队列</li>
+ *   <li>节点池的对冲请求同样占用名额，只在有空闲名额且没有调用排队时发送</li>
+ *   <li>队列已满立即拒绝（429），排队超过queue-timeout仍未轮到也拒绝（503）</li>
+ *   <li>连续失败达到阈值时熔断，熔断期间直接拒绝（503），不再等待已经不可用的后端</li>
+ * </ul>
+ * 流式调用在订阅时排队、在完成或取消时释放名额，等待过程不占用线程。
+ */
+@Primary
+@Component
+public class ModelGateway implements ChatModel {
+
+    private final ChatModel delegate;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long queueTimeoutMillis;
+    private final CircuitBreaker circuitBreaker;
+
+    private final Object lock = new Object();
+    private int inFlight;
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+    private final AtomicLong admitted = new AtomicLong(0);
+    private final AtomicLong rejectedQueueFull = new AtomicLong(0);
+    private final AtomicLong rejectedDeadline = new AtomicLong(0);
+    private final AtomicLong rejectedCircuitOpen = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong hedgesAdmitted = new AtomicLong(0);
+    private final AtomicLong hedgesRejected = new AtomicLong(0);
+
+    @Autowired
+    public ModelGateway(OllamaEndpointPool delegate,
+                        @Value("${agent.model-gateway.max-concurrent:2}") int maxConcurrent,
+                        @Value("${agent.model-gateway.max-queue:32}") int maxQueue,
+                        @Value("${agent.model-gateway.queue-timeout:30s}") Duration queueTimeout,
+                        @Value("${agent.model-gateway.failure-threshold:5}") int failureThreshold,
+                        @Value("${agent.model-gateway.open-duration:30s}") Duration openDuration) {
+        // max-concurrent是每个节点的生成数，增加节点即增加总吞吐
+        this((ChatModel) delegate, maxConcurrent * delegate.size(), maxQueue, queueTimeout, failureThreshold, openDuration);
+        delegate.setHedgeAdmission(new OllamaEndpointPool.HedgeAdmission() {
+            @Override
+            public boolean tryAcquire() {
+                return tryAcquireHedge();
+            }
+
+            @Override
+            public void release() {
+                ModelGateway.this.release();
+            }
+        });
+    }
+
+    ModelGateway(ChatModel delegate, int maxConcurrent, int maxQueue, Duration queueTimeout,
+                 int failureThreshold, Duration openDuration) {
+        this.delegate = delegate;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.queueTimeoutMillis = queueTimeout.toMillis();
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, openDuration);
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        CompletableFuture<Void> admission = admit();
+        try {
+            admission.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!admission.cancel(false) && holdsPermit(admission)) {
+                release();
+            }
+            circuitBreaker.onIgnored();
+            throw new RejectedException(503, "等待模型调用时被中断");
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+        try {
+            ChatResponse response = delegate.call(prompt);
+            circuitBreaker.onSuccess();
+            return response;
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            circuitBreaker.onFailure();
+            throw e;
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            CompletableFuture<Void> admission = admit();
+            AtomicBoolean settled = new AtomicBoolean();
+            return Mono.fromFuture(admission)
+                    .thenMany(Flux.defer(() -> delegate.stream(prompt)))
+                    .doOnError(e -> {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        if (!(cause instanceof RejectedException) && settled.compareAndSet(false, true)) {
+                            failures.incrementAndGet();
+                            circuitBreaker.onFailure();
+                        }
+                    })
+                    .doFinally(signal -> {
+                        // 早停解析等主动取消不算成功也不算失败
+                        if (settled.compareAndSet(false, true)) {
+                            if (signal == SignalType.ON_COMPLETE) {
+                                circuitBreaker.onSuccess();
+                            } else if (signal == SignalType.CANCEL) {
+                                circuitBreaker.onIgnored();
+                            }
+                        }
+                        if (holdsPermit(admission)) {
+                            release();
+                        }
+                    });
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    /**
+     * 熔断器是否处于打开状态（此时调用会被立即拒绝）
+     */
+    public boolean isCircuitOpen() {
+        return circuitBreaker.getState() == CircuitBreaker.State.OPEN;
+    }
+
+    /**
+     * 获取网关统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("inFlight", inFlight);
+            stats.put("queued", waiters.size());
+        }
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("maxQueue", maxQueue);
+        stats.put("queueTimeoutMillis", queueTimeoutMillis);
+        stats.put("admitted", admitted.get());
+        stats.put("rejectedQueueFull", rejectedQueueFull.get());
+        stats.put("rejectedDeadline", rejectedDeadline.get());
+        stats.put("rejectedCircuitOpen", rejectedCircuitOpen.get());
+        stats.put("failures", failures.get());
+        stats.put("hedgesAdmitted", hedgesAdmitted.get());
+        stats.put("hedgesRejected", hedgesRejected.get());
+        stats.put("circuitState", circuitBreaker.getState());
+        stats.put("circuitOpenedCount", circuitBreaker.getOpenedCount());
+        return stats;
+    }
+
+    /**
+     * 申请一个生成名额：有空闲名额立即完成，否则排队；熔断或队列已满时立即失败
+     */
+    private CompletableFuture<Void> admit() {
+        if (!circuitBreaker.tryAcquire()) {
+            rejectedCircuitOpen.incrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedException(503, "模型服务暂不可用（熔断中）"));
+        }
+        CompletableFuture<Void> waiter;
+        synchronized (lock) {
+            if (inFlight < maxConcurrent) {
+                inFlight++;
+                admitted.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }
+            if (waiters.size() >= maxQueue) {
+                rejectedQueueFull.incrementAndGet();
+                circuitBreaker.onIgnored();
+                return CompletableFuture.failedFuture(new RejectedException(429, "模型服务繁忙，请稍后重试"));
+            }
+            waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+        }
+        // 超过排队期限仍未轮到则失败；被取消或超时的等待者在release时跳过
+        CompletableFuture<Void> admission = waiter.orTimeout(queueTimeoutMillis, TimeUnit.MILLISECONDS)
+                .handle((ignored, error) -> {
+                    if (error == null) {
+                        admitted.incrementAndGet();
+                        return (Void) null;
+                    }
+                    synchronized (lock) {
+                        waiters.remove(waiter);
+                    }
+                    circuitBreaker.onIgnored();
+                    if (error instanceof TimeoutException) {
+                        rejectedDeadline.incrementAndGet();
+                        throw new RejectedException(503, "排队等待模型超时，请稍后重试");
+                    }
+                    throw error instanceof RuntimeException runtime ? runtime : new IllegalStateException(error);
+                });
+        // 调用方放弃等待（取消订阅或中断）：撤销排队；名额若已转交过来则归还
+        admission.whenComplete((ignored, error) -> {
+            if (admission.isCancelled()) {
+                synchronized (lock) {
+                    waiters.remove(waiter);
+                }
+                if (!waiter.cancel(false) && !waiter.isCompletedExceptionally()) {
+                    release();
+                }
+                circuitBreaker.onIgnored();
+            }
+        });
+        return admission;
+    }
+
+    /**
+     * 为对冲请求申请名额：只使用空闲名额，不排队，也不抢在已排队的调用之前
+     */
+    boolean tryAcquireHedge() {
+        synchronized (lock) {
+            if (inFlight < maxConcurrent && waiters.isEmpty()) {
+                inFlight++;
+                hedgesAdmitted.incrementAndGet();
+                return true;
+            }
+        }
+        hedgesRejected.incrementAndGet();
+        return false;
+    }
+
+    // 名额直接转交给队首仍在等待的调用。在锁外完成等待者：其后续阶段（发起模型调用等）在当前线程执行，
+    // 不能持有网关的锁；等待者已超时或取消时继续转交给下一个
+    private void release() {
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (lock) {
+                next = waiters.poll();
+                if (next == null) {
+                    inFlight--;
+                    return;
+                }
+            }
+            if (next.complete(null)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean holdsPermit(CompletableFuture<Void> admission) {
+        return admission.isDone() && !admission.isCompletedExceptionally();
+    }
+
+    /**
+     * 准入被拒绝：status为建议的HTTP状态码（429队列已满，503熔断或排队超时）
+     */
+    public static class RejectedException extends RuntimeException {
+        private final int status;
+
+        public RejectedException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public int getStatus() { return status; }
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.service;
+
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 按调用场景选择模型
+ *
+ * 意图识别、一般聊天、文件摘要各对应一个模型配置（模型、温度、最大生成长度、延迟目标），
+ * 配置项为 agent.model-profiles.&lt;任务&gt;.*，未配置模型时使用 spring.ai.ollama.chat.model。
+ * 意图识别只输出一小段JSON，适合用1~3B的小模型；聊天仍使用大模型。
+ * 每个配置统计调用延迟分位数和延迟目标（SLO）达成率，用来验证路由的效果。
+ */
+@Component
+public class ModelProfiles {
+
+    private static final String PREFIX = "agent.model-profiles.";
+    // 每个配置保留最近的延迟样本数，分位数按这些样本计算
+    private static final int WINDOW_SIZE = 1024;
+
+    public enum Task {
+        // 分类任务：限制输出长度，结构化输出后的连续空行直接停止，推理块超过预算即终止
+        INTENT("intent", null, 0.0, 256, Duration.ofSeconds(2), List.of("\n\n\n"), 64),
+        CHAT("chat", null, null, null, Duration.ofSeconds(30), List.of(), 0),
+        SUMMARIZATION("summarization", null, 0.3, 512, Duration.ofSeconds(20), List.of(), 0);
+
+        private final String key;
+        private final String defaultModel;
+        private final Double defaultTemperature;
+        private final Integer defaultNumPredict;
+        private final Duration defaultSlo;
+        private final List<String> defaultStop;
+        private final int defaultReasoningBudget;
+
+        Task(String key, String defaultModel, Double defaultTemperature, Integer defaultNumPredict, Duration defaultSlo,
+             List<String> defaultStop, int defaultReasoningBudget) {
+            this.key = key;
+            this.defaultModel = defaultModel;
+            this.defaultTemperature = defaultTemperature;
+            this.defaultNumPredict = defaultNumPredict;
+            this.defaultSlo = defaultSlo;
+            this.defaultStop = defaultStop;
+            this.defaultReasoningBudget = defaultReasoningBudget;
+        }
+
+        public String getKey() { return key; }
+    }
+
+    private final String defaultModel;
+    private final String keepAlive;
+    private final Map<Task, Profile> profiles = new EnumMap<>(Task.class);
+
+    public ModelProfiles(Environment environment) {
+        this.defaultModel = environment.getProperty("spring.ai.ollama.chat.model",
+                environment.getProperty("spring.ai.ollama.chat.options.model", "default"));
+        // 每次请求都带上keep_alive，模型在两次调用之间保持加载
+        this.keepAlive = environment.getProperty("agent.model-warmup.keep-alive", "30m");
+        Binder binder = Binder.get(environment);
+        for (Task task : Task.values()) {
+            String prefix = PREFIX + task.key + ".";
+            String model = environment.getProperty(prefix + "model");
+            String slo = environment.getProperty(prefix + "slo");
+            profiles.put(task, new Profile(
+                    StringUtils.hasText(model) ? model.trim() : task.defaultModel,
+                    environment.getProperty(prefix + "temperature", Double.class, task.defaultTemperature),
+                    environment.getProperty(prefix + "num-predict", Integer.class, task.defaultNumPredict),
+                    StringUtils.hasText(slo) ? DurationStyle.detectAndParse(slo) : task.defaultSlo,
+                    binder.bind(prefix + "stop", Bindable.listOf(String.class)).orElse(task.defaultStop),
+                    environment.getProperty(prefix + "reasoning-budget", Integer.class, task.defaultReasoningBudget)));
+        }
+    }
+
+    /**
+     * 任务对应的模型选项，调用方可以继续追加（例如输出格式）
+     */
+    public OllamaOptions.Builder options(Task task) {
+        Profile profile = profiles.get(task);
+        OllamaOptions.Builder builder = OllamaOptions.builder();
+        if (StringUtils.hasText(keepAlive)) {
+            builder.keepAlive(keepAlive);
+        }
+        if (profile.model != null) {
+            builder.model(profile.model);
+        }
+        if (profile.temperature != null) {
+            builder.temperature(profile.temperature);
+        }
+        if (profile.numPredict != null) {
+            builder.numPredict(profile.numPredict);
+        }
+        if (!profile.stop.isEmpty()) {
+            builder.stop(profile.stop);
+        }
+        return builder;
+    }
+
+    public Prompt prompt(Task task, String message) {
+        return new Prompt(message, options(task).build());
+    }
+
+    /**
+     * 各任务实际使用的模型（去重），用于预热
+     */
+    public Set<String> getModels() {
+        Set<String> models = new LinkedHashSet<>();
+        for (Task task : Task.values()) {
+            models.add(getModel(task));
+        }
+        return models;
+    }
+
+    /**
+     * 推理块允许的输出段数，0表示不限制
+     */
+    public int getReasoningBudget(Task task) {
+        return profiles.get(task).reasoningBudget;
+    }
+
+    /**
+     * 记录一次调用中被推理块消耗的输出段数，以及是否因超出预算被提前终止
+     */
+    public void recordReasoning(Task task, int reasoningChunks, boolean truncated) {
+        Profile profile = profiles.get(task);
+        profile.reasoningTokens.addAndGet(reasoningChunks);
+        if (truncated) {
+            profile.reasoningTruncated.incrementAndGet();
+        }
+    }
+
+    public String getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * 实际使用的模型名
+     */
+    public String getModel(Task task) {
+        String model = profiles.get(task).model;
+        return model != null ? model : defaultModel;
+    }
+
+    /**
+     * 统计流式调用的首个token延迟、总耗时和生成的token数。主动取消（如意图早停解析）按取消时刻计入，
+     * 出错只计错误数。token数取响应中的eval_count，没有时（如被取消）按收到的段数计
+     */
+    public <T> Flux<T> timed(Task task, Flux<T> response) {
+        Profile profile = profiles.get(task);
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicInteger chunks = new AtomicInteger();
+            AtomicInteger reported = new AtomicInteger();
+            return response
+                    .doOnNext(item -> {
+                        if (chunks.getAndIncrement() == 0) {
+                            profile.firstToken.add(elapsedMillis(start));
+                        }
+                        reported.set(Math.max(reported.get(), completionTokens(item)));
+                    })
+                    .doOnComplete(() -> profile.record(elapsedMillis(start),
+                            reported.get() > 0 ? reported.get() : chunks.get()))
+                    .doOnCancel(() -> profile.record(elapsedMillis(start), chunks.get()))
+                    .doOnError(e -> profile.errors.incrementAndGet());
+        });
+    }
+
+    /**
+     * 统计阻塞调用的耗时
+     */
+    public <T> T timed(Task task, Supplier<T> call) {
+        Profile profile = profiles.get(task);
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            profile.record(elapsedMillis(start), completionTokens(result));
+            return result;
+        } catch (RuntimeException e) {
+            profile.errors.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 获取各任务的模型配置和延迟统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        profiles.forEach((task, profile) -> stats.put(task.key, profile.getStats(getModel(task))));
+        return stats;
+    }
+
+    private static int completionTokens(Object item) {
+        if (!(item instanceof ChatResponse response) || response.getMetadata() == null || response.getMetadata().getUsage() == null) {
+            return 0;
+        }
+        Integer tokens = response.getMetadata().getUsage().getCompletionTokens();
+        return tokens != null ? tokens : 0;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static class Profile {
+        private final String model;
+        private final Double temperature;
+        private final Integer numPredict;
+        private final long sloMillis;
+        private final List<String> stop;
+        private final int reasoningBudget;
+
+        private final LatencyWindow latency = new LatencyWindow(WINDOW_SIZE);
+        private final LatencyWindow firstToken = new LatencyWindow(WINDOW_SIZE);
+        private final AtomicLong calls = new AtomicLong(0);
+        private final AtomicLong sloViolations = new AtomicLong(0);
+        private final AtomicLong errors = new AtomicLong(0);
+        private final AtomicLong tokens = new AtomicLong(0);
+        private final AtomicLong reasoningTokens = new AtomicLong(0);
+        private final AtomicLong reasoningTruncated = new AtomicLong(0);
+
+        Profile(String model, Double temperature, Integer numPredict, Duration slo, List<String> stop, int reasoningBudget) {
+            this.model = model;
+            this.temperature = temperature;
+            this.numPredict = numPredict;
+            this.sloMillis = slo.toMillis();
+            this.stop = List.copyOf(stop);
+            this.reasoningBudget = Math.max(0, reasoningBudget);
+        }
+
+        void record(long millis, int generatedTokens) {
+            calls.incrementAndGet();
+            tokens.addAndGet(generatedTokens);
+            if (millis > sloMillis) {
+                sloViolations.incrementAndGet();
+            }
+            latency.add(millis);
+        }
+
+        Map<String, Object> getStats(String resolvedModel) {
+            long total = calls.get();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("model", resolvedModel);
+            stats.put("temperature", temperature);
+            stats.put("numPredict", numPredict);
+            stats.put("stop", stop);
+            stats.put("reasoningBudget", reasoningBudget);
+            stats.put("sloMillis", sloMillis);
+            stats.put("calls", total);
+            stats.put("errors", errors.get());
+            stats.put("sloViolations", sloViolations.get());
+            stats.put("sloAttainment", total == 0 ? 1.0 : (double) (total - sloViolations.get()) / total);
+            stats.put("p50Millis", latency.percentile(0.50));
+            stats.put("p95Millis", latency.percentile(0.95));
+            stats.put("p99Millis", latency.percentile(0.99));
+            stats.put("firstTokenP50Millis", firstToken.percentile(0.50));
+            stats.put("firstTokenP95Millis", firstToken.percentile(0.95));
+            stats.put("tokens", tokens.get());
+            stats.put("avgTokensPerCall", total == 0 ? 0.0 : (double) tokens.get() / total);
+            stats.put("reasoningTokens", reasoningTokens.get());
+            stats.put("reasoningTruncated", reasoningTruncated.get());
+            return stats;
+        }
+    }
+}
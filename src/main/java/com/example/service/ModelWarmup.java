@@ -0,0 +1,182 @@
+package com.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模型预热和保活
+ *
+ * 启动完成后向每个Ollama节点发送一次极短的请求，把各任务使用的模型加载到显存，
+ * 之后按固定间隔重复发送（间隔应小于Ollama卸载空闲模型的时间），避免首个用户请求承担数秒的加载时间。
+ * 请求直接发往各节点，不经过模型网关的排队。每次请求的耗时按冷启动（响应中load_duration较大，
+ * 模型被重新加载）和热状态分别统计。
+ */
+@Component
+public class ModelWarmup {
+
+    private static final String WARMUP_PROMPT = "ping";
+    // 响应中的加载耗时超过该值视为冷启动
+    private static final long COLD_LOAD_MILLIS = 500;
+
+    private final Map<String, ChatModel> endpoints;
+    private final ModelProfiles modelProfiles;
+    private final boolean enabled;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Target> targets = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ModelWarmup(OllamaEndpointPool endpointPool, ModelProfiles modelProfiles,
+                       @Value("${agent.model-warmup.enabled:true}") boolean enabled,
+                       @Value("${agent.model-warmup.interval:4m}") Duration interval) {
+        this(endpointPool.getEndpointModels(), modelProfiles, enabled, interval);
+    }
+
+    ModelWarmup(Map<String, ChatModel> endpoints, ModelProfiles modelProfiles, boolean enabled, Duration interval) {
+        this.endpoints = Map.copyOf(endpoints);
+        this.modelProfiles = modelProfiles;
+        this.enabled = enabled;
+        this.intervalMillis = interval.toMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "model-warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 启动完成后在后台预热，之后定时保活；不阻塞启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (intervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::warmAll, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.execute(this::warmAll);
+        }
+    }
+
+    /**
+     * 向每个节点的每个模型发送一次预热请求
+     */
+    public void warmAll() {
+        endpoints.forEach((url, model) -> {
+            for (String name : modelProfiles.getModels()) {
+                warm(url, model, name);
+            }
+        });
+    }
+
+    private void warm(String url, ChatModel model, String name) {
+        Target target = targets.computeIfAbsent(url + " " + name, key -> new Target(url, name));
+        OllamaOptions.Builder options = OllamaOptions.builder().model(name).numPredict(1);
+        if (modelProfiles.getKeepAlive() != null) {
+            options.keepAlive(modelProfiles.getKeepAlive());
+        }
+        long start = System.nanoTime();
+        try {
+            ChatResponse response = model.call(new Prompt(WARMUP_PROMPT, options.build()));
+            target.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), loadMillis(response));
+        } catch (RuntimeException e) {
+            // 节点或模型不可用时不影响服务，下次保活时重试
+            target.failures.incrementAndGet();
+            target.lastError = e.getMessage();
+        }
+    }
+
+    private static long loadMillis(ChatResponse response) {
+        Object load = response.getMetadata() != null ? response.getMetadata().get("load-duration") : null;
+        return load instanceof Duration duration ? duration.toMillis() : -1;
+    }
+
+    /**
+     * 获取预热统计：每个节点和模型的冷启动/热状态耗时
+     */
+    public Map<String, Object> getStats() {
+        List<Map<String, Object>> models = new ArrayList<>();
+        targets.values().forEach(target -> models.add(target.getStats()));
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("intervalSeconds", intervalMillis / 1000);
+        stats.put("keepAlive", modelProfiles.getKeepAlive());
+        stats.put("models", models);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    // 一个节点上的一个模型
+    private static class Target {
+        private final String url;
+        private final String model;
+        private final AtomicLong coldStarts = new AtomicLong(0);
+        private final AtomicLong warmPings = new AtomicLong(0);
+        private final AtomicLong failures = new AtomicLong(0);
+        private volatile long lastColdMillis = -1;
+        private volatile long lastWarmMillis = -1;
+        private volatile long lastLoadMillis = -1;
+        private volatile long lastPingAt;
+        private volatile String lastError;
+
+        Target(String url, String model) {
+            this.url = url;
+            this.model = model;
+        }
+
+        void record(long millis, long loadMillis) {
+            // 没有load_duration时把第一次请求视为冷启动
+            boolean cold = loadMillis >= 0 ? loadMillis >= COLD_LOAD_MILLIS
+                    : coldStarts.get() + warmPings.get() == 0;
+            if (cold) {
+                coldStarts.incrementAndGet();
+                lastColdMillis = millis;
+            } else {
+                warmPings.incrementAndGet();
+                lastWarmMillis = millis;
+            }
+            lastLoadMillis = loadMillis;
+            lastPingAt = System.currentTimeMillis();
+            lastError = null;
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("endpoint", url);
+            stats.put("model", model);
+            stats.put("coldStarts", coldStarts.get());
+            stats.put("lastColdMillis", lastColdMillis);
+            stats.put("warmPings", warmPings.get());
+            stats.put("lastWarmMillis", lastWarmMillis);
+            stats.put("lastLoadMillis", lastLoadMillis);
+            stats.put("failures", failures.get());
+            stats.put("lastPingAt", lastPingAt);
+            stats.put("lastError", lastError);
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 复合请求拆分
+ *
+ * 把“搜索UserService并且下载pom.xml，查看内存”这类一句话里的多个操作拆成多个工具调用。
+ * 只在连接词（逗号、分号、并且、然后、和、and等）之后紧跟操作动词时拆分，
+ * 因此“搜索A和B”仍是一次搜索。每一段按正则规则识别意图，识别出两个及以上工具意图时才视为复合请求。
+ */
+final class MultiToolPlanner {
+
+    // 单条消息最多拆出的工具调用数
+    static final int MAX_TOOLS = 4;
+
+    private static final Pattern SEPARATOR = Pattern.compile(
+            "\\s*(?:[，,；;。]|并且|然后|同时|以及|再|和|\\band\\b|\\bthen\\b)\\s*"
+                    + "(?=(?:搜索|查找|下载|读取|打开|查看|显示|search|find|download|read|open|show|check))",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CHARACTER_CLASS);
+
+    private static final Pattern TRAILING = Pattern.compile("[，,；;。\\s]+$");
+
+    private MultiToolPlanner() {
+    }
+
+    /**
+     * 拆分出各个工具意图（去重，保持原顺序）；不是复合请求时返回空列表
+     */
+    static List<AgentService.Intent> plan(String userMessage) {
+        if (userMessage == null || userMessage.isBlank()) {
+            return List.of();
+        }
+        String[] segments = SEPARATOR.split(userMessage.trim());
+        if (segments.length < 2) {
+            return List.of();
+        }
+        Map<String, AgentService.Intent> intents = new LinkedHashMap<>();
+        for (String segment : segments) {
+            AgentService.Intent intent = AgentService.analyzeIntentWithRegex(
+                    TRAILING.matcher(segment.trim()).replaceAll(""));
+            if (intent.getType() != AgentService.IntentType.GENERAL_CHAT) {
+                intents.putIfAbsent(intent.getType() + " " + intent.getParameters(), intent);
+            }
+        }
+        if (intents.size() < 2) {
+            return List.of();
+        }
+        List<AgentService.Intent> plan = new ArrayList<>(intents.values());
+        return plan.size() > MAX_TOOLS ? List.copyOf(plan.subList(0, MAX_TOOLS)) : List.copyOf(plan);
+    }
+}
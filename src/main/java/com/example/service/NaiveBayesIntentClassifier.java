@@ -0,0 +1,130 @@
+package com.example.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 基于字符n-gram的多项式朴素贝叶斯意图分类器
+ *
+ * 特征为规范化消息的1~3字符片段（中文按字、英文按字符都适用），支持在线增量训练。
+ * 由于n-gram特征之间高度相关，原始后验概率会过度自信，这里按特征数对对数似然做平均后再归一化，
+ * 使置信度可以用一个阈值来控制。
+ */
+class NaiveBayesIntentClassifier {
+
+    private static final int MAX_NGRAM = 3;
+    private static final double ALPHA = 1.0;
+
+    private final AgentService.IntentType[] types = AgentService.IntentType.values();
+    // n-gram -> 各意图下的出现次数
+    private final Map<String, long[]> featureCounts = new HashMap<>();
+    private final long[] totalFeatures = new long[types.length];
+    private final long[] documents = new long[types.length];
+    private long totalDocuments;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 增加一条训练样本
+     */
+    void learn(String message, AgentService.IntentType type) {
+        Set<String> features = features(message);
+        int label = type.ordinal();
+        lock.writeLock().lock();
+        try {
+            for (String feature : features) {
+                featureCounts.computeIfAbsent(feature, f -> new long[types.length])[label]++;
+            }
+            totalFeatures[label] += features.size();
+            documents[label]++;
+            totalDocuments++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 预测意图及置信度，没有训练数据时返回null
+     */
+    Prediction predict(String message) {
+        Set<String> features = features(message);
+        double[] scores = new double[types.length];
+        lock.readLock().lock();
+        try {
+            if (totalDocuments == 0 || features.isEmpty()) {
+                return null;
+            }
+            double vocabulary = featureCounts.size();
+            for (int c = 0; c < types.length; c++) {
+                if (documents[c] == 0) {
+                    scores[c] = Double.NEGATIVE_INFINITY;
+                    continue;
+                }
+                double likelihood = 0;
+                double denominator = Math.log(totalFeatures[c] + ALPHA * vocabulary);
+                for (String feature : features) {
+                    long[] counts = featureCounts.get(feature);
+                    long count = counts == null ? 0 : counts[c];
+                    likelihood += Math.log(count + ALPHA) - denominator;
+                }
+                scores[c] = Math.log((double) documents[c] / totalDocuments) + likelihood / features.size();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return Prediction.fromScores(types, scores, features.size());
+    }
+
+    long getTrainingSize() {
+        lock.readLock().lock();
+        try {
+            return totalDocuments;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Set<String> features(String message) {
+        String text = "^" + IntentCache.normalize(message) + "$";
+        Set<String> features = new LinkedHashSet<>();
+        for (int n = 1; n <= MAX_NGRAM; n++) {
+            for (int i = 0; i + n <= text.length(); i++) {
+                features.add(text.substring(i, i + n));
+            }
+        }
+        return features;
+    }
+
+    // 预测结果
+    static class Prediction {
+        private final AgentService.IntentType type;
+        private final double confidence;
+
+        Prediction(AgentService.IntentType type, double confidence) {
+            this.type = type;
+            this.confidence = confidence;
+        }
+
+        // 对平均对数似然做softmax，温度随特征数缩放：特征越多证据越充分
+        static Prediction fromScores(AgentService.IntentType[] types, double[] scores, int featureCount) {
+            double temperature = Math.sqrt(featureCount);
+            int best = 0;
+            for (int c = 1; c < scores.length; c++) {
+                if (scores[c] > scores[best]) {
+                    best = c;
+                }
+            }
+            double sum = 0;
+            for (double score : scores) {
+                sum += Math.exp((score - scores[best]) * temperature);
+            }
+            return new Prediction(types[best], 1.0 / sum);
+        }
+
+        AgentService.IntentType getType() { return type; }
+        double getConfidence() { return confidence; }
+    }
+}
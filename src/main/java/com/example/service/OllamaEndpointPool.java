@@ -0,0 +1,422 @@
+package com.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多个Ollama节点的负载均衡
+ *
+ * agent.ollama.endpoints 配置了多个节点时，每次调用选择未完成请求最少的可用节点（相同时轮流选择）。
+ * 节点是否可用由两部分决定：定时请求 /api/tags 的主动健康检查，以及连续失败后按熔断器摘除一段时间。
+ * 开启对冲（agent.ollama.hedge.enabled）后，如果首个token在阈值内没有到达，就向另一个节点发送相同请求，
+ * 先返回内容的一方胜出，另一方被取消。阈值取同一模型近期首token延迟的p95，样本不足时使用 hedge.delay；
+ * 对冲请求要占用网关的一个空闲名额，没有空闲名额时不发送。
+ * 未配置节点列表时只使用 spring.ai.ollama.base-url，行为与直接调用OllamaChatModel相同。
+ */
+@Component
+public class OllamaEndpointPool implements ChatModel {
+
+    // 首token延迟样本少于该数量时使用固定的对冲延迟
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final int WINDOW_SIZE = 512;
+
+    private final List<Endpoint> endpoints;
+    private final boolean hedgeEnabled;
+    private final long hedgeDelayMillis;
+    private final long hedgeMinDelayMillis;
+    private final ScheduledExecutorService healthChecker;
+    // 模型名 -> 首token延迟，不同模型的延迟差别很大，分开统计
+    private final ConcurrentHashMap<String, LatencyWindow> firstTokenLatency = new ConcurrentHashMap<>();
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private volatile HedgeAdmission hedgeAdmission = HedgeAdmission.UNLIMITED;
+
+    private final AtomicLong hedged = new AtomicLong(0);
+    private final AtomicLong hedgeWins = new AtomicLong(0);
+    private final AtomicLong hedgesSkipped = new AtomicLong(0);
+
+    @Autowired
+    public OllamaEndpointPool(OllamaChatModel primary,
+                              @Value("${spring.ai.ollama.base-url:http://localhost:11434}") String baseUrl,
+                              @Value("${agent.ollama.endpoints:}") List<String> urls,
+                              @Value("${agent.ollama.hedge.enabled:false}") boolean hedgeEnabled,
+                              @Value("${agent.ollama.hedge.delay:2s}") Duration hedgeDelay,
+                              @Value("${agent.ollama.hedge.min-delay:100ms}") Duration hedgeMinDelay,
+                              @Value("${agent.ollama.health-check-interval:10s}") Duration healthCheckInterval,
+                              @Value("${agent.ollama.failure-threshold:3}") int failureThreshold,
+                              @Value("${agent.ollama.eject-duration:30s}") Duration ejectDuration) {
+        this(endpoints(primary, baseUrl, urls, failureThreshold, ejectDuration),
+                hedgeEnabled, hedgeDelay, hedgeMinDelay, healthCheckInterval);
+    }
+
+    OllamaEndpointPool(List<Endpoint> endpoints, boolean hedgeEnabled, Duration hedgeDelay,
+                       Duration hedgeMinDelay, Duration healthCheckInterval) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个Ollama节点");
+        }
+        this.endpoints = List.copyOf(endpoints);
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeDelayMillis = hedgeDelay.toMillis();
+        this.hedgeMinDelayMillis = hedgeMinDelay.toMillis();
+        // 只有一个节点时没有可切换的目标，不做健康检查
+        if (this.endpoints.size() > 1 && !healthCheckInterval.isZero()) {
+            this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ollama-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = healthCheckInterval.toMillis();
+            this.healthChecker.scheduleWithFixedDelay(this::checkHealth, 0, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.healthChecker = null;
+        }
+    }
+
+    /**
+     * 创建连接指定地址的节点，默认选项与主节点相同
+     */
+    static Endpoint endpoint(String url, OllamaOptions defaultOptions, int failureThreshold, Duration ejectDuration) {
+        OllamaApi api = new OllamaApi(url);
+        ChatModel model = OllamaChatModel.builder().ollamaApi(api).defaultOptions(defaultOptions).build();
+        return new Endpoint(url, model, api::listModels, new CircuitBreaker(failureThreshold, ejectDuration));
+    }
+
+    private static List<Endpoint> endpoints(OllamaChatModel primary, String baseUrl, List<String> urls,
+                                            int failureThreshold, Duration ejectDuration) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String url : urls) {
+            if (!StringUtils.hasText(url)) {
+                continue;
+            }
+            String trimmed = trimSlash(url.trim());
+            endpoints.add(trimmed.equals(trimSlash(baseUrl))
+                    ? new Endpoint(trimmed, primary, new OllamaApi(trimmed)::listModels,
+                            new CircuitBreaker(failureThreshold, ejectDuration))
+                    : endpoint(trimmed, (OllamaOptions) primary.getDefaultOptions(), failureThreshold, ejectDuration));
+        }
+        if (endpoints.isEmpty()) {
+            endpoints.add(new Endpoint(trimSlash(baseUrl), primary, () -> { },
+                    new CircuitBreaker(failureThreshold, ejectDuration)));
+        }
+        return endpoints;
+    }
+
+    private static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        if (!isHedging()) {
+            Endpoint endpoint = select(null);
+            endpoint.outstanding.incrementAndGet();
+            endpoint.requests.incrementAndGet();
+            try {
+                ChatResponse response = endpoint.model.call(prompt);
+                endpoint.breaker.onSuccess();
+                return response;
+            } catch (RuntimeException e) {
+                endpoint.failures.incrementAndGet();
+                endpoint.breaker.onFailure();
+                throw e;
+            } finally {
+                endpoint.outstanding.decrementAndGet();
+            }
+        }
+        // 对冲需要能取消落后的请求，阻塞调用改用流式接口再汇总
+        List<ChatResponse> chunks = stream(prompt).collectList().block();
+        return aggregate(chunks != null ? chunks : List.of());
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            Endpoint first = select(null);
+            LatencyWindow latency = latencyWindow(prompt);
+            Flux<ChatResponse> primary = attempt(first, prompt, latency);
+            if (!isHedging()) {
+                return primary;
+            }
+            AtomicBoolean hedgeFirst = new AtomicBoolean(true);
+            Flux<ChatResponse> hedge = Flux.defer(() -> {
+                Endpoint second = select(first);
+                if (second == null) {
+                    return Flux.<ChatResponse>empty();
+                }
+                HedgeAdmission admission = hedgeAdmission;
+                if (!admission.tryAcquire()) {
+                    hedgesSkipped.incrementAndGet();
+                    return Flux.<ChatResponse>empty();
+                }
+                hedged.incrementAndGet();
+                return attempt(second, prompt, latency)
+                        .doOnNext(response -> {
+                            if (hedgeFirst.compareAndSet(true, false)) {
+                                hedgeWins.incrementAndGet();
+                            }
+                        })
+                        .doFinally(signal -> admission.release());
+            }).delaySubscription(Duration.ofMillis(currentHedgeDelay(latency)));
+            return Flux.firstWithValue(primary, hedge)
+                    .onErrorMap(NoSuchElementException.class, OllamaEndpointPool::firstCause);
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return endpoints.get(0).model.getDefaultOptions();
+    }
+
+    /**
+     * 获取各节点和对冲请求的统计信息
+     */
+    public Map<String, Object> getStats() {
+        List<Map<String, Object>> nodes = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            Map<String, Object> node = new LinkedHashMap<>();
+            node.put("url", endpoint.url);
+            node.put("healthy", endpoint.healthy);
+            node.put("circuitState", endpoint.breaker.getState());
+            node.put("outstanding", endpoint.outstanding.get());
+            node.put("requests", endpoint.requests.get());
+            node.put("failures", endpoint.failures.get());
+            node.put("cancelled", endpoint.cancelled.get());
+            nodes.add(node);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("endpoints", nodes);
+        Map<String, Long> hedgeDelays = new LinkedHashMap<>();
+        Map<String, Long> firstTokenP95 = new LinkedHashMap<>();
+        firstTokenLatency.forEach((model, latency) -> {
+            hedgeDelays.put(model, currentHedgeDelay(latency));
+            firstTokenP95.put(model, latency.percentile(0.95));
+        });
+        stats.put("hedgeEnabled", isHedging());
+        stats.put("hedgeDelayMillis", hedgeDelays);
+        stats.put("hedged", hedged.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("hedgesSkipped", hedgesSkipped.get());
+        stats.put("firstTokenP95Millis", firstTokenP95);
+        return stats;
+    }
+
+    /**
+     * 节点数
+     */
+    public int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * 设置对冲请求的准入（由模型网关按其空闲名额决定）
+     */
+    void setHedgeAdmission(HedgeAdmission hedgeAdmission) {
+        this.hedgeAdmission = hedgeAdmission;
+    }
+
+    /**
+     * 各节点地址及其ChatModel，用于预热等需要逐个访问节点的场景（不经过负载均衡）
+     */
+    public Map<String, ChatModel> getEndpointModels() {
+        Map<String, ChatModel> models = new LinkedHashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            models.put(endpoint.url, endpoint.model);
+        }
+        return models;
+    }
+
+    /**
+     * 选择未完成请求最少的可用节点，excluded用于对冲时排除首选节点（没有其他可用节点时返回null）。
+     * 熔断冷却结束（半开）的节点经熔断器放行，只接收一次试探请求，结果决定恢复还是继续摘除
+     */
+    Endpoint select(Endpoint excluded) {
+        List<Endpoint> candidates = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint == excluded || !endpoint.healthy) {
+                continue;
+            }
+            CircuitBreaker.State state = endpoint.breaker.getState();
+            if (state == CircuitBreaker.State.CLOSED) {
+                candidates.add(endpoint);
+            } else if (state == CircuitBreaker.State.HALF_OPEN && endpoint.breaker.tryAcquire()) {
+                return endpoint;
+            }
+        }
+        if (candidates.isEmpty()) {
+            if (excluded != null) {
+                return null;
+            }
+            // 全部不可用时仍然尝试，避免健康检查误判导致完全不可用
+            candidates = endpoints;
+        }
+        int offset = Math.floorMod(roundRobin.getAndIncrement(), candidates.size());
+        Endpoint best = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            Endpoint candidate = candidates.get((offset + i) % candidates.size());
+            if (best == null || candidate.outstanding.get() < best.outstanding.get()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    void checkHealth() {
+        for (Endpoint endpoint : endpoints) {
+            try {
+                endpoint.healthCheck.run();
+                endpoint.healthy = true;
+            } catch (RuntimeException e) {
+                endpoint.healthy = false;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+    }
+
+    private boolean isHedging() {
+        return hedgeEnabled && endpoints.size() > 1;
+    }
+
+    private long currentHedgeDelay(LatencyWindow latency) {
+        if (latency.size() < MIN_HEDGE_SAMPLES) {
+            return hedgeDelayMillis;
+        }
+        return Math.max(hedgeMinDelayMillis, latency.percentile(0.95));
+    }
+
+    // 按请求使用的模型（未指定时为默认模型）选择延迟统计
+    private LatencyWindow latencyWindow(Prompt prompt) {
+        String model = prompt.getOptions() != null ? prompt.getOptions().getModel() : null;
+        if (!StringUtils.hasText(model)) {
+            ChatOptions defaults = getDefaultOptions();
+            model = defaults != null && defaults.getModel() != null ? defaults.getModel() : "";
+        }
+        return firstTokenLatency.computeIfAbsent(model, key -> new LatencyWindow(WINDOW_SIZE));
+    }
+
+    private Flux<ChatResponse> attempt(Endpoint endpoint, Prompt prompt, LatencyWindow latency) {
+        return Flux.defer(() -> {
+            endpoint.outstanding.incrementAndGet();
+            endpoint.requests.incrementAndGet();
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            return endpoint.model.stream(prompt)
+                    .doOnNext(response -> {
+                        if (first.compareAndSet(true, false)) {
+                            latency.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        }
+                    })
+                    .doOnError(e -> {
+                        endpoint.failures.incrementAndGet();
+                        endpoint.breaker.onFailure();
+                    })
+                    .doOnComplete(endpoint.breaker::onSuccess)
+                    .doOnCancel(() -> {
+                        endpoint.cancelled.incrementAndGet();
+                        // 试探请求被取消（如对冲落败）时没有结论，允许下一次试探
+                        endpoint.breaker.onIgnored();
+                    })
+                    .doFinally(signal -> endpoint.outstanding.decrementAndGet());
+        });
+    }
+
+    // 所有节点都失败时返回第一个节点的异常，而不是"没有结果"
+    private static Throwable firstCause(NoSuchElementException e) {
+        if (e.getCause() != null) {
+            List<Throwable> causes = Exceptions.unwrapMultiple(e.getCause());
+            if (!causes.isEmpty()) {
+                return causes.get(0);
+            }
+        }
+        return e;
+    }
+
+    private static ChatResponse aggregate(List<ChatResponse> chunks) {
+        StringBuilder text = new StringBuilder();
+        ChatResponse last = null;
+        for (ChatResponse chunk : chunks) {
+            if (chunk.getResult() != null && chunk.getResult().getOutput() != null
+                    && chunk.getResult().getOutput().getText() != null) {
+                text.append(chunk.getResult().getOutput().getText());
+            }
+            last = chunk;
+        }
+        ChatResponseMetadata metadata = last != null ? last.getMetadata() : new ChatResponseMetadata();
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text.toString()))), metadata);
+    }
+
+    /**
+     * 对冲请求的准入，获取成功后在对冲请求结束时释放
+     */
+    interface HedgeAdmission {
+        HedgeAdmission UNLIMITED = new HedgeAdmission() {
+            @Override
+            public boolean tryAcquire() {
+                return true;
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+
+        boolean tryAcquire();
+
+        void release();
+    }
+
+    // 一个Ollama节点
+    static class Endpoint {
+        private final String url;
+        private final ChatModel model;
+        private final Runnable healthCheck;
+        private final CircuitBreaker breaker;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong(0);
+        private final AtomicLong failures = new AtomicLong(0);
+        private final AtomicLong cancelled = new AtomicLong(0);
+        private volatile boolean healthy = true;
+
+        Endpoint(String url, ChatModel model, Runnable healthCheck, CircuitBreaker breaker) {
+            this.url = url;
+            this.model = model;
+            this.healthCheck = healthCheck;
+            this.breaker = breaker;
+        }
+
+        String getUrl() { return url; }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.service;
+
+/**
+ * 流式去除推理块
+ *
+ * 逐段过滤LLM输出中的 &lt;think&gt;…&lt;/think&gt;，标签可能被拆在相邻的两段里。推理块以外的文本原样返回。
+ * 推理内容超过预算（按输出段数计，Ollama流式输出每段约一个token）时抛出
+ * {@link BudgetExceededException}，调用方据此取消生成，不再为剩余的推理token付出时间。
+ */
+class ReasoningFilter {
+
+    private static final String THINK_START = "<think>";
+    private static final String THINK_END = "</think>";
+
+    private final int budget;
+    private final StringBuilder pending = new StringBuilder();
+    private boolean inThink;
+    private int reasoningChunks;
+    private boolean truncated;
+
+    /**
+     * @param budget 允许的推理段数，0表示不限制
+     */
+    ReasoningFilter(int budget) {
+        this.budget = Math.max(0, budget);
+    }
+
+    /**
+     * 追加一段输出，返回其中推理块以外的文本（可能为空串）
+     */
+    String feed(String chunk) {
+        boolean thinkingBefore = inThink;
+        pending.append(chunk == null ? "" : chunk);
+        StringBuilder visible = new StringBuilder();
+        while (pending.length() > 0) {
+            if (inThink) {
+                int end = pending.indexOf(THINK_END);
+                if (end < 0) {
+                    // 推理内容丢弃，只保留可能是结束标签开头的部分
+                    keepTail(THINK_END);
+                    break;
+                }
+                pending.delete(0, end + THINK_END.length());
+                inThink = false;
+            } else {
+                int start = pending.indexOf(THINK_START);
+                if (start < 0) {
+                    int keep = partialTagLength(THINK_START);
+                    visible.append(pending, 0, pending.length() - keep);
+                    pending.delete(0, pending.length() - keep);
+                    break;
+                }
+                visible.append(pending, 0, start);
+                pending.delete(0, start + THINK_START.length());
+                inThink = true;
+            }
+        }
+        if ((thinkingBefore || inThink) && visible.length() == 0) {
+            reasoningChunks++;
+            if (budget > 0 && reasoningChunks > budget) {
+                truncated = true;
+                throw new BudgetExceededException(reasoningChunks);
+            }
+        }
+        return visible.toString();
+    }
+
+    /**
+     * 输出结束：返回残留的不完整标签（不是推理块的一部分时）
+     */
+    String finish() {
+        String rest = inThink ? "" : pending.toString();
+        pending.setLength(0);
+        return rest;
+    }
+
+    int getReasoningChunks() {
+        return reasoningChunks;
+    }
+
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    private void keepTail(String tag) {
+        int keep = partialTagLength(tag);
+        pending.delete(0, pending.length() - keep);
+    }
+
+    // pending末尾与tag开头重合的最长长度
+    private int partialTagLength(String tag) {
+        int max = Math.min(tag.length() - 1, pending.length());
+        for (int length = max; length > 0; length--) {
+            if (pending.indexOf(tag.substring(0, length), pending.length() - length) >= 0) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 推理内容超出预算
+     */
+    static class BudgetExceededException extends RuntimeException {
+        BudgetExceededException(int chunks) {
+            super("推理输出超过预算（" + chunks + "段），提前终止");
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.service;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 聊天回复缓存
+ *
+ * 两级查找：先按规范化后的提示词精确匹配；未命中时计算提示词的向量，与已缓存提示词的向量
+ * 比较余弦相似度，达到阈值即视为语义相同，复用已有回复。缓存条目按LRU和有效期淘汰，
+ * 向量索引就是缓存条目本身（条目数有上限，线性扫描即可）。
+ * 没有可用的EmbeddingModel或向量计算失败时只使用精确匹配。可以按接口关闭缓存。
+ */
+@Component
+public class ResponseCache {
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final EmbeddingModel embeddingModel;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final double similarityThreshold;
+    private final Set<String> disabledEndpoints;
+
+    private final AtomicLong exactHits = new AtomicLong(0);
+    private final AtomicLong semanticHits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong bypassed = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong embeddingFailures = new AtomicLong(0);
+    private final AtomicLong savedMillis = new AtomicLong(0);
+
+    public ResponseCache(ObjectProvider<EmbeddingModel> embeddingModel,
+                         @Value("${agent.response-cache.enabled:true}") boolean enabled,
+                         @Value("${agent.response-cache.max-size:500}") int maxEntries,
+                         @Value("${agent.response-cache.ttl:1h}") Duration ttl,
+                         @Value("${agent.response-cache.similarity-threshold:0.95}") double similarityThreshold,
+                         @Value("${agent.response-cache.semantic:true}") boolean semantic,
+                         @Value("${agent.response-cache.disabled-endpoints:}") Set<String> disabledEndpoints) {
+        this.embeddingModel = semantic ? embeddingModel.getIfAvailable() : null;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.similarityThreshold = similarityThreshold;
+        this.disabledEndpoints = Set.copyOf(disabledEndpoints);
+    }
+
+    /**
+     * 获取回复：命中缓存时直接返回，否则调用generator生成并缓存
+     *
+     * @param endpoint 调用方接口名，用于按接口关闭缓存
+     */
+    public String get(String endpoint, String prompt, Supplier<String> generator) {
+        Lookup lookup = lookup(endpoint, prompt);
+        if (lookup.isHit()) {
+            return lookup.getResponse();
+        }
+        long start = System.nanoTime();
+        String response = generator.get();
+        store(lookup, response, Duration.ofNanos(System.nanoTime() - start).toMillis());
+        return response;
+    }
+
+    /**
+     * 查找缓存（可能调用EmbeddingModel，是阻塞操作）。未命中时把返回值交给 {@link #store}，
+     * 避免重复计算向量。
+     */
+    public Lookup lookup(String endpoint, String prompt) {
+        if (!enabled || disabledEndpoints.contains(endpoint)) {
+            bypassed.incrementAndGet();
+            return new Lookup(null, null, null, true);
+        }
+        String key = IntentCache.normalize(prompt);
+        Entry exact = find(key);
+        if (exact != null) {
+            exactHits.incrementAndGet();
+            savedMillis.addAndGet(exact.generationMillis);
+            return new Lookup(key, null, exact.response, false);
+        }
+
+        float[] embedding = embed(prompt);
+        Entry similar = embedding != null ? findSimilar(embedding) : null;
+        if (similar != null) {
+            semanticHits.incrementAndGet();
+            savedMillis.addAndGet(similar.generationMillis);
+            return new Lookup(key, embedding, similar.response, false);
+        }
+        misses.incrementAndGet();
+        return new Lookup(key, embedding, null, false);
+    }
+
+    /**
+     * 缓存新生成的回复，空回复不缓存
+     */
+    public void store(Lookup lookup, String response, long generationMillis) {
+        if (lookup.bypass || lookup.isHit() || response == null || response.isBlank()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(lookup.key, new Entry(response, lookup.embedding, System.currentTimeMillis(), generationMillis));
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long exact = exactHits.get();
+        long semantic = semanticHits.get();
+        long total = exact + semantic + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("semantic", embeddingModel != null);
+        stats.put("exactHits", exact);
+        stats.put("semanticHits", semantic);
+        stats.put("misses", misses.get());
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) (exact + semantic) / total);
+        stats.put("bypassed", bypassed.get());
+        stats.put("savedMillis", savedMillis.get());
+        stats.put("evictions", evictions.get());
+        stats.put("embeddingFailures", embeddingFailures.get());
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxEntries);
+        stats.put("ttlSeconds", ttlMillis / 1000);
+        stats.put("similarityThreshold", similarityThreshold);
+        stats.put("disabledEndpoints", disabledEndpoints);
+        return stats;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private Entry find(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && isExpired(entry)) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    // 线性扫描向量索引，过期条目顺便清理
+    private Entry findSimilar(float[] embedding) {
+        Entry best = null;
+        double bestScore = similarityThreshold;
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (isExpired(entry)) {
+                    iterator.remove();
+                    evictions.incrementAndGet();
+                    continue;
+                }
+                if (entry.embedding == null || entry.embedding.length != embedding.length) {
+                    continue;
+                }
+                double score = dot(entry.embedding, embedding);
+                if (score >= bestScore) {
+                    best = entry;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.storedAt > ttlMillis;
+    }
+
+    // 向量在缓存前归一化，余弦相似度即点积
+    private float[] embed(String prompt) {
+        if (embeddingModel == null) {
+            return null;
+        }
+        try {
+            float[] vector = embeddingModel.embed(prompt);
+            double norm = Math.sqrt(dot(vector, vector));
+            if (norm == 0) {
+                return null;
+            }
+            float[] normalized = new float[vector.length];
+            for (int i = 0; i < vector.length; i++) {
+                normalized[i] = (float) (vector[i] / norm);
+            }
+            return normalized;
+        } catch (RuntimeException e) {
+            // 向量模型不可用时退化为精确匹配
+            embeddingFailures.incrementAndGet();
+            return null;
+        }
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    // 一次查找的结果
+    public static class Lookup {
+        private final String key;
+        private final float[] embedding;
+        private final String response;
+        private final boolean bypass;
+
+        Lookup(String key, float[] embedding, String response, boolean bypass) {
+            this.key = key;
+            this.embedding = embedding;
+            this.response = response;
+            this.bypass = bypass;
+        }
+
+        public boolean isHit() { return response != null; }
+        public String getResponse() { return response; }
+    }
+
+    private static class Entry {
+        private final String response;
+        private final float[] embedding;
+        private final long storedAt;
+        private final long generationMillis;
+
+        Entry(String response, float[] embedding, long storedAt, long generationMillis) {
+            this.response = response;
+            this.embedding = embedding;
+            this.storedAt = storedAt;
+            this.generationMillis = generationMillis;
+        }
+    }
+}
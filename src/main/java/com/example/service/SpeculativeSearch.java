@@ -0,0 +1,218 @@
+package com.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 推测执行文件搜索
+ *
+ * LLM识别意图期间，按规则预判的意图提前在后台执行文件搜索。识别结果与预判一致
+ * （意图、关键词、目录都相同）时直接采用已完成或进行中的搜索结果，否则取消。
+ * 统计命中率、节省的时间和被浪费的搜索时间，用于调整是否启用。
+ */
+@Component
+public class SpeculativeSearch {
+
+    private final FileSearchService fileSearchService;
+    private final boolean enabled;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong started = new AtomicLong(0);
+    private final AtomicLong committed = new AtomicLong(0);
+    private final AtomicLong cancelled = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong savedMillis = new AtomicLong(0);
+    private final AtomicLong wastedMillis = new AtomicLong(0);
+
+    public SpeculativeSearch(FileSearchService fileSearchService,
+                             @Value("${agent.speculation.enabled:true}") boolean enabled,
+                             @Value("${agent.speculation.threads:2}") int threads) {
+        this.fileSearchService = fileSearchService;
+        this.enabled = enabled;
+        int poolSize = Math.max(1, threads);
+        AtomicInteger counter = new AtomicInteger();
+        // 队列有界：搜索压力大时放弃推测，而不是排队占用资源
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(poolSize * 4), runnable -> {
+                    Thread thread = new Thread(runnable, "speculative-search-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * 按预判的意图开始推测搜索，调用方处理完请求后必须关闭返回的Speculation
+     */
+    public Speculation start(AgentService.Intent predicted) {
+        Speculation speculation = new Speculation();
+        String query = predicted.getParameters().get("query");
+        if (!enabled || query == null || query.isBlank()) {
+            return speculation;
+        }
+        // 与 AgentService 中各处理方法的搜索范围保持一致
+        switch (predicted.getType()) {
+            case FILE_SEARCH:
+                String basePath = predicted.getParameters().getOrDefault("basePath", ".");
+                speculation.submit(Kind.FILES, query, basePath, () -> fileSearchService.searchFiles(query, basePath));
+                speculation.submit(Kind.CONTENT, query, basePath, () -> fileSearchService.searchFileContent(query, basePath));
+                break;
+            case FILE_DOWNLOAD:
+                speculation.submit(Kind.FILES, query, ".", () -> fileSearchService.searchFiles(query, "."));
+                break;
+            default:
+                break;
+        }
+        return speculation;
+    }
+
+    /**
+     * 不做推测的Speculation（意图已在本地确定时使用）
+     */
+    public Speculation none() {
+        return new Speculation();
+    }
+
+    /**
+     * 获取推测执行统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hit = committed.get();
+        long miss = cancelled.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("started", started.get());
+        stats.put("committed", hit);
+        stats.put("cancelled", miss);
+        stats.put("rejected", rejected.get());
+        stats.put("hitRatio", hit + miss == 0 ? 0.0 : (double) hit / (hit + miss));
+        stats.put("savedMillis", savedMillis.get());
+        stats.put("wastedMillis", wastedMillis.get());
+        stats.put("active", executor.getActiveCount());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private enum Kind { FILES, CONTENT }
+
+    /**
+     * 一次请求内的推测搜索，非线程安全：同一时刻只能有一个线程使用（异步处理时依次交给后续阶段）
+     */
+    public class Speculation implements AutoCloseable {
+        private final List<Task<?>> tasks = new ArrayList<>();
+
+        /**
+         * 搜索文件：推测结果可用时直接采用，否则立即执行
+         */
+        public List<FileSearchService.FileInfo> searchFiles(String query, String basePath) {
+            List<FileSearchService.FileInfo> result = take(Kind.FILES, query, basePath);
+            return result != null ? result : fileSearchService.searchFiles(query, basePath);
+        }
+
+        /**
+         * 搜索文件内容：推测结果可用时直接采用，否则立即执行
+         */
+        public List<FileSearchService.FileContentMatch> searchFileContent(String query, String basePath) {
+            List<FileSearchService.FileContentMatch> result = take(Kind.CONTENT, query, basePath);
+            return result != null ? result : fileSearchService.searchFileContent(query, basePath);
+        }
+
+        /**
+         * 取消未被采用的推测搜索
+         */
+        @Override
+        public void close() {
+            for (Task<?> task : tasks) {
+                task.future.cancel(true);
+                cancelled.incrementAndGet();
+                wastedMillis.addAndGet(task.elapsedMillis());
+            }
+            tasks.clear();
+        }
+
+        private <T> void submit(Kind kind, String query, String basePath, Callable<T> search) {
+            Task<T> task = new Task<>(kind, query, basePath);
+            try {
+                task.future = executor.submit(() -> {
+                    task.startedAt = System.nanoTime();
+                    try {
+                        return search.call();
+                    } finally {
+                        task.finishedAt = System.nanoTime();
+                    }
+                });
+                tasks.add(task);
+                started.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T take(Kind kind, String query, String basePath) {
+            for (Task<?> task : tasks) {
+                if (task.kind == kind && task.query.equals(query) && task.basePath.equals(basePath)) {
+                    tasks.remove(task);
+                    long elapsed = task.elapsedMillis();
+                    try {
+                        T result = (T) task.future.get();
+                        committed.incrementAndGet();
+                        savedMillis.addAndGet(elapsed);
+                        return result;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException | RuntimeException e) {
+                        // 推测搜索失败时按普通方式重新执行
+                    }
+                    cancelled.incrementAndGet();
+                    wastedMillis.addAndGet(task.elapsedMillis());
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    // 一个推测搜索任务；startedAt/finishedAt为0表示尚未开始/结束
+    private static class Task<T> {
+        private final Kind kind;
+        private final String query;
+        private final String basePath;
+        private volatile Future<T> future;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+
+        Task(Kind kind, String query, String basePath) {
+            this.kind = kind;
+            this.query = query;
+            this.basePath = basePath;
+        }
+
+        long elapsedMillis() {
+            long start = startedAt;
+            if (start == 0) {
+                return 0;
+            }
+            long end = finishedAt;
+            return TimeUnit.NANOSECONDS.toMillis((end == 0 ? System.nanoTime() : end) - start);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 流式意图解析器
+ *
+ * 逐段接收LLM输出，跳过 &lt;think&gt; 推理块和代码围栏，用增量JSON状态机解析
+ * {"intent": ..., "parameters": {...}}。intent字段完整、且该意图声明的参数都已读到（或parameters对象已结束）时
+ * 就返回结果，调用方可以立即分发并取消剩余的生成；不依赖模型按schema中的顺序输出参数。
+ */
+class StreamingIntentParser {
+
+    private static final String THINK_START = "<think>";
+    private static final String THINK_END = "</think>";
+    private static final String PARAMETERS = "parameters";
+
+    // 各意图使用的参数；全部读到后即可分发，不必等parameters对象结束
+    private static final Map<AgentService.IntentType, List<String>> INTENT_PARAMETERS = intentParameters();
+
+    /**
+     * 约束LLM输出的JSON Schema（Ollama structured outputs），parameters包含各意图的全部参数
+     */
+    static final Map<String, Object> SCHEMA = schema();
+
+    private final StringBuilder raw = new StringBuilder();
+    private int pos;
+    private boolean started;
+    private boolean finished;
+
+    // 当前所在的JSON对象/数组
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private StringBuilder string;
+    private boolean escape;
+    private int unicodeRemaining;
+    private StringBuilder unicode;
+    private boolean inScalar;
+
+    private String intent;
+    private final Map<String, String> parameters = new HashMap<>();
+    // 已读完值（包括null和空串）的参数名
+    private final Set<String> seenParameters = new HashSet<>();
+    private boolean parametersClosed;
+
+    /**
+     * 从流式输出中解析意图：得到结果后取消上游生成；输出结束仍不完整时按已解析内容返回，
+     * 没有intent字段时为空
+     */
+    static Mono<AgentService.Intent> parse(Flux<String> chunks) {
+        StreamingIntentParser parser = new StreamingIntentParser();
+        return chunks.mapNotNull(parser::feed)
+                .next()
+                .switchIfEmpty(Mono.fromSupplier(parser::finish));
+    }
+
+    /**
+     * 追加一段输出，意图已可分发时返回结果，否则返回null
+     */
+    AgentService.Intent feed(String chunk) {
+        if (chunk == null || finished) {
+            return null;
+        }
+        raw.append(chunk);
+        if (!started && !seekJsonStart()) {
+            return null;
+        }
+        while (pos < raw.length() && !finished) {
+            char c = raw.charAt(pos++);
+            if (consume(c) && isReady()) {
+                finished = true;
+                return toIntent();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 输出结束：返回已解析的意图（参数可能不完整），没有intent字段时返回null
+     */
+    AgentService.Intent finish() {
+        finished = true;
+        return intent != null ? toIntent() : null;
+    }
+
+    // 跳过JSON之前的推理块和其他文本，定位到第一个 '{'
+    private boolean seekJsonStart() {
+        while (true) {
+            int think = raw.indexOf(THINK_START, pos);
+            int brace = raw.indexOf("{", pos);
+            if (think >= 0 && (brace < 0 || think < brace)) {
+                int end = raw.indexOf(THINK_END, think);
+                if (end < 0) {
+                    return false;
+                }
+                pos = end + THINK_END.length();
+            } else if (brace >= 0) {
+                pos = brace;
+                started = true;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 处理一个字符，完成了一个字符串值或对象时返回true（需要检查是否可分发）
+     */
+    private boolean consume(char c) {
+        if (string != null) {
+            return consumeStringChar(c);
+        }
+        if (inScalar) {
+            // 数字、true/false/null 不是关心的值，读到分隔符为止
+            if (c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                return false;
+            }
+            inScalar = false;
+            afterValue();
+        }
+        Frame frame = stack.peek();
+        switch (c) {
+            case '{':
+            case '[':
+                stack.push(new Frame(c == '[', frame == null ? null : frame.key, stack.size() + 1));
+                return false;
+            case '}':
+            case ']':
+                if (frame == null) {
+                    return false;
+                }
+                Frame closed = stack.pop();
+                if (!closed.array && closed.depth == 2 && PARAMETERS.equals(closed.name)) {
+                    parametersClosed = true;
+                }
+                if (stack.isEmpty()) {
+                    finished = true;
+                }
+                afterValue();
+                return true;
+            case '"':
+                string = new StringBuilder();
+                return false;
+            case ',':
+                if (frame != null && !frame.array) {
+                    frame.expectKey = true;
+                    frame.key = null;
+                }
+                return false;
+            case ':':
+                return false;
+            default:
+                if (!Character.isWhitespace(c)) {
+                    inScalar = true;
+                }
+                return false;
+        }
+    }
+
+    private boolean consumeStringChar(char c) {
+        if (unicodeRemaining > 0) {
+            unicode.append(c);
+            if (--unicodeRemaining == 0) {
+                try {
+                    string.append((char) Integer.parseInt(unicode.toString(), 16));
+                } catch (NumberFormatException e) {
+                    // 非法转义按原样丢弃
+                }
+            }
+            return false;
+        }
+        if (escape) {
+            escape = false;
+            switch (c) {
+                case 'n': string.append('\n'); break;
+                case 't': string.append('\t'); break;
+                case 'r': string.append('\r'); break;
+                case 'b': string.append('\b'); break;
+                case 'f': string.append('\f'); break;
+                case 'u':
+                    unicode = new StringBuilder(4);
+                    unicodeRemaining = 4;
+                    break;
+                default: string.append(c);
+            }
+            return false;
+        }
+        if (c == '\\') {
+            escape = true;
+            return false;
+        }
+        if (c != '"') {
+            string.append(c);
+            return false;
+        }
+
+        String value = string.toString();
+        string = null;
+        Frame frame = stack.peek();
+        if (frame == null) {
+            return false;
+        }
+        if (!frame.array && frame.expectKey) {
+            frame.key = value;
+            frame.expectKey = false;
+            return false;
+        }
+        onStringValue(frame, value);
+        afterValue();
+        return true;
+    }
+
+    private void onStringValue(Frame frame, String value) {
+        if (frame.array) {
+            return;
+        }
+        if (frame.depth == 1 && "intent".equals(frame.key)) {
+            intent = value.trim();
+        } else if (frame.depth == 2 && PARAMETERS.equals(frame.name) && !value.isBlank()) {
+            parameters.put(frame.key, value);
+        }
+    }
+
+    private void afterValue() {
+        Frame frame = stack.peek();
+        if (frame != null && !frame.array) {
+            if (frame.depth == 2 && PARAMETERS.equals(frame.name) && frame.key != null) {
+                seenParameters.add(frame.key);
+            }
+            frame.key = null;
+        }
+    }
+
+    // intent完整，且该意图的参数都已读到或parameters对象已结束
+    private boolean isReady() {
+        if (intent == null) {
+            return false;
+        }
+        if (finished || parametersClosed) {
+            return true;
+        }
+        AgentService.IntentType type = typeOf(intent);
+        return type == null || seenParameters.containsAll(INTENT_PARAMETERS.getOrDefault(type, List.of()));
+    }
+
+    private AgentService.Intent toIntent() {
+        AgentService.IntentType type = typeOf(intent);
+        if (type == null) {
+            return new AgentService.Intent(AgentService.IntentType.GENERAL_CHAT, Map.of());
+        }
+        return new AgentService.Intent(type, Map.copyOf(parameters));
+    }
+
+    private static AgentService.IntentType typeOf(String value) {
+        try {
+            return AgentService.IntentType.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Map<AgentService.IntentType, List<String>> intentParameters() {
+        Map<AgentService.IntentType, List<String>> parameters = new EnumMap<>(AgentService.IntentType.class);
+        parameters.put(AgentService.IntentType.FILE_SEARCH, List.of("query", "basePath"));
+        parameters.put(AgentService.IntentType.FILE_DOWNLOAD, List.of("targetDirectory", "url", "filePath", "query"));
+        parameters.put(AgentService.IntentType.FILE_READ, List.of("filePath", "mode"));
+        return parameters;
+    }
+
+    // 属性顺序即期望的输出顺序，使用LinkedHashMap保持
+    private static Map<String, Object> schema() {
+        Set<String> names = new LinkedHashSet<>();
+        INTENT_PARAMETERS.values().forEach(names::addAll);
+        Map<String, Object> parameterProperties = new LinkedHashMap<>();
+        for (String name : names) {
+            parameterProperties.put(name, Map.of("type", "string"));
+        }
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("intent", Map.of("type", "string", "enum", List.of(
+                "FILE_SEARCH", "FILE_DOWNLOAD", "FILE_READ", "SYSTEM_INFO", "GENERAL_CHAT")));
+        properties.put(PARAMETERS, Map.of("type", "object", "properties", parameterProperties));
+        Map<String, Object> schema = new LinkedHashMap<>();
+        schema.put("type", "object");
+        schema.put("properties", properties);
+        schema.put("required", List.of("intent", PARAMETERS));
+        return schema;
+    }
+
+    // JSON嵌套层级：name为该对象在父对象中的键
+    private static class Frame {
+        private final boolean array;
+        private final String name;
+        private final int depth;
+        private boolean expectKey;
+        private String key;
+
+        Frame(boolean array, String name, int depth) {
+            this.array = array;
+            this.name = name;
+            this.depth = depth;
+            this.expectKey = !array;
+        }
+    }
+}
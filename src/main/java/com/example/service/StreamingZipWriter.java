@@ -0,0 +1,302 @@
+package com.example.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 流式ZIP写出器
+ *
+ * 与 ZipOutputStream 不同，可以直接写入在其他线程中预先压缩好的条目数据，
+ * 也可以边读边压缩大文件（使用数据描述符）。超过4GB的条目和归档自动使用ZIP64格式。
+ * 只在内存中保留中央目录所需的少量元数据。
+ */
+class StreamingZipWriter {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    // 超过该大小的流式压缩条目按ZIP64处理（为不可压缩数据的膨胀预留余量）
+    private static final long ZIP64_STREAMING_THRESHOLD = 0xFFFF0000L;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CountingOutputStream out;
+    private final List<CentralEntry> centralDirectory = new ArrayList<>();
+
+    StreamingZipWriter(OutputStream out) {
+        this.out = new CountingOutputStream(out);
+    }
+
+    /**
+     * 写入已知CRC和大小的条目（数据已在内存中，可能已压缩）
+     */
+    void writePrepared(String name, long lastModified, int method, long crc, long compressedSize,
+                       long uncompressedSize, byte[] data) throws IOException {
+        CentralEntry entry = new CentralEntry(name, lastModified, method, 0, out.count);
+        entry.crc = crc;
+        entry.compressedSize = compressedSize;
+        entry.uncompressedSize = uncompressedSize;
+        writeLocalHeader(entry, false);
+        out.write(data, 0, (int) compressedSize);
+        centralDirectory.add(entry);
+    }
+
+    /**
+     * 写入不压缩的大文件，CRC需预先计算，数据直接从输入流复制
+     */
+    void writeStored(String name, long lastModified, long crc, long size, InputStream data) throws IOException {
+        CentralEntry entry = new CentralEntry(name, lastModified, STORED, 0, out.count);
+        entry.crc = crc;
+        entry.compressedSize = size;
+        entry.uncompressedSize = size;
+        writeLocalHeader(entry, size >= ZIP64_MAGIC);
+        long copied = data.transferTo(out);
+        if (copied != size) {
+            throw new IOException("文件在打包过程中被修改: " + name);
+        }
+        centralDirectory.add(entry);
+    }
+
+    /**
+     * 边读边压缩写入大文件，CRC和压缩后大小写在数据描述符中
+     */
+    void writeDeflatedStreaming(String name, long lastModified, long expectedSize, int level,
+                                InputStream data) throws IOException {
+        CentralEntry entry = new CentralEntry(name, lastModified, DEFLATED, FLAG_DATA_DESCRIPTOR, out.count);
+        boolean zip64 = expectedSize >= ZIP64_STREAMING_THRESHOLD;
+        writeLocalHeader(entry, zip64);
+
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        long start = out.count;
+        long uncompressed = 0;
+        try {
+            DeflaterOutputStream deflating = new DeflaterOutputStream(new NonClosingOutputStream(out), deflater, BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                deflating.write(buffer, 0, read);
+                uncompressed += read;
+            }
+            deflating.finish();
+        } finally {
+            deflater.end();
+        }
+        entry.crc = crc.getValue();
+        entry.compressedSize = out.count - start;
+        entry.uncompressedSize = uncompressed;
+
+        writeInt(0x08074b50L);
+        writeInt(entry.crc);
+        if (zip64) {
+            writeLong(entry.compressedSize);
+            writeLong(entry.uncompressedSize);
+        } else {
+            writeInt(entry.compressedSize);
+            writeInt(entry.uncompressedSize);
+        }
+        centralDirectory.add(entry);
+    }
+
+    /**
+     * 写出中央目录和结束记录
+     */
+    void finish() throws IOException {
+        long centralStart = out.count;
+        for (CentralEntry entry : centralDirectory) {
+            writeCentralHeader(entry);
+        }
+        long centralSize = out.count - centralStart;
+        int count = centralDirectory.size();
+        boolean zip64 = count >= 0xFFFF || centralStart >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+
+        if (zip64) {
+            long zip64EndStart = out.count;
+            writeInt(0x06064b50L);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralSize);
+            writeLong(centralStart);
+
+            writeInt(0x07064b50L);
+            writeInt(0);
+            writeLong(zip64EndStart);
+            writeInt(1);
+        }
+
+        writeInt(0x06054b50L);
+        writeShort(0);
+        writeShort(0);
+        writeShort(zip64 ? 0xFFFF : count);
+        writeShort(zip64 ? 0xFFFF : count);
+        writeInt(zip64 ? ZIP64_MAGIC : centralSize);
+        writeInt(zip64 ? ZIP64_MAGIC : centralStart);
+        writeShort(0);
+        out.flush();
+    }
+
+    private void writeLocalHeader(CentralEntry entry, boolean zip64) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+        writeInt(0x04034b50L);
+        writeShort(zip64 ? 45 : 20);
+        writeShort(entry.flags | FLAG_UTF8);
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(descriptor ? 0 : entry.crc);
+        if (zip64) {
+            writeInt(ZIP64_MAGIC);
+            writeInt(ZIP64_MAGIC);
+        } else {
+            writeInt(descriptor ? 0 : entry.compressedSize);
+            writeInt(descriptor ? 0 : entry.uncompressedSize);
+        }
+        writeShort(name.length);
+        writeShort(zip64 ? 20 : 0);
+        out.write(name);
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(descriptor ? 0 : entry.uncompressedSize);
+            writeLong(descriptor ? 0 : entry.compressedSize);
+        }
+    }
+
+    private void writeCentralHeader(CentralEntry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        boolean zip64Uncompressed = entry.uncompressedSize >= ZIP64_MAGIC;
+        boolean zip64Compressed = entry.compressedSize >= ZIP64_MAGIC;
+        boolean zip64Offset = entry.localHeaderOffset >= ZIP64_MAGIC;
+        int extraLength = (zip64Uncompressed ? 8 : 0) + (zip64Compressed ? 8 : 0) + (zip64Offset ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+
+        writeInt(0x02014b50L);
+        writeShort(zip64 ? 45 : 20);
+        writeShort(zip64 ? 45 : 20);
+        writeShort(entry.flags | FLAG_UTF8);
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(entry.crc);
+        writeInt(zip64Compressed ? ZIP64_MAGIC : entry.compressedSize);
+        writeInt(zip64Uncompressed ? ZIP64_MAGIC : entry.uncompressedSize);
+        writeShort(name.length);
+        writeShort(zip64 ? extraLength + 4 : 0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(0);
+        writeInt(zip64Offset ? ZIP64_MAGIC : entry.localHeaderOffset);
+        out.write(name);
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(extraLength);
+            if (zip64Uncompressed) writeLong(entry.uncompressedSize);
+            if (zip64Compressed) writeLong(entry.compressedSize);
+            if (zip64Offset) writeLong(entry.localHeaderOffset);
+        }
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xFFFF));
+        writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value & 0xFFFFFFFFL);
+        writeInt(value >>> 32);
+    }
+
+    private static long toDosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (time.getYear() - 1980) << 25)
+                | ((long) time.getMonthValue() << 21)
+                | ((long) time.getDayOfMonth() << 16)
+                | ((long) time.getHour() << 11)
+                | ((long) time.getMinute() << 5)
+                | (time.getSecond() >> 1);
+    }
+
+    // 中央目录条目
+    private static class CentralEntry {
+        final String name;
+        final long dosTime;
+        final int method;
+        final int flags;
+        final long localHeaderOffset;
+        long crc;
+        long compressedSize;
+        long uncompressedSize;
+
+        CentralEntry(String name, long lastModified, int method, int flags, long localHeaderOffset) {
+            this.name = name;
+            this.dosTime = toDosTime(lastModified);
+            this.method = method;
+            this.flags = flags;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    // 记录已写出字节数，用于计算条目偏移
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    // 压缩流结束时不关闭底层响应流
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
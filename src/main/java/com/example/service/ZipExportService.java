@@ -0,0 +1,266 @@
+package com.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 多文件ZIP流式导出
+ *
+ * 小文件在线程池中并行压缩（同时在途的条目数有上限），大文件在写出线程中边读边压缩；
+ * 已压缩格式只存储不压缩。不产生临时文件，内存占用只与并行度和小文件阈值有关。
+ */
+@Service
+public class ZipExportService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> STORE_ONLY_EXTENSIONS = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "jar", "war",
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "mov", "avi",
+            "docx", "xlsx", "pptx", "woff", "woff2", "pdf"
+    );
+
+    private final FileSearchService fileSearchService;
+    private final ExecutorService compressionExecutor;
+    private final int maxInFlight;
+    private final long inMemoryThreshold;
+    private final int compressionLevel;
+
+    public ZipExportService(FileSearchService fileSearchService,
+                            @Value("${agent.download.zip.parallelism:0}") int parallelism,
+                            @Value("${agent.download.zip.in-memory-threshold:4194304}") long inMemoryThreshold,
+                            @Value("${agent.download.zip.level:6}") int compressionLevel) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.fileSearchService = fileSearchService;
+        this.compressionExecutor = Executors.newFixedThreadPool(threads);
+        this.maxInFlight = threads * 2;
+        this.inMemoryThreshold = inMemoryThreshold;
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * 展开路径列表（目录递归包含其中的文件）
+     */
+    public List<Path> resolvePaths(List<String> paths) {
+        Set<Path> files = new LinkedHashSet<>();
+        for (String p : paths) {
+            Path path = Paths.get(p);
+            if (Files.isRegularFile(path)) {
+                files.add(path);
+            } else if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.filter(Files::isRegularFile).forEach(files::add);
+                } catch (IOException e) {
+                    // 无法遍历的目录跳过
+                }
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * 按文件名搜索结果打包
+     */
+    public List<Path> resolveSearch(String query, String basePath) {
+        return fileSearchService.searchFiles(query, basePath).stream()
+                .map(file -> Paths.get(file.getPath()))
+                .toList();
+    }
+
+    /**
+     * 将文件打包为ZIP写入输出流
+     */
+    public void export(List<Path> files, OutputStream outputStream) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        StreamingZipWriter writer = new StreamingZipWriter(buffered);
+        Set<String> usedNames = new HashSet<>();
+        Deque<Future<PreparedEntry>> window = new ArrayDeque<>();
+
+        try {
+            for (Path file : files) {
+                String name = uniqueName(entryName(file), usedNames);
+                window.add(compressionExecutor.submit(() -> prepare(file, name)));
+                if (window.size() >= maxInFlight) {
+                    write(writer, window.poll());
+                }
+            }
+            while (!window.isEmpty()) {
+                write(writer, window.poll());
+            }
+            writer.finish();
+            buffered.flush();
+        } finally {
+            window.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private PreparedEntry prepare(Path file, String name) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        boolean storeOnly = isStoreOnly(file);
+
+        if (size > inMemoryThreshold) {
+            // 大文件：不压缩的只预先计算CRC，需要压缩的在写出时流式处理
+            long crc = storeOnly ? crc(file) : 0;
+            return new PreparedEntry(file, name, lastModified, size, storeOnly, crc, null, 0, 0);
+        }
+
+        byte[] content = Files.readAllBytes(file);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (!storeOnly) {
+            byte[] compressed = deflate(content);
+            if (compressed != null) {
+                return new PreparedEntry(file, name, lastModified, content.length, false, crc.getValue(),
+                        compressed, compressed.length, StreamingZipWriter.DEFLATED);
+            }
+        }
+        return new PreparedEntry(file, name, lastModified, content.length, true, crc.getValue(),
+                content, content.length, StreamingZipWriter.STORED);
+    }
+
+    private void write(StreamingZipWriter writer, Future<PreparedEntry> future) throws IOException {
+        PreparedEntry entry;
+        try {
+            entry = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("打包被中断", e);
+        } catch (ExecutionException e) {
+            // 读取失败时中止导出：ZIP缺少中央目录，客户端能发现下载不完整，而不是静默少一个文件
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException io ? io : new IOException("打包文件失败", cause);
+        }
+
+        if (entry.data != null) {
+            writer.writePrepared(entry.name, entry.lastModified, entry.method, entry.crc,
+                    entry.dataLength, entry.size, entry.data);
+            return;
+        }
+        try (InputStream in = Files.newInputStream(entry.file)) {
+            if (entry.storeOnly) {
+                writer.writeStored(entry.name, entry.lastModified, entry.crc, entry.size, in);
+            } else {
+                writer.writeDeflatedStreaming(entry.name, entry.lastModified, entry.size, compressionLevel, in);
+            }
+        }
+    }
+
+    // 压缩后不比原始数据小时返回null，改为直接存储
+    private byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] buffer = new byte[content.length];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    return null;
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return length < content.length ? Arrays.copyOf(buffer, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 已压缩格式只存储
+     */
+    boolean isStoreOnly(Path file) {
+        String fileName = file.getFileName().toString().toLowerCase();
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && STORE_ONLY_EXTENSIONS.contains(fileName.substring(dot + 1));
+    }
+
+    private String entryName(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        Path workingDir = Paths.get("").toAbsolutePath().normalize();
+        Path relative = absolute.startsWith(workingDir) ? workingDir.relativize(absolute)
+                : absolute.getRoot() != null ? absolute.getRoot().relativize(absolute) : absolute;
+        return relative.toString().replace('\\', '/');
+    }
+
+    private String uniqueName(String name, Set<String> usedNames) {
+        String candidate = name;
+        int counter = 1;
+        while (!usedNames.add(candidate)) {
+            int dot = name.lastIndexOf('.');
+            candidate = dot > 0
+                    ? name.substring(0, dot) + " (" + counter + ")" + name.substring(dot)
+                    : name + " (" + counter + ")";
+            counter++;
+        }
+        return candidate;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        compressionExecutor.shutdownNow();
+    }
+
+    // 预处理后的条目
+    private static class PreparedEntry {
+        final Path file;
+        final String name;
+        final long lastModified;
+        final long size;
+        final boolean storeOnly;
+        final long crc;
+        final byte[] data;
+        final long dataLength;
+        final int method;
+
+        PreparedEntry(Path file, String name, long lastModified, long size, boolean storeOnly, long crc,
+                      byte[] data, long dataLength, int method) {
+            this.file = file;
+            this.name = name;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.storeOnly = storeOnly;
+            this.crc = crc;
+            this.data = data;
+            this.dataLength = dataLength;
+            this.method = method;
+        }
+    }
+}
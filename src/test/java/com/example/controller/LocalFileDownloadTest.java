@@ -0,0 +1,228 @@
+package com.example.controller;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class LocalFileDownloadTest {
+
+    @TempDir
+    static Path tempDir;
+
+    static Path smallFile;
+    static Path largeFile;
+    static byte[] smallContent;
+
+    @LocalServerPort
+    int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createFiles() throws Exception {
+        smallContent = new byte[1000];
+        new Random(42).nextBytes(smallContent);
+        smallFile = Files.write(tempDir.resolve("small.bin"), smallContent);
+
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(7).nextBytes(chunk);
+        largeFile = tempDir.resolve("large.bin");
+        for (int i = 0; i < 64; i++) {
+            Files.write(largeFile, chunk, i == 0 ? new java.nio.file.OpenOption[0]
+                    : new java.nio.file.OpenOption[]{java.nio.file.StandardOpenOption.APPEND});
+        }
+    }
+
+    @Test
+    void testFullResponseCarriesValidators() throws Exception {
+        HttpResponse<byte[]> response = get("/api/agent/download/local", smallFile, null, null);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("bytes", response.headers().firstValue("Accept-Ranges").orElse(null));
+        assertTrue(response.headers().firstValue("ETag").isPresent());
+        assertTrue(response.headers().firstValue("Last-Modified").isPresent());
+        assertArrayEquals(smallContent, response.body());
+    }
+
+    @Test
+    void testIfNoneMatchReturnsNotModified() throws Exception {
+        String etag = get("/api/agent/download/local", smallFile, null, null).headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<byte[]> response = get("/api/agent/download/local", smallFile, "If-None-Match", etag);
+
+        assertEquals(304, response.statusCode());
+        assertEquals(0, response.body().length);
+    }
+
+    @Test
+    void testSingleRange() throws Exception {
+        HttpResponse<byte[]> response = get("/api/agent/download/local", smallFile, "Range", "bytes=10-19");
+
+        assertEquals(206, response.statusCode());
+        assertEquals("bytes 10-19/1000", response.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(smallContent, 10, 20), response.body());
+    }
+
+    @Test
+    void testSingleRangeOnLargeFileUsesSendfilePath() throws Exception {
+        HttpResponse<byte[]> response = get("/api/agent/download/local", largeFile, "Range", "bytes=-100000");
+
+        assertEquals(206, response.statusCode());
+        assertEquals(100000, response.body().length);
+        byte[] expected = Arrays.copyOfRange(Files.readAllBytes(largeFile), 64 * 1024 * 1024 - 100000, 64 * 1024 * 1024);
+        assertArrayEquals(expected, response.body());
+    }
+
+    @Test
+    void testMultipleRanges() throws Exception {
+        HttpResponse<byte[]> response = get("/api/agent/download/local", smallFile, "Range", "bytes=0-4,100-104");
+
+        assertEquals(206, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("multipart/byteranges"));
+        String body = new String(response.body(), StandardCharsets.ISO_8859_1);
+        assertTrue(body.contains("Content-Range: bytes 0-4/1000"));
+        assertTrue(body.contains("Content-Range: bytes 100-104/1000"));
+    }
+
+    @Test
+    void testUnsatisfiableRange() throws Exception {
+        HttpResponse<byte[]> response = get("/api/agent/download/local", smallFile, "Range", "bytes=5000-6000");
+
+        assertEquals(416, response.statusCode());
+        assertEquals("bytes */1000", response.headers().firstValue("Content-Range").orElse(null));
+    }
+
+    @Test
+    void testOverlappingRangesLargerThanFileAreRejected() throws Exception {
+        HttpResponse<byte[]> response = get("/api/agent/download/local", smallFile, "Range", "bytes=0-,0-,0-");
+
+        assertEquals(416, response.statusCode());
+        assertEquals("bytes */1000", response.headers().firstValue("Content-Range").orElse(null));
+    }
+
+    @Test
+    void testStaleIfRangeReturnsFullContent() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri("/api/agent/download/local", smallFile))
+                .header("Range", "bytes=10-19")
+                .header("If-Range", "\"stale\"")
+                .build();
+
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals(1000, response.body().length);
+    }
+
+    @Test
+    void testZipFileNameIsEncodedInContentDisposition() throws Exception {
+        String json = "{\"paths\": [\"" + smallFile.toString().replace("\\", "\\\\")
+                + "\"], \"filename\": \"../报告\\\"; a=b.zip\"}";
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/agent/download/zip"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        String disposition = response.headers().firstValue("Content-Disposition").orElse("");
+        assertTrue(disposition.startsWith("attachment;"), disposition);
+        assertTrue(disposition.chars().allMatch(c -> c < 128), disposition);
+        assertTrue(disposition.contains("%E6%8A%A5%E5%91%8A%22%3B%20a%3Db.zip"), disposition);
+        assertFalse(disposition.contains(".."), disposition);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkAgainstResourceResponse() throws Exception {
+        int rounds = 10;
+        // 预热
+        drain("/test/legacy-download", largeFile);
+        drain("/api/agent/download/local", largeFile);
+
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            drain("/test/legacy-download", largeFile);
+        }
+        double legacySeconds = (System.nanoTime() - legacyStart) / 1e9;
+
+        long newStart = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            drain("/api/agent/download/local", largeFile);
+        }
+        double newSeconds = (System.nanoTime() - newStart) / 1e9;
+
+        double megabytes = rounds * Files.size(largeFile) / (1024.0 * 1024.0);
+        // 留出抖动余量：新实现不应明显慢于直接返回UrlResource
+        assertTrue(newSeconds < legacySeconds * 1.5, String.format("本地文件下载吞吐：UrlResource %.0f MB/s，sendfile %.0f MB/s",
+                megabytes / legacySeconds, megabytes / newSeconds));
+    }
+
+    private void drain(String endpoint, Path file) throws Exception {
+        HttpResponse<InputStream> response = client.send(HttpRequest.newBuilder(uri(endpoint, file)).build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, response.statusCode());
+        try (InputStream in = response.body()) {
+            byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+            }
+            assertEquals(Files.size(file), total);
+        }
+    }
+
+    private HttpResponse<byte[]> get(String endpoint, Path file, String header, String value) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri(endpoint, file));
+        if (header != null) {
+            builder.header(header, value);
+        }
+        return client.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private URI uri(String endpoint, Path file) {
+        return URI.create("http://localhost:" + port + endpoint + "?filePath="
+                + URLEncoder.encode(file.toString(), StandardCharsets.UTF_8));
+    }
+
+    // 旧实现：返回UrlResource，仅设置Content-Disposition
+    @TestConfiguration
+    static class LegacyDownloadConfig {
+
+        @RestController
+        static class LegacyDownloadController {
+
+            @GetMapping("/test/legacy-download")
+            public ResponseEntity<Resource> download(@RequestParam String filePath) throws Exception {
+                return ResponseEntity.ok().body(new UrlResource(Paths.get(filePath).toUri()));
+            }
+        }
+    }
+}
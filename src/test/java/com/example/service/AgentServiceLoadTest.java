@@ -0,0 +1,105 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 异步处理链路的负载测试：模拟慢速LLM（意图识别200ms、回复300ms），
+ * 2000个并发会话只使用4个阻塞线程和Reactor的少量定时线程
+ */
+class AgentServiceLoadTest {
+
+    private static final int CONVERSATIONS = 2000;
+    private static final int IO_THREADS = 4;
+
+    @Test
+    void testThousandsOfConcurrentConversationsOnFewThreads() throws Exception {
+        ChatModel chatModel = mock(ChatModel.class);
+        when(chatModel.stream(any(Prompt.class))).thenAnswer(invocation -> {
+            Prompt prompt = invocation.getArgument(0);
+            boolean intentCall = prompt.getOptions() instanceof OllamaOptions options && options.getFormat() != null;
+            if (!intentCall) {
+                return tokens(Duration.ofMillis(100), "好的", "，", "没问题");
+            }
+            String json = prompt.getInstructions().get(prompt.getInstructions().size() - 1).getText().startsWith("搜索")
+                    ? "{\"intent\": \"FILE_SEARCH\", \"parameters\": {\"query\": \"pom.xml\"}}"
+                    : "{\"intent\": \"GENERAL_CHAT\", \"parameters\": {}}";
+            return tokens(Duration.ofMillis(200), json);
+        });
+        FileSearchService fileSearchService = mock(FileSearchService.class);
+        when(fileSearchService.searchFiles(anyString(), anyString())).thenReturn(List.of());
+        when(fileSearchService.searchFileContent(anyString(), anyString())).thenReturn(List.of());
+        BlockingTaskExecutor blockingExecutor = new BlockingTaskExecutor(IO_THREADS, CONVERSATIONS);
+
+        ModelProfiles profiles = new ModelProfiles(new MockEnvironment());
+        AgentService agentService = new AgentService(chatModel, fileSearchService, mock(FileDownloadService.class),
+                new ConversationStateStore(Duration.ofMinutes(10), CONVERSATIONS),
+                new IntentCache(CONVERSATIONS, Duration.ofHours(1), ""),
+                new IntentRouter(false, 0.7, ""),
+                new SpeculativeSearch(fileSearchService, false, 1),
+                blockingExecutor,
+                new ResponseCache(new StaticListableBeanFactory().getBeanProvider(EmbeddingModel.class),
+                        true, CONVERSATIONS, Duration.ofHours(1), 0.95, false, Set.of()),
+                profiles,
+                new ConversationHistory(Duration.ofMinutes(30), CONVERSATIONS, 200, 4000, ""),
+                new ConversationContext(chatModel, profiles, 2048, 256, 1000, 1),
+                new FileSummarizer(chatModel, profiles, 1500, 2, 8, 100, Duration.ofMinutes(1)));
+
+        // 预热（类加载、JIT），不计时
+        agentService.processRequestAsync("warmup", "搜索 warmup").get(10, TimeUnit.SECONDS);
+        agentService.processRequestAsync("warmup", "聊聊warmup").get(10, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<AgentService.AgentResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            String message = i % 2 == 0 ? "搜索 pom.xml 第" + i + "次" : "聊聊话题" + i;
+            responses.add(agentService.processRequestAsync("session-" + i, message));
+        }
+        long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long searches = responses.stream().filter(r -> "file_search".equals(r.join().getAction())).count();
+        long chats = responses.stream().filter(r -> "general_chat".equals(r.join().getAction())).count();
+        Map<String, Object> stats = blockingExecutor.getStats();
+
+        assertEquals(CONVERSATIONS / 2, searches);
+        assertEquals(CONVERSATIONS / 2, chats);
+        assertEquals("好的，没问题", responses.get(1).join().getMessage());
+        // 提交不等待LLM；若每个会话占用一个线程，4个线程需要约 2000 × 0.2~0.5s / 4 ≥ 100s
+        assertTrue(submitMillis < 10_000, "submit took " + submitMillis + " ms");
+        assertTrue(totalMillis < 15_000, "completed in " + totalMillis + " ms");
+        assertTrue((Integer) stats.get("largestPoolSize") <= IO_THREADS, "executor " + stats);
+        assertEquals(0L, stats.get("rejected"));
+        blockingExecutor.shutdown();
+    }
+
+    private static Flux<ChatResponse> tokens(Duration delay, String... texts) {
+        return Flux.fromArray(texts)
+                .delayElements(delay)
+                .map(text -> new ChatResponse(List.of(new Generation(new AssistantMessage(text)))));
+    }
+}
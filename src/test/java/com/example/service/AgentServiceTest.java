@@ -3,19 +3,34 @@ package com.example.service;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
-import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import reactor.core.publisher.Flux;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
-@SpringBootTest
+@SpringBootTest(properties = {"agent.intent-router.training-log=", "agent.intent-cache.file=",
+        "agent.response-cache.semantic=false", "agent.model-warmup.enabled=false"})
 class AgentServiceTest {
 
     @MockBean
@@ -27,6 +42,9 @@ class AgentServiceTest {
     @MockBean
     private FileDownloadService fileDownloadService;
 
+    @Autowired
+    private AgentService agentService;
+
     @Test
     void testDownloadIntentAnalysis() {
         // 模拟LLM返回下载意图
@@ -40,7 +58,7 @@ class AgentServiceTest {
             """;
         
         ChatResponse chatResponse = new ChatResponse(
-            List.of(new Generation(mockResponse))
+            List.of(new Generation(new AssistantMessage(mockResponse)))
         );
         
         when(chatModel.call(any(Prompt.class))).thenReturn(chatResponse);
@@ -62,7 +80,7 @@ class AgentServiceTest {
             """;
         
         ChatResponse chatResponse = new ChatResponse(
-            List.of(new Generation(mockResponse))
+            List.of(new Generation(new AssistantMessage(mockResponse)))
         );
         
         when(chatModel.call(any(Prompt.class))).thenReturn(chatResponse);
@@ -70,4 +88,121 @@ class AgentServiceTest {
         // 这里可以添加更多测试逻辑
         assertTrue(true, "Controller download test passed");
     }
-} 
\ No newline at end of file
+
+    @Test
+    void testStreamRequestEmitsSearchHitsBeforeResult() {
+        when(fileSearchService.searchFiles(eq("AgentService.java"), anyString())).thenReturn(List.of(
+                new FileSearchService.FileInfo("./src/AgentService.java", "AgentService.java", false, 100, 0L)));
+        when(fileSearchService.searchFileContent(anyString(), anyString())).thenReturn(List.of());
+        stubIntent("{\"intent\": \"FILE_SEARCH\", \"parameters\": {\"query\": \"AgentService.java\"}}", "");
+
+        List<AgentService.AgentEvent> events = agentService.streamRequest("s1", "搜索 AgentService.java").collectList().block();
+
+        assertEquals(List.of("intent", "progress", "hit", "progress", "result"),
+                events.stream().map(AgentService.AgentEvent::getType).collect(Collectors.toList()));
+        assertEquals("file_search", ((AgentService.AgentResponse) events.get(4).getData()).getAction());
+    }
+
+    @Test
+    void testStreamRequestStreamsChatTokens() {
+        stubIntent("{\"intent\": \"GENERAL_CHAT\", \"parameters\": {}}", "你好", "，我是", "助手");
+
+        List<AgentService.AgentEvent> events = agentService.streamRequest("s2", "给我讲讲今天的安排").collectList().block();
+
+        List<String> types = events.stream().map(AgentService.AgentEvent::getType).collect(Collectors.toList());
+        assertEquals(List.of("intent", "token", "token", "token", "result"), types);
+        assertEquals("你好，我是助手", ((AgentService.AgentResponse) events.get(4).getData()).getMessage());
+    }
+
+    @Test
+    void testIntentPromptKeepsStaticPrefixBeforeUserMessage() {
+        stubIntent("{\"intent\": \"GENERAL_CHAT\", \"parameters\": {}}", "好");
+
+        agentService.streamRequest("s3", "帮我想想周末去哪儿玩").collectList().block();
+
+        ArgumentCaptor<Prompt> prompts = ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel, atLeast(1)).stream(prompts.capture());
+        Prompt intentPrompt = prompts.getAllValues().stream()
+                .filter(prompt -> ((OllamaOptions) prompt.getOptions()).getFormat() != null)
+                .findFirst().orElseThrow();
+        // 固定说明在system消息中，不含用户消息；用户消息单独放在最后
+        List<Message> messages = intentPrompt.getInstructions();
+        assertEquals(2, messages.size());
+        assertInstanceOf(SystemMessage.class, messages.get(0));
+        assertFalse(messages.get(0).getText().contains("周末"));
+        assertInstanceOf(UserMessage.class, messages.get(1));
+        assertEquals("帮我想想周末去哪儿玩", messages.get(1).getText());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCompoundRequestRunsToolsConcurrently() {
+        when(fileSearchService.searchFiles(eq("UserService"), anyString())).thenAnswer(invocation -> {
+            Thread.sleep(400);
+            return List.of(new FileSearchService.FileInfo("./src/UserService.java", "UserService.java", false, 100, 0L));
+        });
+        when(fileSearchService.searchFileContent(anyString(), anyString())).thenReturn(List.of());
+        when(fileSearchService.readFileContent("README.md")).thenAnswer(invocation -> {
+            Thread.sleep(400);
+            return "# demo";
+        });
+
+        long start = System.nanoTime();
+        AgentService.AgentResponse response = agentService.processRequest("s4", "搜索UserService并且读取 README.md，查看内存");
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("multi_tool", response.getAction());
+        List<AgentService.AgentResponse> results = (List<AgentService.AgentResponse>) response.getData().get("results");
+        assertEquals(List.of("file_search", "file_read", "system_info"),
+                results.stream().map(AgentService.AgentResponse::getAction).collect(Collectors.toList()));
+        assertTrue(elapsed < 750, "工具应并行执行，耗时 " + elapsed + "ms");
+        // 拆分不经过LLM
+        verify(chatModel, never()).stream(any(Prompt.class));
+    }
+
+    @Test
+    void testToolTurnIsSharedWithLaterChat() {
+        when(fileSearchService.searchFiles(eq("Dockerfile"), anyString())).thenReturn(List.of(
+                new FileSearchService.FileInfo("./Dockerfile", "Dockerfile", false, 100, 0L)));
+        when(fileSearchService.searchFileContent(anyString(), anyString())).thenReturn(List.of());
+        stubIntent("{\"intent\": \"GENERAL_CHAT\", \"parameters\": {}}", "在根目录");
+
+        agentService.processRequest("s5", "搜索 Dockerfile");
+        List<AgentService.AgentEvent> events = agentService.streamRequest("s5", "它放在哪儿了呢").collectList().block();
+
+        assertEquals("在根目录", ((AgentService.AgentResponse) events.get(events.size() - 1).getData()).getMessage());
+        ArgumentCaptor<Prompt> prompts = ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel, atLeast(1)).stream(prompts.capture());
+        Prompt chatPrompt = prompts.getAllValues().stream()
+                .filter(prompt -> ((OllamaOptions) prompt.getOptions()).getFormat() == null)
+                .reduce((first, second) -> second).orElseThrow();
+        // 聊天提示词包含上一轮的工具调用和结果
+        List<Message> messages = chatPrompt.getInstructions();
+        assertEquals(3, messages.size());
+        assertEquals("搜索 Dockerfile", messages.get(0).getText());
+        assertTrue(messages.get(1).getText().contains("Dockerfile"));
+        assertEquals("它放在哪儿了呢", messages.get(2).getText());
+    }
+
+    @Test
+    void testSummarizeRequestUsesChunkedSummary() {
+        when(fileSearchService.readFileContent("README.md")).thenReturn("# demo\n这是一个示例项目\n");
+        stubIntent("{\"intent\": \"FILE_READ\", \"parameters\": {\"filePath\": \"README.md\"}}", "示例项目", "的说明");
+
+        AgentService.AgentResponse response = agentService.processRequest("s6", "总结 README.md");
+
+        assertEquals("file_summary", response.getAction());
+        assertEquals("示例项目的说明", response.getData().get("summary"));
+        assertEquals(1, response.getData().get("chunks"));
+    }
+
+    // 带JSON Schema的请求是意图识别，其余是聊天回复
+    private void stubIntent(String intentJson, String... chatTokens) {
+        when(chatModel.stream(any(Prompt.class))).thenAnswer(invocation -> {
+            Prompt prompt = invocation.getArgument(0);
+            boolean intentCall = prompt.getOptions() instanceof OllamaOptions options && options.getFormat() != null;
+            return Flux.fromArray(intentCall ? new String[] {intentJson} : chatTokens)
+                    .map(text -> new ChatResponse(List.of(new Generation(new AssistantMessage(text)))));
+        });
+    }
+}
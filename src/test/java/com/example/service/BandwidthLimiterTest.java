@@ -0,0 +1,133 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandwidthLimiterTest {
+
+    @Test
+    void testGlobalLimitShapesThroughput() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(100 * 1024, 0, 0);
+
+        // 令牌桶初始有1秒突发容量，读取200KB约需1秒
+        long elapsed = readAll(limiter, new byte[200 * 1024], newTask("t1", FileDownloadService.DownloadPriority.INTERACTIVE));
+
+        assertTrue(elapsed >= 800, "elapsed " + elapsed + " ms");
+        assertTrue(elapsed < 3000, "elapsed " + elapsed + " ms");
+    }
+
+    @Test
+    void testLimitsCanBeRaisedAtRuntime() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(0, 0, 1024);
+        FileDownloadService.DownloadTask task = newTask("t2", FileDownloadService.DownloadPriority.INTERACTIVE);
+
+        // 任务开始传输前不能单独设置限速
+        assertFalse(limiter.setTaskLimit("t2", 0));
+        long start = System.currentTimeMillis();
+        try (InputStream in = limiter.throttle(new ByteArrayInputStream(new byte[512 * 1024]), "host", task)) {
+            assertTrue(limiter.setTaskLimit("t2", 0));
+            byte[] buffer = new byte[16 * 1024];
+            while (in.read(buffer) != -1) {
+                // drain
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(elapsed < 1000, "elapsed " + elapsed + " ms");
+        assertEquals(1024L, limiter.getLimits().get("defaultPerTask"));
+        // 传输结束后任务的限速随之移除，不能再设置
+        assertFalse(limiter.setTaskLimit("t2", 0));
+        assertTrue(((Map<?, ?>) limiter.getLimits().get("tasks")).isEmpty());
+    }
+
+    @Test
+    void testIdleHostBucketsAreRemovedUnlessOverridden() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(0, 0, 0);
+        limiter.setHostLimit("pinned", 1024 * 1024);
+
+        readAll(limiter, new byte[10], newTask("h1", FileDownloadService.DownloadPriority.INTERACTIVE));
+        try (InputStream ignored = limiter.throttle(new ByteArrayInputStream(new byte[10]), "other",
+                newTask("h2", FileDownloadService.DownloadPriority.INTERACTIVE))) {
+            assertTrue(((Map<?, ?>) limiter.getLimits().get("hosts")).containsKey("other"));
+        }
+
+        Map<?, ?> hosts = (Map<?, ?>) limiter.getLimits().get("hosts");
+        assertEquals(Map.of("pinned", 1024L * 1024), hosts);
+    }
+
+    @Test
+    void testBulkTransfersYieldToInteractive() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(0, 0, 0);
+        FileDownloadService.DownloadTask interactive = newTask("i", FileDownloadService.DownloadPriority.INTERACTIVE);
+        FileDownloadService.DownloadTask bulk = newTask("b", FileDownloadService.DownloadPriority.BULK);
+
+        InputStream interactiveStream = limiter.throttle(new ByteArrayInputStream(new byte[10]), "host", interactive);
+        Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(300);
+                interactiveStream.close();
+            } catch (Exception e) {
+                // ignore
+            }
+        });
+        closer.start();
+
+        long elapsed = readAll(limiter, new byte[10], bulk);
+        closer.join();
+
+        assertTrue(elapsed >= 250, "bulk should wait for interactive transfer, elapsed " + elapsed + " ms");
+    }
+
+    @Test
+    void testCancelWakesWaitingBulkTransfer() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(0, 0, 0);
+        FileDownloadService.DownloadTask interactive = newTask("i2", FileDownloadService.DownloadPriority.INTERACTIVE);
+        FileDownloadService.DownloadTask bulk = newTask("b2", FileDownloadService.DownloadPriority.BULK);
+
+        try (InputStream ignored = limiter.throttle(new ByteArrayInputStream(new byte[10]), "host", interactive)) {
+            Thread canceller = new Thread(() -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                bulk.cancel();
+                limiter.wakeUp();
+            });
+            canceller.start();
+
+            long start = System.currentTimeMillis();
+            assertThrows(IOException.class, () -> readAll(limiter, new byte[10], bulk));
+            long elapsed = System.currentTimeMillis() - start;
+            canceller.join();
+
+            // 交互式下载仍在进行，批量下载因取消被唤醒，不必等到兜底检查
+            assertTrue(elapsed < 700, "elapsed " + elapsed + " ms");
+        }
+        assertEquals(0, limiter.getLimits().get("activeInteractive"));
+    }
+
+    private static long readAll(BandwidthLimiter limiter, byte[] data, FileDownloadService.DownloadTask task) throws Exception {
+        long start = System.currentTimeMillis();
+        try (InputStream in = limiter.throttle(new ByteArrayInputStream(data), "host", task)) {
+            byte[] buffer = new byte[16 * 1024];
+            while (in.read(buffer) != -1) {
+                // drain
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static FileDownloadService.DownloadTask newTask(String id, FileDownloadService.DownloadPriority priority) {
+        FileDownloadService.DownloadTask task = new FileDownloadService.DownloadTask(id, "http://host/" + id, "./downloads");
+        task.setPriority(priority);
+        task.setStatus(FileDownloadService.DownloadStatus.DOWNLOADING);
+        return task;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationContextTest {
+
+    private final ModelProfiles profiles = new ModelProfiles(new MockEnvironment());
+    private final List<String> summaryRequests = new CopyOnWriteArrayList<>();
+    private final ChatModel summarizer = prompt -> {
+        String text = prompt.getInstructions().get(0).getText();
+        summaryRequests.add(text);
+        return new ChatResponse(List.of(new Generation(new AssistantMessage("摘要" + summaryRequests.size()))));
+    };
+
+    @Test
+    void testShortHistoryIsSentUnchanged() {
+        ConversationContext context = new ConversationContext(summarizer, profiles, Runnable::run, 2048, 256, 100);
+
+        ConversationContext.Window window = context.build(turns(2), "继续");
+
+        List<Message> messages = window.getPrompt().getInstructions();
+        assertEquals(5, messages.size());
+        assertInstanceOf(UserMessage.class, messages.get(4));
+        assertEquals("继续", messages.get(4).getText());
+        assertEquals(0, window.getSummarizedMessages());
+        assertTrue(summaryRequests.isEmpty());
+    }
+
+    @Test
+    void testPromptStaysBoundedAsConversationGrows() {
+        // 每条消息约24个token，历史预算100，其中摘要预留40
+        ConversationContext context = new ConversationContext(summarizer, profiles, Runnable::run, 100, 40, 100);
+
+        int maxTokens = 0;
+        for (int turns = 5; turns <= 40; turns += 5) {
+            ConversationContext.Window window = context.build(turns(turns), "继续");
+            maxTokens = Math.max(maxTokens, window.getPromptTokens());
+        }
+        assertTrue(maxTokens <= 100 + 40 + 10, "提示词token数: " + maxTokens);
+
+        // 同一段对话再次请求时使用已生成的摘要，早期消息不再丢失
+        ConversationContext.Window window = context.build(turns(40), "继续");
+        Message first = window.getPrompt().getInstructions().get(0);
+        assertInstanceOf(SystemMessage.class, first);
+        assertTrue(first.getText().contains("摘要"));
+        assertEquals(0, window.getDroppedMessages());
+        assertEquals(80, window.getSummarizedMessages() + window.getRecentMessages());
+    }
+
+    @Test
+    void testSummaryIsExtendedIncrementally() {
+        ConversationContext context = new ConversationContext(summarizer, profiles, Runnable::run, 100, 40, 100);
+
+        context.build(turns(5), "继续");
+        int first = summaryRequests.size();
+        context.build(turns(10), "继续");
+
+        assertTrue(summaryRequests.size() > first);
+        // 第二次只摘要新移出窗口的消息，并带上已有摘要
+        assertTrue(summaryRequests.get(first).contains("已有摘要：\n摘要" + first));
+        assertFalse(summaryRequests.get(first).contains("第0轮"));
+    }
+
+    @Test
+    void testLongBacklogIsSummarizedInBoundedBatches() {
+        ConversationContext context = new ConversationContext(summarizer, profiles, Runnable::run, 100, 40, 100);
+
+        // 没有任何已有摘要时，移出窗口的几十条消息分批摘要，每次调用的长度不超过历史预算
+        ConversationContext.Window window = context.build(turns(40), "继续");
+
+        assertTrue(window.getDroppedMessages() > 70);
+        assertTrue(summaryRequests.size() > 10, "摘要调用次数: " + summaryRequests.size());
+        for (String request : summaryRequests) {
+            assertTrue(ConversationContext.estimateTokens(request) <= 100 + 60, "摘要请求token数: "
+                    + ConversationContext.estimateTokens(request));
+        }
+        // 每批都接着上一批的摘要，最终摘要覆盖全部移出窗口的消息
+        assertTrue(summaryRequests.get(1).contains("已有摘要：\n摘要1"));
+        assertEquals(0, context.build(turns(40), "继续").getDroppedMessages());
+    }
+
+    @Test
+    void testSummaryIsReusedAfterHistoryDropsOldestMessages() {
+        ConversationHistory history = new ConversationHistory(Duration.ofMinutes(10), 100, 40, 4000, "");
+        ConversationContext context = new ConversationContext(summarizer, profiles, Runnable::run, 100, 40, 100);
+        for (int i = 0; i < 20; i++) {
+            history.append("alice", "第" + i + "轮：请解释一下这个配置项的作用", "第" + i + "轮：这个配置项控制线程池的大小和队列");
+        }
+        context.build(history.transcript("alice"), "继续");
+        int before = summaryRequests.size();
+
+        // 超出40条，最早的10条被移除
+        history.append("alice", "第20轮：请解释一下这个配置项的作用", "第20轮：这个配置项控制线程池的大小和队列");
+        assertEquals(32, history.get("alice").size());
+        ConversationContext.Window window = context.build(history.transcript("alice"), "继续");
+
+        // 移除前生成的摘要仍然命中，只为新移出窗口的消息摘要一次
+        assertInstanceOf(SystemMessage.class, window.getPrompt().getInstructions().get(0));
+        assertEquals(before + 1, summaryRequests.size());
+        assertFalse(summaryRequests.get(before).contains("第5轮"));
+    }
+
+    @Test
+    void testRequestIsNotBlockedByPendingSummary() {
+        List<Runnable> pending = new ArrayList<>();
+        Executor deferred = pending::add;
+        ConversationContext context = new ConversationContext(summarizer, profiles, deferred, 100, 40, 100);
+
+        ConversationContext.Window window = context.build(turns(10), "继续");
+
+        // 摘要尚未生成：只发送最近的消息
+        assertFalse(window.getPrompt().getInstructions().get(0) instanceof SystemMessage);
+        assertTrue(window.getDroppedMessages() > 0);
+        assertEquals(1, pending.size());
+        // 同一前缀不重复提交
+        context.build(turns(10), "继续");
+        assertEquals(1, pending.size());
+    }
+
+    @Test
+    void testTokenEstimate() {
+        assertEquals(4, ConversationContext.estimateTokens("你好世界"));
+        assertEquals(3, ConversationContext.estimateTokens("hello world"));
+        assertEquals(0, ConversationContext.estimateTokens(""));
+    }
+
+    private static List<Message> turns(int count) {
+        List<Message> history = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            history.add(new UserMessage("第" + i + "轮：请解释一下这个配置项的作用"));
+            history.add(new AssistantMessage("第" + i + "轮：这个配置项控制线程池的大小和队列"));
+        }
+        return history;
+    }
+}
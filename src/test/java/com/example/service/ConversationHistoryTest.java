@@ -0,0 +1,96 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationHistoryTest {
+
+    @TempDir
+    Path spillDir;
+
+    @Test
+    void testTurnsAreAppendedPerSession() {
+        ConversationHistory history = new ConversationHistory(Duration.ofMinutes(10), 100, 200, 4000, "");
+        history.append("alice", "你好", "你好！");
+        history.append("alice", "介绍一下Spring Boot", "Spring Boot是……");
+        history.append("bob", "搜索 pom.xml", "搜索结果：");
+
+        List<Message> alice = history.get("alice");
+        assertEquals(4, alice.size());
+        assertInstanceOf(UserMessage.class, alice.get(2));
+        assertEquals("介绍一下Spring Boot", alice.get(2).getText());
+        assertInstanceOf(AssistantMessage.class, alice.get(3));
+        assertEquals(2, history.turns("alice"));
+        assertEquals(1, history.turns("bob"));
+        assertTrue(history.get("carol").isEmpty());
+
+        history.clear("alice");
+        assertTrue(history.get("alice").isEmpty());
+    }
+
+    @Test
+    void testLongSessionDropsOldestQuarterAndTruncatesMessages() {
+        ConversationHistory history = new ConversationHistory(Duration.ofMinutes(10), 100, 8, 5, "");
+        for (int i = 0; i < 5; i++) {
+            history.append("alice", "问题" + i, "很长很长的回答" + i);
+        }
+
+        List<Message> messages = history.get("alice");
+        // 超出8条时一次移除最早的2条
+        assertEquals(8, messages.size());
+        assertEquals("问题1", messages.get(0).getText());
+        assertEquals("很长很长的", messages.get(1).getText());
+        assertEquals(2L, history.getStats().get("trimmedMessages"));
+    }
+
+    @Test
+    void testIdleSessionExpires() throws Exception {
+        ConversationHistory history = new ConversationHistory(Duration.ofMillis(20), 100, 200, 4000, "");
+        history.append("alice", "你好", "你好！");
+        Thread.sleep(40);
+
+        assertTrue(history.get("alice").isEmpty());
+        assertEquals(0, history.size());
+    }
+
+    @Test
+    void testLeastRecentlyAccessedSessionIsEvicted() {
+        ConversationHistory history = new ConversationHistory(Duration.ofMinutes(10), 2, 200, 4000, "");
+        history.append("alice", "你好", "你好！");
+        history.append("bob", "你好", "你好！");
+        // 访问alice后，bob成为最久未访问的会话
+        history.get("alice");
+        history.append("carol", "你好", "你好！");
+
+        assertEquals(2, history.size());
+        assertEquals(1, history.turns("alice"));
+        assertEquals(0, history.turns("bob"));
+        assertEquals(1L, history.getStats().get("evicted"));
+    }
+
+    @Test
+    void testEvictedSessionIsSpilledAndRestored() {
+        ConversationHistory history = new ConversationHistory(Duration.ofMinutes(10), 2, 200, 4000, spillDir.toString());
+        history.append("alice", "第一轮", "回答一");
+        history.append("bob", "你好", "你好！");
+        history.append("carol", "你好", "你好！");
+
+        // alice最久未访问，被写到磁盘
+        assertEquals(2, history.size());
+        assertEquals(1L, history.getStats().get("spilled"));
+
+        List<Message> alice = history.get("alice");
+        assertEquals(2, alice.size());
+        assertEquals("回答一", alice.get(1).getText());
+        assertEquals(1L, history.getStats().get("restored"));
+    }
+}
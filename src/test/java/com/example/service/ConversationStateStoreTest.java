@@ -0,0 +1,72 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationStateStoreTest {
+
+    @Test
+    void testSessionsAreIsolated() {
+        ConversationStateStore store = new ConversationStateStore(Duration.ofMinutes(10), 100);
+        store.putPendingDownload("alice", files("a", 3), "./downloads", "a");
+        store.putPendingDownload("bob", files("b", 20), "./other", "b");
+
+        ConversationStateStore.PendingDownload alice = store.getPendingDownload("alice");
+        ConversationStateStore.PendingDownload bob = store.getPendingDownload("bob");
+
+        assertEquals(3, alice.size());
+        assertEquals("a1.txt", alice.getName(1));
+        assertEquals(ConversationStateStore.MAX_CANDIDATES, bob.size());
+        assertEquals("./other", bob.getTargetDirectory());
+        assertNull(store.getPendingDownload("carol"));
+
+        // 只清除仍是同一份的状态
+        store.putPendingDownload("alice", files("c", 1), "./downloads", "c");
+        store.clearPendingDownload("alice", alice);
+        assertEquals("c0.txt", store.getPendingDownload("alice").getName(0));
+    }
+
+    @Test
+    void testExpiredStateIsDropped() throws Exception {
+        ConversationStateStore store = new ConversationStateStore(Duration.ofMillis(20), 100);
+        store.putPendingDownload("alice", files("a", 1), "./downloads", "a");
+
+        Thread.sleep(40);
+
+        assertNull(store.getPendingDownload("alice"));
+        store.evictExpired();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void testSessionCountIsBoundedUnderConcurrency() throws Exception {
+        ConversationStateStore store = new ConversationStateStore(Duration.ofMinutes(10), 50);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            String session = "s" + i;
+            executor.execute(() -> store.putPendingDownload(session, files(session, 2), "./downloads", session));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        store.evictExpired();
+
+        assertTrue(store.size() <= 50, "sessions: " + store.size());
+        assertEquals(1000 - store.size(), store.getEvictedCount());
+    }
+
+    private static List<FileSearchService.FileInfo> files(String prefix, int count) {
+        List<FileSearchService.FileInfo> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            files.add(new FileSearchService.FileInfo("./dir/" + prefix + i + ".txt", prefix + i + ".txt", false, 10, 0L));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadCacheServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testStoreComputesSha256AndDeduplicates() throws Exception {
+        DownloadCacheService cache = new DownloadCacheService(tempDir.resolve("cache").toString(), 1024 * 1024);
+        byte[] content = "hello".getBytes(StandardCharsets.UTF_8);
+
+        DownloadCacheService.CacheEntry first = cache.store("http://a/x", new ByteArrayInputStream(content), "\"v1\"", null, null, null);
+        DownloadCacheService.CacheEntry second = cache.store("http://b/x", new ByteArrayInputStream(content), null, null, null, null);
+
+        assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", first.getDigest());
+        assertEquals(first.getDigest(), second.getDigest());
+        assertEquals(1, cache.getStats().get("objects"));
+        assertEquals("\"v1\"", cache.lookup("http://a/x").getEtag());
+    }
+
+    @Test
+    void testMaterializeHitRecordsBytesSaved() throws Exception {
+        DownloadCacheService cache = new DownloadCacheService(tempDir.resolve("cache").toString(), 1024 * 1024);
+        DownloadCacheService.CacheEntry entry = cache.store("k", new ByteArrayInputStream(new byte[100]), null, null, null, null);
+        cache.recordMiss();
+
+        Path target = tempDir.resolve("out.bin");
+        cache.materializeHit(entry, target);
+
+        assertEquals(100, Files.size(target));
+        assertEquals(100L, cache.getStats().get("bytesSaved"));
+        assertEquals(0.5, (double) cache.getStats().get("hitRatio"), 1e-9);
+    }
+
+    @Test
+    void testLruEvictionKeepsSizeBounded() throws Exception {
+        DownloadCacheService cache = new DownloadCacheService(tempDir.resolve("cache").toString(), 250);
+        cache.store("a", new ByteArrayInputStream(new byte[100]), null, null, null, null);
+        cache.store("b", new ByteArrayInputStream(filled(100, 1)), null, null, null, null);
+        // 访问a，使b成为最久未使用
+        cache.materializeHit(cache.lookup("a"), tempDir.resolve("a.bin"));
+        cache.store("c", new ByteArrayInputStream(filled(100, 2)), null, null, null, null);
+
+        assertNotNull(cache.lookup("a"));
+        assertNull(cache.lookup("b"));
+        assertNotNull(cache.lookup("c"));
+        assertTrue((long) cache.getStats().get("sizeBytes") <= 250);
+    }
+
+    @Test
+    void testObjectLargerThanCacheIsMaterializedBeforeEviction() throws Exception {
+        DownloadCacheService cache = new DownloadCacheService(tempDir.resolve("cache").toString(), 50);
+        Path target = tempDir.resolve("big.bin");
+        DownloadCacheService.CacheEntry entry = cache.store("big", new ByteArrayInputStream(filled(100, 3)),
+                null, null, target, null);
+
+        assertEquals(100, Files.size(target));
+        assertEquals(100, entry.getSize());
+        assertNull(cache.lookup("big"));
+        assertEquals(0L, cache.getStats().get("sizeBytes"));
+    }
+
+    @Test
+    void testMaterializedFileDoesNotShareCachedContent() throws Exception {
+        DownloadCacheService cache = new DownloadCacheService(tempDir.resolve("cache").toString(), 1024 * 1024);
+        Path target = tempDir.resolve("doc.txt");
+        DownloadCacheService.CacheEntry entry = cache.store("k", new ByteArrayInputStream(filled(100, 4)),
+                null, null, target, null);
+
+        // 下载得到的文件可写，修改后不影响缓存内容
+        assertTrue(Files.isWritable(target));
+        Files.write(target, filled(100, 5));
+
+        assertArrayEquals(filled(100, 4), Files.readAllBytes(cache.blobPath(entry.getDigest())));
+    }
+
+    @Test
+    void testIndexSurvivesRestart() throws Exception {
+        String dir = tempDir.resolve("cache").toString();
+        DownloadCacheService cache = new DownloadCacheService(dir, 1024);
+        cache.store("k", new ByteArrayInputStream(new byte[10]), "\"e\"", null, null, null);
+        // 索引按间隔写出，关闭时写出剩余的修改
+        cache.save();
+
+        DownloadCacheService reloaded = new DownloadCacheService(dir, 1024);
+        assertNotNull(reloaded.lookup("k"));
+        assertEquals(10L, reloaded.getStats().get("sizeBytes"));
+    }
+
+    private static byte[] filled(int size, int value) {
+        byte[] bytes = new byte[size];
+        java.util.Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadProgressPublisherTest {
+
+    @Test
+    void testProgressIsCoalescedAndTerminalEventEndsStream() throws Exception {
+        DownloadProgressPublisher publisher = new DownloadProgressPublisher();
+        DownloadTaskRegistry registry = new DownloadTaskRegistry(Duration.ofHours(1), 100, publisher);
+        FileDownloadService.DownloadTask task = new FileDownloadService.DownloadTask("t1", "http://host/a", "./downloads");
+        registry.register(task);
+
+        List<DownloadProgressPublisher.ProgressEvent> received = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        Disposable subscription = publisher.subscribe(task, Duration.ofMillis(100))
+                .subscribe(received::add, error -> completed.countDown(), completed::countDown);
+
+        task.setStatus(FileDownloadService.DownloadStatus.DOWNLOADING);
+        task.setTotalSize(10_000);
+        for (int i = 1; i <= 10_000; i++) {
+            task.setDownloadedSize(i);
+        }
+        Thread.sleep(150);
+        task.setStatus(FileDownloadService.DownloadStatus.COMPLETED);
+
+        assertTrue(completed.await(2, TimeUnit.SECONDS));
+        subscription.dispose();
+        assertTrue(received.size() < 10, "events: " + received.size());
+        DownloadProgressPublisher.ProgressEvent last = received.get(received.size() - 1);
+        assertTrue(last.isTerminal());
+        assertEquals(10_000, last.getDownloadedSize());
+    }
+
+    @Test
+    void testTerminalEventsSurviveConcurrentPublishing() throws Exception {
+        DownloadProgressPublisher publisher = new DownloadProgressPublisher();
+        DownloadTaskRegistry registry = new DownloadTaskRegistry(Duration.ofHours(1), 100, publisher);
+        int tasks = 8;
+        Set<String> finished = ConcurrentHashMap.newKeySet();
+        Disposable subscription = publisher.subscribeAll(Duration.ofMillis(50))
+                .filter(DownloadProgressPublisher.ProgressEvent::isTerminal)
+                .subscribe(event -> finished.add(event.getTaskId()));
+
+        ExecutorService downloads = Executors.newFixedThreadPool(tasks);
+        for (int t = 0; t < tasks; t++) {
+            FileDownloadService.DownloadTask task = new FileDownloadService.DownloadTask("c" + t, "http://host/" + t, "./downloads");
+            registry.register(task);
+            downloads.execute(() -> {
+                task.setStatus(FileDownloadService.DownloadStatus.DOWNLOADING);
+                for (int i = 1; i <= 2_000; i++) {
+                    task.setDownloadedSize(i);
+                }
+                task.setStatus(FileDownloadService.DownloadStatus.COMPLETED);
+            });
+        }
+        downloads.shutdown();
+        assertTrue(downloads.awaitTermination(5, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 2_000;
+        while (finished.size() < tasks && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        subscription.dispose();
+        assertEquals(tasks, finished.size());
+    }
+
+    @Test
+    void testSubscribingToFinishedTaskSendsSingleTerminalEvent() {
+        DownloadProgressPublisher publisher = new DownloadProgressPublisher();
+        FileDownloadService.DownloadTask task = new FileDownloadService.DownloadTask("t2", "http://host/b", "./downloads");
+        task.fail("boom");
+
+        List<DownloadProgressPublisher.ProgressEvent> events = publisher.subscribe(task, Duration.ofMillis(100))
+                .collectList()
+                .block(Duration.ofSeconds(2));
+
+        assertNotNull(events);
+        assertEquals(1, events.size());
+        assertEquals(FileDownloadService.DownloadStatus.FAILED, events.get(0).getStatus());
+        assertEquals("boom", events.get(0).getErrorMessage());
+    }
+
+    @Test
+    void testTaskFinishingBeforeSubscriptionStillEndsStream() {
+        DownloadProgressPublisher publisher = new DownloadProgressPublisher();
+        DownloadTaskRegistry registry = new DownloadTaskRegistry(Duration.ofHours(1), 100, publisher);
+        FileDownloadService.DownloadTask task = new FileDownloadService.DownloadTask("t3", "http://host/c", "./downloads");
+        registry.register(task);
+        task.setStatus(FileDownloadService.DownloadStatus.DOWNLOADING);
+
+        // 构建流之后、订阅之前任务完成（例如命中缓存），结束事件发布时还没有订阅者
+        Flux<DownloadProgressPublisher.ProgressEvent> flux = publisher.subscribe(task, Duration.ofMillis(100));
+        task.setStatus(FileDownloadService.DownloadStatus.COMPLETED);
+
+        List<DownloadProgressPublisher.ProgressEvent> events = flux.collectList().block(Duration.ofSeconds(2));
+
+        assertNotNull(events);
+        assertEquals(1, events.size());
+        assertEquals(FileDownloadService.DownloadStatus.COMPLETED, events.get(0).getStatus());
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadTaskRegistryTest {
+
+    @Test
+    void testCountersFollowStateTransitions() {
+        DownloadTaskRegistry registry = new DownloadTaskRegistry(Duration.ofHours(1), 100, new DownloadProgressPublisher());
+        FileDownloadService.DownloadTask task = register(registry, "t1");
+
+        assertEquals(1, registry.count(FileDownloadService.DownloadStatus.PENDING));
+        task.setStatus(FileDownloadService.DownloadStatus.DOWNLOADING);
+        assertEquals(0, registry.count(FileDownloadService.DownloadStatus.PENDING));
+        assertEquals(1, registry.count(FileDownloadService.DownloadStatus.DOWNLOADING));
+
+        task.fail("boom");
+        // 已结束的任务不再改变状态
+        task.setStatus(FileDownloadService.DownloadStatus.COMPLETED);
+        assertEquals(0, registry.count(FileDownloadService.DownloadStatus.DOWNLOADING));
+        assertEquals(1, registry.count(FileDownloadService.DownloadStatus.FAILED));
+        assertEquals(0, registry.count(FileDownloadService.DownloadStatus.COMPLETED));
+
+        assertTrue(registry.remove("t1"));
+        assertEquals(0, registry.count(FileDownloadService.DownloadStatus.FAILED));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void testTerminalTasksAreEvictedBeyondCapacity() {
+        DownloadTaskRegistry registry = new DownloadTaskRegistry(Duration.ofHours(1), 2, new DownloadProgressPublisher());
+        FileDownloadService.DownloadTask active = register(registry, "active");
+        active.setStatus(FileDownloadService.DownloadStatus.DOWNLOADING);
+        for (int i = 0; i < 5; i++) {
+            register(registry, "done" + i).setStatus(FileDownloadService.DownloadStatus.COMPLETED);
+        }
+
+        registry.evictExpired();
+
+        assertEquals(2, registry.count(FileDownloadService.DownloadStatus.COMPLETED));
+        assertNotNull(registry.get("active"));
+        assertNull(registry.get("done0"));
+        assertNotNull(registry.get("done4"));
+        assertEquals(3, registry.getEvictedCount());
+    }
+
+    @Test
+    void testTerminalTasksExpireAfterTtl() throws Exception {
+        DownloadTaskRegistry registry = new DownloadTaskRegistry(Duration.ofMillis(50), 100, new DownloadProgressPublisher());
+        register(registry, "t1").setStatus(FileDownloadService.DownloadStatus.COMPLETED);
+
+        Thread.sleep(100);
+        registry.evictExpired();
+
+        assertNull(registry.get("t1"));
+    }
+
+    @Test
+    void testPagingReturnsNewestFirst() {
+        DownloadTaskRegistry registry = new DownloadTaskRegistry(Duration.ofHours(1), 100, new DownloadProgressPublisher());
+        for (int i = 0; i < 5; i++) {
+            register(registry, "t" + i);
+        }
+
+        List<FileDownloadService.DownloadTask> first = registry.page(null, 0, 2);
+        List<FileDownloadService.DownloadTask> last = registry.page(null, 2, 2);
+
+        assertEquals(List.of("t4", "t3"), first.stream().map(FileDownloadService.DownloadTask::getTaskId).toList());
+        assertEquals(List.of("t0"), last.stream().map(FileDownloadService.DownloadTask::getTaskId).toList());
+    }
+
+    private static FileDownloadService.DownloadTask register(DownloadTaskRegistry registry, String id) {
+        FileDownloadService.DownloadTask task = new FileDownloadService.DownloadTask(id, "http://host/" + id, "./downloads");
+        registry.register(task);
+        return task;
+    }
+}
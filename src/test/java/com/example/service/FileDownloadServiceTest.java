@@ -0,0 +1,216 @@
+package com.example.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileDownloadServiceTest {
+
+    private static final byte[] PAYLOAD = "spring-ai-demo ".repeat(2000).getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    // 文件名前缀 -> 请求使用的客户端端口（即不同的TCP连接）
+    private final Map<String, Set<Integer>> connectionsByPrefix = new ConcurrentHashMap<>();
+    private String baseUrl;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/files/", exchange -> {
+            String name = exchange.getRequestURI().getPath().substring("/files/".length());
+            int underscore = name.indexOf('_');
+            if (underscore > 0) {
+                connectionsByPrefix.computeIfAbsent(name.substring(0, underscore + 1), prefix -> ConcurrentHashMap.newKeySet())
+                        .add(exchange.getRemoteAddress().getPort());
+            }
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = PAYLOAD;
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(PAYLOAD);
+                }
+                body = compressed.toByteArray();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            fullResponses.incrementAndGet();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/files/";
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private FileDownloadService newService() {
+        DownloadCacheService cache = new DownloadCacheService(tempDir.resolve("cache").toString(), 64L * 1024 * 1024);
+        return new FileDownloadService(new DownloadTaskRegistry(Duration.ofHours(1), 1000, new DownloadProgressPublisher()), cache, new BandwidthLimiter(0, 0, 0), Duration.ofSeconds(5), Duration.ofSeconds(30), 8);
+    }
+
+    @Test
+    void testGzipResponseIsDecompressedWhileStreaming() throws Exception {
+        FileDownloadService service = newService();
+
+        FileDownloadService.DownloadTask task = awaitTerminal(service.downloadFile(baseUrl + "a.txt", tempDir.resolve("out").toString()));
+
+        assertEquals(FileDownloadService.DownloadStatus.COMPLETED, task.getStatus(), task.getErrorMessage());
+        assertArrayEquals(PAYLOAD, Files.readAllBytes(Path.of(task.getLocalPath())));
+        assertEquals(PAYLOAD.length, task.getDownloadedSize());
+    }
+
+    @Test
+    void testUnescapedUrlIsEncodedAndOtherSchemesAreRejected() throws Exception {
+        FileDownloadService service = newService();
+
+        FileDownloadService.DownloadTask task = awaitTerminal(service.downloadFile(baseUrl + "my file.txt", tempDir.resolve("out").toString()));
+
+        assertEquals(FileDownloadService.DownloadStatus.COMPLETED, task.getStatus(), task.getErrorMessage());
+        assertTrue(task.getLocalPath().endsWith("my file.txt"));
+        assertThrows(IllegalArgumentException.class, () -> service.downloadFile("ftp://example.com/a.txt", tempDir.toString()));
+        assertThrows(IllegalArgumentException.class, () -> service.downloadFile("file:///etc/hosts", tempDir.toString()));
+    }
+
+    @Test
+    void testRepeatDownloadIsRevalidatedAndServedFromCache() throws Exception {
+        FileDownloadService service = newService();
+        String target = tempDir.resolve("out").toString();
+
+        awaitTerminal(service.downloadFile(baseUrl + "a.txt", target));
+        FileDownloadService.DownloadTask second = awaitTerminal(service.downloadFile(baseUrl + "a.txt", target));
+
+        assertEquals(FileDownloadService.DownloadStatus.COMPLETED, second.getStatus(), second.getErrorMessage());
+        assertTrue(second.isCacheHit());
+        assertEquals(1, fullResponses.get());
+        assertArrayEquals(PAYLOAD, Files.readAllBytes(Path.of(second.getLocalPath())));
+    }
+
+    @Test
+    void testDigestIsVerifiedWhileStreamingAndMismatchIsNotCached() throws Exception {
+        FileDownloadService service = newService();
+        String target = tempDir.resolve("out").toString();
+        String sha512 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-512").digest(PAYLOAD));
+
+        FileDownloadService.DownloadTask bad = awaitTerminal(service.downloadFile(baseUrl + "a.txt", target,
+                FileDownloadService.DownloadPriority.INTERACTIVE, IntegrityCheck.of("sha256:" + "0".repeat(64))));
+
+        assertEquals(FileDownloadService.DownloadStatus.FAILED, bad.getStatus());
+        assertTrue(bad.getErrorMessage().contains("完整性校验失败"), bad.getErrorMessage());
+        assertFalse(Files.exists(tempDir.resolve("out").resolve("a.txt")));
+
+        FileDownloadService.DownloadTask good = awaitTerminal(service.downloadFile(baseUrl + "a.txt", target,
+                FileDownloadService.DownloadPriority.INTERACTIVE, IntegrityCheck.of("sha512:" + sha512)));
+
+        assertEquals(FileDownloadService.DownloadStatus.COMPLETED, good.getStatus(), good.getErrorMessage());
+        assertFalse(good.isCacheHit());
+        assertTrue(good.isIntegrityVerified());
+        assertEquals("sha512:" + sha512, good.getDigest());
+
+        // 再次下载走缓存，摘要对照缓存内容校验
+        FileDownloadService.DownloadTask cached = awaitTerminal(service.downloadFile(baseUrl + "a.txt", target,
+                FileDownloadService.DownloadPriority.INTERACTIVE, IntegrityCheck.of("sha512:" + sha512)));
+        assertTrue(cached.isCacheHit());
+        assertTrue(cached.isIntegrityVerified());
+        assertEquals(2, fullResponses.get());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkPooledClientAgainstUrlConnection() throws Exception {
+        int requests = 200;
+        int concurrency = 8;
+
+        // 旧实现：每个任务单独 openConnection，无压缩；与新实现使用相同的并发数
+        ExecutorService legacy = Executors.newFixedThreadPool(concurrency);
+        List<Future<?>> copies = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            String name = "legacy_" + i;
+            copies.add(legacy.submit(() -> {
+                URLConnection connection = new URL(baseUrl + name).openConnection();
+                try (InputStream in = connection.getInputStream()) {
+                    Files.copy(in, tempDir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> copy : copies) {
+            copy.get(30, TimeUnit.SECONDS);
+        }
+        legacy.shutdown();
+
+        // 新实现：共享HttpClient + gzip，下载线程池同样为8
+        FileDownloadService service = newService();
+        List<FileDownloadService.DownloadTask> tasks = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            tasks.add(service.downloadFile(baseUrl + "pooled_" + i, tempDir.resolve("pooled").toString()));
+        }
+        for (FileDownloadService.DownloadTask task : tasks) {
+            assertEquals(FileDownloadService.DownloadStatus.COMPLETED, awaitTerminal(task).getStatus());
+        }
+
+        // 共享客户端复用连接：建立的连接数不超过并发数
+        Set<Integer> pooled = connectionsByPrefix.getOrDefault("pooled_", Set.of());
+        assertFalse(pooled.isEmpty());
+        assertTrue(pooled.size() <= concurrency, "pooled connections: " + pooled.size());
+    }
+
+    private static FileDownloadService.DownloadTask awaitTerminal(FileDownloadService.DownloadTask task) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            FileDownloadService.DownloadStatus status = task.getStatus();
+            if (status == FileDownloadService.DownloadStatus.COMPLETED
+                    || status == FileDownloadService.DownloadStatus.FAILED
+                    || status == FileDownloadService.DownloadStatus.CANCELLED) {
+                return task;
+            }
+            Thread.sleep(10);
+        }
+        fail("下载任务超时: " + task.getTaskId());
+        return task;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSummarizerTest {
+
+    private final ModelProfiles profiles = new ModelProfiles(new MockEnvironment());
+
+    @Test
+    void testChunksRespectTokenLimitAndKeepContent() {
+        FileSummarizer summarizer = new FileSummarizer(new SlowModel(0), profiles, 64, 2, 4, 100, Duration.ofSeconds(10));
+        String content = source(200);
+
+        List<String> chunks = summarizer.split(content);
+
+        assertTrue(chunks.size() > 1);
+        assertEquals(content, String.join("", chunks));
+        for (String chunk : chunks) {
+            assertTrue(ConversationContext.estimateTokens(chunk) <= 64, chunk);
+        }
+    }
+
+    @Test
+    void testChunksAreSummarizedConcurrentlyWithBoundedParallelism() {
+        SlowModel model = new SlowModel(100);
+        FileSummarizer summarizer = new FileSummarizer(model, profiles, 64, 3, 4, 100, Duration.ofSeconds(30));
+
+        FileSummarizer.Summary summary = summarizer.summarize(source(200));
+
+        assertTrue(summary.getChunks() > 4);
+        assertEquals(0, summary.getCachedChunks());
+        // 分段调用加上至少一层合并
+        assertTrue(summary.getModelCalls() > summary.getChunks());
+        assertTrue(summary.getText().startsWith("摘要"));
+        assertEquals(3, model.maxConcurrent.get());
+    }
+
+    @Test
+    void testEditedFileOnlyResummarizesChangedChunks() {
+        SlowModel model = new SlowModel(0);
+        FileSummarizer summarizer = new FileSummarizer(model, profiles, 64, 2, 4, 100, Duration.ofSeconds(10));
+        String content = source(200);
+        FileSummarizer.Summary first = summarizer.summarize(content);
+
+        // 未修改：全部命中缓存，不调用模型
+        FileSummarizer.Summary unchanged = summarizer.summarize(content);
+        assertEquals(first.getChunks(), unchanged.getCachedChunks());
+        assertEquals(0, unchanged.getModelCalls());
+
+        // 开头插入一行：分段边界随内容确定，后面的段保持不变
+        FileSummarizer.Summary edited = summarizer.summarize("// 新增的注释\n" + content);
+        assertTrue(edited.getCachedChunks() >= edited.getChunks() - 2,
+                edited.getCachedChunks() + "/" + edited.getChunks());
+    }
+
+    private static String source(int lines) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            content.append("    private int field").append(i).append(" = compute(").append(i * 7).append(");\n");
+        }
+        return content.toString();
+    }
+
+    // 流式返回摘要，记录同时进行的调用数
+    private static class SlowModel implements ChatModel {
+        private final long delayMillis;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        SlowModel(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.defer(() -> {
+                maxConcurrent.accumulateAndGet(running.incrementAndGet(), Math::max);
+                return Flux.just("摘要", String.valueOf(calls.incrementAndGet()))
+                        .delayElements(Duration.ofMillis(delayMillis / 2))
+                        .map(text -> new ChatResponse(List.of(new Generation(new AssistantMessage(text)))))
+                        .doOnTerminate(running::decrementAndGet)
+                        .doOnCancel(running::decrementAndGet);
+            });
+        }
+    }
+}
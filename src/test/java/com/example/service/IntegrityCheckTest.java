@@ -0,0 +1,85 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntegrityCheckTest {
+
+    private static final byte[] DATA = "integrity ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testWholeDigestFormats() throws Exception {
+        byte[] sha512 = MessageDigest.getInstance("SHA-512").digest(DATA);
+        CRC32C crc = new CRC32C();
+        crc.update(DATA);
+
+        assertEquals("sha512:" + HexFormat.of().formatHex(sha512),
+                IntegrityCheck.of("sha512-" + Base64.getEncoder().encodeToString(sha512)).verify(new ByteArrayInputStream(DATA)));
+        assertEquals("crc32c:" + String.format("%08x", crc.getValue()),
+                IntegrityCheck.of("CRC32C:" + String.format("%08X", crc.getValue())).verify(new ByteArrayInputStream(DATA)));
+        assertThrows(IllegalArgumentException.class, () -> IntegrityCheck.of("md5:d41d8cd98f00b204e9800998ecf8427e"));
+        assertThrows(IllegalArgumentException.class, () -> IntegrityCheck.of("sha256:abcd"));
+    }
+
+    @Test
+    void testMismatchFailsAtEndOfStream() {
+        IntegrityCheck check = IntegrityCheck.of("sha256:" + "0".repeat(64));
+
+        IOException e = assertThrows(IntegrityCheck.IntegrityException.class,
+                () -> check.verify(new ByteArrayInputStream(DATA)));
+        assertTrue(e.getMessage().contains("sha256"));
+    }
+
+    @Test
+    void testCorruptSegmentFailsBeforeRestOfStreamIsRead() throws Exception {
+        int segmentSize = 1024;
+        List<String> segments = segmentDigests(DATA, segmentSize);
+        byte[] corrupted = DATA.clone();
+        corrupted[1500] ^= 1;
+        AtomicLong consumed = new AtomicLong();
+        InputStream counting = new ByteArrayInputStream(corrupted) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int n = super.read(b, off, Math.min(len, 512));
+                if (n > 0) {
+                    consumed.addAndGet(n);
+                }
+                return n;
+            }
+        };
+
+        IntegrityCheck check = IntegrityCheck.segmented("sha-256", segmentSize, segments, null);
+        IOException e = assertThrows(IntegrityCheck.IntegrityException.class, () -> check.verify(counting));
+
+        assertTrue(e.getMessage().contains("第 2 段"), e.getMessage());
+        assertEquals(2048, consumed.get());
+        // 完整数据通过分段校验，最后一段不满
+        assertNotNull(check.verify(new ByteArrayInputStream(DATA)));
+        assertThrows(IntegrityCheck.IntegrityException.class,
+                () -> check.verify(new ByteArrayInputStream(Arrays.copyOf(DATA, 4096))));
+    }
+
+    private static List<String> segmentDigests(byte[] data, int segmentSize) throws Exception {
+        List<String> digests = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += segmentSize) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, offset, Math.min(segmentSize, data.length - offset));
+            digests.add(HexFormat.of().formatHex(digest.digest()));
+        }
+        return digests;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntentCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final AgentService.Intent DOWNLOAD_POM =
+            new AgentService.Intent(AgentService.IntentType.FILE_DOWNLOAD, Map.of("query", "pom.xml"));
+
+    @Test
+    void testNormalization() {
+        assertEquals(IntentCache.normalize("下载pom.xml"), IntentCache.normalize("  下载   pom.xml！"));
+        assertEquals(IntentCache.normalize("下载第一个文件"), IntentCache.normalize("下载第１个文件"));
+        assertEquals(IntentCache.normalize("Search Config"), IntentCache.normalize("search   config"));
+        // URL和路径保留大小写
+        assertNotEquals(IntentCache.normalize("下载 https://a.com/File.txt"), IntentCache.normalize("下载 https://a.com/file.txt"));
+    }
+
+    @Test
+    void testHitsMissesAndSizeBound() {
+        IntentCache cache = new IntentCache(2, Duration.ofHours(1), "");
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.get("下载pom.xml", m -> { calls.incrementAndGet(); return DOWNLOAD_POM; });
+        AgentService.Intent hit = cache.get("下载 pom.xml", m -> { calls.incrementAndGet(); return DOWNLOAD_POM; });
+        cache.get("a", m -> { calls.incrementAndGet(); return DOWNLOAD_POM; });
+        cache.get("b", m -> { calls.incrementAndGet(); return DOWNLOAD_POM; });
+
+        assertEquals(AgentService.IntentType.FILE_DOWNLOAD, hit.getType());
+        assertEquals("pom.xml", hit.getParameters().get("query"));
+        assertEquals(3, calls.get());
+        Map<String, Object> stats = cache.getStats();
+        assertEquals(1L, stats.get("hits"));
+        assertEquals(3L, stats.get("misses"));
+        assertEquals(2, stats.get("size"));
+        assertEquals(1L, stats.get("evictions"));
+    }
+
+    @Test
+    void testFailuresAreNotCached() {
+        IntentCache cache = new IntentCache(10, Duration.ofHours(1), "");
+
+        assertThrows(IllegalStateException.class, () -> cache.get("x", m -> { throw new IllegalStateException("down"); }));
+
+        assertSame(AgentService.IntentType.FILE_DOWNLOAD, cache.get("x", m -> DOWNLOAD_POM).getType());
+    }
+
+    @Test
+    void testConcurrentIdenticalMessagesAreCoalesced() throws Exception {
+        IntentCache cache = new IntentCache(10, Duration.ofHours(1), "");
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<AgentService.Intent>> results = new ArrayList<>();
+
+        for (int i = 0; i < 16; i++) {
+            results.add(executor.submit(() -> cache.get("下载pom.xml", m -> {
+                calls.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return DOWNLOAD_POM;
+            })));
+        }
+        Thread.sleep(200);
+        release.countDown();
+        for (Future<AgentService.Intent> result : results) {
+            assertEquals(AgentService.IntentType.FILE_DOWNLOAD, result.get(5, TimeUnit.SECONDS).getType());
+        }
+        executor.shutdown();
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testAsyncLookupsShareInFlightClassification() {
+        IntentCache cache = new IntentCache(10, Duration.ofHours(1), "");
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<AgentService.Intent> pending = new CompletableFuture<>();
+
+        CompletableFuture<AgentService.Intent> first = cache.getAsync("下载pom.xml", m -> { calls.incrementAndGet(); return pending; });
+        CompletableFuture<AgentService.Intent> second = cache.getAsync("下载 pom.xml", m -> { calls.incrementAndGet(); return pending; });
+        assertFalse(first.isDone());
+        pending.complete(DOWNLOAD_POM);
+
+        assertEquals("pom.xml", first.join().getParameters().get("query"));
+        assertSame(first.join(), second.join());
+        assertEquals(1, calls.get());
+        assertEquals(1L, cache.getStats().get("coalesced"));
+        // 完成后写入缓存，同步接口直接命中
+        assertEquals(AgentService.IntentType.FILE_DOWNLOAD, cache.get("下载pom.xml", m -> fail("应当命中缓存")).getType());
+    }
+
+    @Test
+    void testPersistsAcrossRestart() {
+        String file = tempDir.resolve("intents.json").toString();
+        IntentCache first = new IntentCache(10, Duration.ofHours(1), file);
+        first.get("下载pom.xml", m -> DOWNLOAD_POM);
+        first.save();
+
+        IntentCache second = new IntentCache(10, Duration.ofHours(1), file);
+        AgentService.Intent restored = second.get("下载pom.xml", m -> fail("应当从持久化文件恢复"));
+
+        assertEquals("pom.xml", restored.getParameters().get("query"));
+        assertEquals(1L, second.getStats().get("hits"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntentRouterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void offlineEvaluationAcrossThresholds() throws Exception {
+        IntentRouter router = new IntentRouter(true, 0.7, "");
+        List<IntentRouter.LabeledExample> examples;
+        try (InputStream in = getClass().getResourceAsStream("/intent-eval.tsv")) {
+            examples = IntentRouter.readExamples(in);
+        }
+
+        // 阈值越高本地接受的消息越少，节省的LLM调用不会增加
+        double previousSaved = 1.0;
+        for (double threshold : new double[]{0.5, 0.6, 0.7, 0.8, 0.9, 0.95, 0.99}) {
+            Map<String, Object> result = router.evaluate(examples, threshold, AgentService::analyzeIntentWithRegex);
+            double saved = (double) result.get("llmCallsSaved");
+            assertTrue(saved <= previousSaved, "threshold " + threshold + ": " + result);
+            previousSaved = saved;
+        }
+
+        Map<String, Object> atDefault = router.evaluate(examples, router.getThreshold(), AgentService::analyzeIntentWithRegex);
+        assertTrue((double) atDefault.get("localAccuracy") >= 0.95, atDefault.toString());
+        assertTrue((double) atDefault.get("llmCallsSaved") >= 0.3, atDefault.toString());
+    }
+
+    @Test
+    void testAmbiguousMessagesEscalateAndStatsAreCounted() {
+        IntentRouter router = new IntentRouter(true, 0.7, "");
+
+        AgentService.Intent local = router.tryLocal("下载 pom.xml", AgentService::analyzeIntentWithRegex);
+        AgentService.Intent escalated = router.tryLocal("嗯", AgentService::analyzeIntentWithRegex);
+
+        assertNotNull(local);
+        assertEquals(AgentService.IntentType.FILE_DOWNLOAD, local.getType());
+        assertEquals("pom.xml", local.getParameters().get("query"));
+        assertNull(escalated);
+        assertEquals(1L, router.getStats().get("localAccepted"));
+        assertEquals(1L, router.getStats().get("escalatedToLlm"));
+    }
+
+    @Test
+    void testLearnedDecisionsSurviveRestart() {
+        String log = tempDir.resolve("training.tsv").toString();
+        IntentRouter first = new IntentRouter(true, 0.7, log);
+        long seedSize = (long) first.getStats().get("trainingExamples");
+        first.learn("列出最近的构建产物", AgentService.IntentType.FILE_SEARCH);
+        first.learn("列出最近的构建产物", AgentService.IntentType.FILE_SEARCH);
+
+        IntentRouter second = new IntentRouter(true, 0.7, log);
+
+        assertEquals(seedSize + 1, second.getStats().get("trainingExamples"));
+    }
+}
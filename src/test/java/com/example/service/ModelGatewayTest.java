@@ -0,0 +1,288 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelGatewayTest {
+
+    private static final Prompt PROMPT = new Prompt("你好");
+
+    @Test
+    void testConcurrencyLimitIsHonoured() throws Exception {
+        BlockingModel model = new BlockingModel();
+        ModelGateway gateway = new ModelGateway(model, 2, 10, Duration.ofSeconds(5), 5, Duration.ofSeconds(30));
+
+        List<CompletableFuture<ChatResponse>> calls = List.of(
+                CompletableFuture.supplyAsync(() -> gateway.call(PROMPT)),
+                CompletableFuture.supplyAsync(() -> gateway.call(PROMPT)),
+                CompletableFuture.supplyAsync(() -> gateway.call(PROMPT)),
+                CompletableFuture.supplyAsync(() -> gateway.call(PROMPT)));
+
+        assertTrue(model.started.await(2, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(2, model.running.get());
+        assertEquals(2, gateway.getStats().get("queued"));
+
+        model.release.countDown();
+        for (CompletableFuture<ChatResponse> call : calls) {
+            assertEquals("ok", call.get(2, TimeUnit.SECONDS).getResult().getOutput().getText());
+        }
+        assertEquals(2, model.maxRunning.get());
+        assertEquals(4L, gateway.getStats().get("admitted"));
+        assertEquals(0, gateway.getStats().get("inFlight"));
+    }
+
+    @Test
+    void testHedgeUsesOnlyIdlePermits() throws Exception {
+        BlockingModel model = new BlockingModel();
+        ModelGateway gateway = new ModelGateway(model, 2, 10, Duration.ofSeconds(5), 5, Duration.ofSeconds(30));
+
+        CompletableFuture<ChatResponse> running = CompletableFuture.supplyAsync(() -> gateway.call(PROMPT));
+        assertTrue(model.started.await(2, TimeUnit.SECONDS));
+        assertTrue(gateway.tryAcquireHedge());
+        // 两个名额已被调用和对冲占满，新调用排队，此后对冲不再获得名额
+        CompletableFuture<ChatResponse> queued = CompletableFuture.supplyAsync(() -> gateway.call(PROMPT));
+        waitFor(() -> (Integer) gateway.getStats().get("queued") == 1);
+        assertFalse(gateway.tryAcquireHedge());
+
+        model.release.countDown();
+        running.get(2, TimeUnit.SECONDS);
+        queued.get(2, TimeUnit.SECONDS);
+        assertEquals(1L, gateway.getStats().get("hedgesAdmitted"));
+        assertEquals(1L, gateway.getStats().get("hedgesRejected"));
+        assertEquals(1, gateway.getStats().get("inFlight"));
+    }
+
+    @Test
+    void testFullQueueIsRejectedImmediately() throws Exception {
+        BlockingModel model = new BlockingModel();
+        ModelGateway gateway = new ModelGateway(model, 1, 1, Duration.ofSeconds(5), 5, Duration.ofSeconds(30));
+
+        CompletableFuture<ChatResponse> running = CompletableFuture.supplyAsync(() -> gateway.call(PROMPT));
+        assertTrue(model.started.await(2, TimeUnit.SECONDS));
+        CompletableFuture<ChatResponse> queued = CompletableFuture.supplyAsync(() -> gateway.call(PROMPT));
+        waitFor(() -> (Integer) gateway.getStats().get("queued") == 1);
+
+        ModelGateway.RejectedException e = assertThrows(ModelGateway.RejectedException.class, () -> gateway.call(PROMPT));
+        assertEquals(429, e.getStatus());
+        assertEquals(1L, gateway.getStats().get("rejectedQueueFull"));
+
+        model.release.countDown();
+        running.get(2, TimeUnit.SECONDS);
+        queued.get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testQueueDeadlineRejectsWith503() throws Exception {
+        BlockingModel model = new BlockingModel();
+        ModelGateway gateway = new ModelGateway(model, 1, 10, Duration.ofMillis(100), 5, Duration.ofSeconds(30));
+
+        CompletableFuture<ChatResponse> running = CompletableFuture.supplyAsync(() -> gateway.call(PROMPT));
+        assertTrue(model.started.await(2, TimeUnit.SECONDS));
+
+        ModelGateway.RejectedException e = assertThrows(ModelGateway.RejectedException.class, () -> gateway.call(PROMPT));
+        assertEquals(503, e.getStatus());
+        assertEquals(1L, gateway.getStats().get("rejectedDeadline"));
+        assertEquals(0, gateway.getStats().get("queued"));
+
+        model.release.countDown();
+        running.get(2, TimeUnit.SECONDS);
+        assertEquals(0, gateway.getStats().get("inFlight"));
+    }
+
+    @Test
+    void testCircuitOpensAfterFailuresAndRecoversAfterTrial() throws Exception {
+        FailingModel model = new FailingModel();
+        ModelGateway gateway = new ModelGateway(model, 2, 10, Duration.ofSeconds(5), 3, Duration.ofMillis(200));
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IllegalStateException.class, () -> gateway.call(PROMPT));
+        }
+        assertTrue(gateway.isCircuitOpen());
+
+        // 熔断期间不再调用后端
+        ModelGateway.RejectedException e = assertThrows(ModelGateway.RejectedException.class, () -> gateway.call(PROMPT));
+        assertEquals(503, e.getStatus());
+        assertEquals(3, model.calls.get());
+
+        // 冷却后放行一次试探，成功则恢复
+        Thread.sleep(250);
+        model.failing = false;
+        assertEquals("ok", gateway.call(PROMPT).getResult().getOutput().getText());
+        assertFalse(gateway.isCircuitOpen());
+        assertEquals("CLOSED", String.valueOf(gateway.getStats().get("circuitState")));
+        assertEquals(1L, gateway.getStats().get("circuitOpenedCount"));
+    }
+
+    @Test
+    void testFailedTrialReopensCircuit() throws Exception {
+        FailingModel model = new FailingModel();
+        ModelGateway gateway = new ModelGateway(model, 2, 10, Duration.ofSeconds(5), 1, Duration.ofMillis(100));
+
+        assertThrows(IllegalStateException.class, () -> gateway.call(PROMPT));
+        assertTrue(gateway.isCircuitOpen());
+        Thread.sleep(150);
+        assertThrows(IllegalStateException.class, () -> gateway.call(PROMPT));
+        assertTrue(gateway.isCircuitOpen());
+        assertEquals(2L, gateway.getStats().get("circuitOpenedCount"));
+    }
+
+    @Test
+    void testStreamHoldsPermitUntilCompleteOrCancelled() throws Exception {
+        StreamingModel model = new StreamingModel();
+        ModelGateway gateway = new ModelGateway(model, 1, 10, Duration.ofSeconds(5), 5, Duration.ofSeconds(30));
+
+        Disposable first = gateway.stream(PROMPT).subscribe();
+        assertEquals(1, gateway.getStats().get("inFlight"));
+        assertEquals(1, model.subscriptions.get());
+
+        // 第二个流排队，不订阅后端
+        CountDownLatch secondDone = new CountDownLatch(1);
+        gateway.stream(PROMPT).doOnComplete(secondDone::countDown).subscribe();
+        assertEquals(1, gateway.getStats().get("queued"));
+        assertEquals(1, model.subscriptions.get());
+
+        // 取消第一个流（如意图早停解析）后名额转交给第二个
+        first.dispose();
+        waitFor(() -> model.subscriptions.get() == 2);
+        model.sinks.get(1).tryEmitNext(response("ok"));
+        model.sinks.get(1).tryEmitComplete();
+        assertTrue(secondDone.await(2, TimeUnit.SECONDS));
+        // 名额在下游收到完成信号之后释放
+        waitFor(() -> (Integer) gateway.getStats().get("inFlight") == 0);
+
+        Map<String, Object> stats = gateway.getStats();
+        assertEquals(0, stats.get("inFlight"));
+        assertEquals(0, stats.get("queued"));
+        assertEquals(0L, stats.get("failures"));
+    }
+
+    @Test
+    void testCancelledQueuedStreamLeavesQueue() throws Exception {
+        StreamingModel model = new StreamingModel();
+        ModelGateway gateway = new ModelGateway(model, 1, 10, Duration.ofSeconds(5), 5, Duration.ofSeconds(30));
+
+        Disposable first = gateway.stream(PROMPT).subscribe();
+        Disposable queued = gateway.stream(PROMPT).subscribe();
+        assertEquals(1, gateway.getStats().get("queued"));
+
+        queued.dispose();
+        waitFor(() -> (Integer) gateway.getStats().get("queued") == 0);
+        first.dispose();
+        assertEquals(0, gateway.getStats().get("inFlight"));
+        assertEquals(1, model.subscriptions.get());
+    }
+
+    @Test
+    void testQueuedCallStartsOutsideGatewayLock() throws Exception {
+        StreamingModel model = new StreamingModel();
+        ModelGateway gateway = new ModelGateway(model, 1, 10, Duration.ofSeconds(5), 5, Duration.ofSeconds(30));
+
+        Disposable first = gateway.stream(PROMPT).subscribe();
+        gateway.stream(PROMPT).subscribe();
+        AtomicBoolean statsReadable = new AtomicBoolean();
+        // 名额转交后在释放名额的线程上订阅后端，此时其他线程仍能进入网关
+        model.onStream = () -> {
+            try {
+                CompletableFuture.supplyAsync(gateway::getStats).get(1, TimeUnit.SECONDS);
+                statsReadable.set(true);
+            } catch (Exception e) {
+                // 超时：网关的锁仍被持有
+            }
+        };
+
+        first.dispose();
+        assertEquals(2, model.subscriptions.get());
+        assertTrue(statsReadable.get());
+        assertEquals(1, gateway.getStats().get("inFlight"));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待条件超时");
+            Thread.sleep(10);
+        }
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    // call()阻塞到release为止，记录同时运行数
+    private static class BlockingModel implements ChatModel {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            return response("ok");
+        }
+    }
+
+    private static class FailingModel implements ChatModel {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile boolean failing = true;
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            calls.incrementAndGet();
+            if (failing) {
+                throw new IllegalStateException("connection refused");
+            }
+            return response("ok");
+        }
+    }
+
+    // 每次订阅创建一个由测试控制的流
+    private static class StreamingModel implements ChatModel {
+        final AtomicInteger subscriptions = new AtomicInteger();
+        final List<Sinks.Many<ChatResponse>> sinks = new CopyOnWriteArrayList<>();
+        volatile Runnable onStream = () -> { };
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            Sinks.Many<ChatResponse> sink = Sinks.many().unicast().onBackpressureBuffer();
+            sinks.add(sink);
+            subscriptions.incrementAndGet();
+            onStream.run();
+            return sink.asFlux();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelProfilesTest {
+
+    @Test
+    void testProfilesSelectModelAndOptionsPerTask() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("spring.ai.ollama.chat.model", "deepseek-r1:14b")
+                .withProperty("agent.model-profiles.intent.model", "qwen2.5:1.5b")
+                .withProperty("agent.model-profiles.intent.num-predict", "128")
+                .withProperty("agent.model-profiles.chat.temperature", "0.7");
+        ModelProfiles profiles = new ModelProfiles(environment);
+
+        OllamaOptions intent = profiles.options(ModelProfiles.Task.INTENT).build();
+        assertEquals("qwen2.5:1.5b", intent.getModel());
+        assertEquals(0.0, intent.getTemperature());
+        assertEquals(128, intent.getNumPredict());
+
+        // 未配置模型的任务沿用默认模型，不覆盖默认选项
+        OllamaOptions chat = (OllamaOptions) profiles.prompt(ModelProfiles.Task.CHAT, "你好").getOptions();
+        assertNull(chat.getModel());
+        assertEquals(0.7, chat.getTemperature());
+        assertNull(chat.getNumPredict());
+        assertEquals("deepseek-r1:14b", profiles.getModel(ModelProfiles.Task.CHAT));
+        assertEquals("qwen2.5:1.5b", profiles.getModel(ModelProfiles.Task.INTENT));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testStreamLatencyAndSloAreTrackedPerProfile() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("agent.model-profiles.intent.slo", "50ms")
+                .withProperty("agent.model-profiles.chat.slo", "5s");
+        ModelProfiles profiles = new ModelProfiles(environment);
+
+        Flux<String> slow = Flux.just("a", "b").delayElements(Duration.ofMillis(60));
+        assertEquals(List.of("a", "b"), profiles.timed(ModelProfiles.Task.INTENT, slow).collectList().block());
+        // 早停取消按取消时刻计时
+        assertEquals("a", profiles.timed(ModelProfiles.Task.INTENT, Flux.just("a", "b")).blockFirst());
+        assertThrows(IllegalStateException.class, () -> profiles.timed(ModelProfiles.Task.CHAT,
+                Flux.<String>error(new IllegalStateException("down"))).blockLast());
+        assertEquals("ok", profiles.timed(ModelProfiles.Task.CHAT, () -> "ok"));
+
+        Map<String, Object> stats = profiles.getStats();
+        Map<String, Object> intent = (Map<String, Object>) stats.get("intent");
+        assertEquals(2L, intent.get("calls"));
+        assertEquals(1L, intent.get("sloViolations"));
+        assertEquals(0.5, intent.get("sloAttainment"));
+        assertTrue((Long) intent.get("p99Millis") >= 100, "p99: " + intent.get("p99Millis"));
+        assertTrue((Long) intent.get("firstTokenP95Millis") >= 50, "first token: " + intent.get("firstTokenP95Millis"));
+
+        Map<String, Object> chat = (Map<String, Object>) stats.get("chat");
+        assertEquals(1L, chat.get("calls"));
+        assertEquals(1L, chat.get("errors"));
+        assertEquals(1.0, chat.get("sloAttainment"));
+        assertEquals(0L, ((Map<String, Object>) stats.get("summarization")).get("calls"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testIntentStopSequenceAndTokenAccounting() {
+        ModelProfiles profiles = new ModelProfiles(new MockEnvironment()
+                .withProperty("agent.model-profiles.chat.stop[0]", "###"));
+
+        assertEquals(List.of("\n\n\n"), profiles.options(ModelProfiles.Task.INTENT).build().getStop());
+        assertEquals(List.of("###"), profiles.options(ModelProfiles.Task.CHAT).build().getStop());
+        assertNull(profiles.options(ModelProfiles.Task.SUMMARIZATION).build().getStop());
+        assertEquals(64, profiles.getReasoningBudget(ModelProfiles.Task.INTENT));
+
+        // 完整结束时取最后一段的eval_count；被取消时按收到的段数计
+        Flux<ChatResponse> stream = Flux.just(chunk("{", null), chunk("}", 12));
+        profiles.timed(ModelProfiles.Task.INTENT, stream).blockLast();
+        profiles.timed(ModelProfiles.Task.INTENT, stream).blockFirst();
+        profiles.recordReasoning(ModelProfiles.Task.INTENT, 65, true);
+
+        Map<String, Object> intent = (Map<String, Object>) profiles.getStats().get("intent");
+        assertEquals(13L, intent.get("tokens"));
+        assertEquals(6.5, intent.get("avgTokensPerCall"));
+        assertEquals(65L, intent.get("reasoningTokens"));
+        assertEquals(1L, intent.get("reasoningTruncated"));
+    }
+
+    private static ChatResponse chunk(String text, Integer evalCount) {
+        ChatResponseMetadata.Builder metadata = ChatResponseMetadata.builder();
+        if (evalCount != null) {
+            metadata.usage(new DefaultUsage(5, evalCount));
+        }
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))), metadata.build());
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelWarmupTest {
+
+    private final ModelProfiles profiles = new ModelProfiles(new MockEnvironment()
+            .withProperty("spring.ai.ollama.chat.model", "big")
+            .withProperty("agent.model-profiles.intent.model", "small")
+            .withProperty("agent.model-warmup.keep-alive", "1h"));
+
+    @Test
+    void testWarmsEveryModelOnEveryEndpointWithKeepAlive() {
+        LoadingModel node = new LoadingModel();
+        ModelWarmup warmup = new ModelWarmup(Map.of("http://node-1", node), profiles, true, Duration.ZERO);
+
+        warmup.warmAll();
+
+        assertEquals(Set.of("small", "big"), node.loaded);
+        assertEquals(List.of("1h", "1h"), node.keepAlives);
+        warmup.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSeparatesColdLoadFromWarmPings() {
+        LoadingModel node = new LoadingModel();
+        ModelWarmup warmup = new ModelWarmup(Map.of("http://node-1", node), profiles, true, Duration.ZERO);
+
+        warmup.warmAll();
+        warmup.warmAll();
+        // Ollama卸载了模型，下次请求重新加载
+        node.loaded.clear();
+        warmup.warmAll();
+
+        List<Map<String, Object>> models = (List<Map<String, Object>>) warmup.getStats().get("models");
+        assertEquals(2, models.size());
+        for (Map<String, Object> model : models) {
+            assertEquals(2L, model.get("coldStarts"));
+            assertEquals(1L, model.get("warmPings"));
+            assertEquals(3000L, model.get("lastLoadMillis"));
+        }
+        warmup.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testUnavailableEndpointIsRecordedNotThrown() {
+        ChatModel down = prompt -> {
+            throw new IllegalStateException("connection refused");
+        };
+        ModelWarmup warmup = new ModelWarmup(Map.of("http://down", down), profiles, true, Duration.ZERO);
+
+        warmup.warmAll();
+
+        List<Map<String, Object>> models = (List<Map<String, Object>>) warmup.getStats().get("models");
+        assertEquals(1L, models.get(0).get("failures"));
+        assertEquals("connection refused", models.get(0).get("lastError"));
+        warmup.shutdown();
+    }
+
+    // 第一次请求某个模型时返回较大的load_duration，之后为0
+    private static class LoadingModel implements ChatModel {
+        final Set<String> loaded = ConcurrentHashMap.newKeySet();
+        final List<String> keepAlives = new CopyOnWriteArrayList<>();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            OllamaOptions options = (OllamaOptions) prompt.getOptions();
+            keepAlives.add(options.getKeepAlive());
+            Duration load = loaded.add(options.getModel()) ? Duration.ofSeconds(3) : Duration.ZERO;
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("pong"))),
+                    ChatResponseMetadata.builder().keyValue("load-duration", load).build());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiToolPlannerTest {
+
+    @Test
+    void testSplitsIndependentToolsInOrder() {
+        List<AgentService.Intent> plan = MultiToolPlanner.plan("search UserService and download pom.xml and show memory");
+
+        assertEquals(3, plan.size());
+        assertEquals(AgentService.IntentType.FILE_SEARCH, plan.get(0).getType());
+        assertEquals(Map.of("query", "UserService"), plan.get(0).getParameters());
+        assertEquals(AgentService.IntentType.FILE_DOWNLOAD, plan.get(1).getType());
+        assertEquals(Map.of("query", "pom.xml"), plan.get(1).getParameters());
+        assertEquals(AgentService.IntentType.SYSTEM_INFO, plan.get(2).getType());
+    }
+
+    @Test
+    void testChineseConnectivesAndPunctuation() {
+        List<AgentService.Intent> plan = MultiToolPlanner.plan("下载pom.xml，然后搜索：AgentService");
+
+        assertEquals(2, plan.size());
+        assertEquals(Map.of("query", "pom.xml"), plan.get(0).getParameters());
+        assertEquals(Map.of("query", "AgentService"), plan.get(1).getParameters());
+    }
+
+    @Test
+    void testSingleToolIsNotCompound() {
+        // “和”后面不是操作，仍是一次搜索
+        assertTrue(MultiToolPlanner.plan("搜索UserService和OrderService").isEmpty());
+        assertTrue(MultiToolPlanner.plan("下载 pom.xml").isEmpty());
+        // 重复的操作合并后只剩一个
+        assertTrue(MultiToolPlanner.plan("查看内存，查看系统").isEmpty());
+        assertTrue(MultiToolPlanner.plan("你好，今天天气怎么样").isEmpty());
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import reactor.core.Disposable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaEndpointPoolTest {
+
+    private static final Prompt PROMPT = new Prompt("你好");
+    private static final OllamaOptions OPTIONS = OllamaOptions.builder().model("stub").build();
+
+    private final List<StubOllama> stubs = new ArrayList<>();
+    private final List<OllamaEndpointPool> pools = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        pools.forEach(OllamaEndpointPool::shutdown);
+        stubs.forEach(StubOllama::close);
+    }
+
+    @Test
+    void testLeastOutstandingSpreadsConcurrentRequests() throws Exception {
+        StubOllama a = stub("A", 300);
+        StubOllama b = stub("B", 300);
+        OllamaEndpointPool pool = pool(false, Duration.ZERO, a, b);
+
+        List<Disposable> running = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            running.add(pool.stream(PROMPT).subscribe());
+        }
+        waitFor(() -> a.chats.get() + b.chats.get() == 4);
+        assertEquals(2, a.chats.get());
+        assertEquals(2, b.chats.get());
+        running.forEach(Disposable::dispose);
+
+        // 阻塞调用同样经过节点选择
+        assertTrue(List.of("A", "B").contains(text(pool.call(PROMPT))));
+    }
+
+    @Test
+    void testBusyEndpointReceivesFewerRequests() throws Exception {
+        StubOllama slow = stub("slow", 2_000);
+        StubOllama fast = stub("fast", 0);
+        OllamaEndpointPool pool = pool(false, Duration.ZERO, slow, fast);
+
+        Disposable stuck = pool.stream(PROMPT).subscribe();
+        waitFor(() -> slow.chats.get() == 1);
+        // 慢节点有未完成请求，后续顺序调用都落在空闲节点
+        for (int i = 0; i < 3; i++) {
+            assertEquals("fast", text(pool.call(PROMPT)));
+        }
+        assertEquals(1, slow.chats.get());
+        stuck.dispose();
+    }
+
+    @Test
+    void testHealthCheckEjectsAndRestoresEndpoint() throws Exception {
+        StubOllama a = stub("A", 0);
+        StubOllama b = stub("B", 0);
+        b.healthy = false;
+        OllamaEndpointPool pool = pool(false, Duration.ofMillis(50), a, b);
+
+        waitFor(() -> !(Boolean) endpointStats(pool, 1).get("healthy"));
+        for (int i = 0; i < 4; i++) {
+            assertEquals("A", text(pool.call(PROMPT)));
+        }
+        assertEquals(0, b.chats.get());
+
+        b.healthy = true;
+        waitFor(() -> (Boolean) endpointStats(pool, 1).get("healthy"));
+        for (int i = 0; i < 4; i++) {
+            pool.call(PROMPT);
+        }
+        assertTrue(b.chats.get() > 0);
+    }
+
+    @Test
+    void testFailingEndpointIsEjectedByCircuitBreaker() throws Exception {
+        StubOllama broken = stub("broken", 0);
+        broken.status = 500;
+        StubOllama ok = stub("ok", 0);
+        OllamaEndpointPool pool = new OllamaEndpointPool(List.of(
+                OllamaEndpointPool.endpoint(broken.url(), OPTIONS, 1, Duration.ofMinutes(1)),
+                OllamaEndpointPool.endpoint(ok.url(), OPTIONS, 1, Duration.ofMinutes(1))),
+                false, Duration.ofSeconds(2), Duration.ofMillis(100), Duration.ZERO);
+        pools.add(pool);
+
+        int failures = 0;
+        for (int i = 0; i < 4; i++) {
+            try {
+                assertEquals("ok", text(pool.call(PROMPT)));
+            } catch (RuntimeException e) {
+                failures++;
+            }
+        }
+        assertEquals(1, failures, "熔断后不应再选择故障节点");
+        assertEquals(1, broken.chats.get());
+        assertEquals("OPEN", String.valueOf(endpointStats(pool, 0).get("circuitState")));
+    }
+
+    @Test
+    void testHalfOpenEndpointReceivesSingleProbe() throws Exception {
+        StubOllama flaky = stub("flaky", 300);
+        flaky.status = 500;
+        StubOllama ok = stub("ok", 300);
+        OllamaEndpointPool pool = new OllamaEndpointPool(List.of(
+                OllamaEndpointPool.endpoint(flaky.url(), OPTIONS, 1, Duration.ofMillis(100)),
+                OllamaEndpointPool.endpoint(ok.url(), OPTIONS, 1, Duration.ofMillis(100))),
+                false, Duration.ofSeconds(2), Duration.ofMillis(100), Duration.ZERO);
+        pools.add(pool);
+
+        while (flaky.chats.get() == 0) {
+            try {
+                pool.call(PROMPT);
+            } catch (RuntimeException e) {
+                // 故障节点的失败打开熔断器
+            }
+        }
+        flaky.status = 200;
+        int before = flaky.chats.get() + ok.chats.get();
+        Thread.sleep(150);
+
+        // 冷却结束后并发到达的请求中只有一个被放行到该节点
+        List<Disposable> running = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            running.add(pool.stream(PROMPT).subscribe());
+        }
+        waitFor(() -> flaky.chats.get() + ok.chats.get() == before + 4);
+        running.forEach(Disposable::dispose);
+        assertEquals(2, flaky.chats.get());
+        assertEquals("HALF_OPEN", String.valueOf(endpointStats(pool, 0).get("circuitState")));
+    }
+
+    @Test
+    void testHedgedRequestWinsAgainstSlowEndpointAndCancelsLoser() throws Exception {
+        StubOllama slow = stub("slow", 3_000);
+        StubOllama fast = stub("fast", 0);
+        OllamaEndpointPool pool = pool(true, Duration.ZERO, slow, fast);
+
+        long start = System.nanoTime();
+        // 第一次选择轮到第一个节点（慢节点），超过对冲延迟后向快节点发送相同请求
+        assertEquals("fast", text(pool.call(PROMPT)));
+        long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+        assertTrue(elapsed < 2_000, "对冲请求应先返回，耗时 " + elapsed + "ms");
+
+        Map<String, Object> stats = pool.getStats();
+        assertEquals(1L, stats.get("hedged"));
+        assertEquals(1L, stats.get("hedgeWins"));
+        waitFor(() -> (Long) endpointStats(pool, 0).get("cancelled") == 1L);
+        assertEquals(0, endpointStats(pool, 0).get("outstanding"));
+    }
+
+    @Test
+    void testHedgeIsSkippedWithoutAdmission() throws Exception {
+        StubOllama slow = stub("slow", 500);
+        StubOllama fast = stub("fast", 0);
+        OllamaEndpointPool pool = pool(true, Duration.ZERO, slow, fast);
+        AtomicInteger held = new AtomicInteger();
+        pool.setHedgeAdmission(new OllamaEndpointPool.HedgeAdmission() {
+            @Override
+            public boolean tryAcquire() {
+                return false;
+            }
+
+            @Override
+            public void release() {
+                held.decrementAndGet();
+            }
+        });
+
+        // 没有空闲名额时不发送对冲请求，只等待首选的慢节点
+        assertEquals("slow", text(pool.call(PROMPT)));
+        assertEquals(0L, pool.getStats().get("hedged"));
+        assertEquals(1L, pool.getStats().get("hedgesSkipped"));
+        assertEquals(0, fast.chats.get());
+        assertEquals(0, held.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFirstTokenLatencyIsTrackedPerModel() throws Exception {
+        OllamaEndpointPool pool = pool(true, Duration.ZERO, stub("A", 0), stub("B", 0));
+
+        pool.call(PROMPT);
+        pool.call(new Prompt("你好", OllamaOptions.builder().model("other").build()));
+
+        Map<String, Long> p95 = (Map<String, Long>) pool.getStats().get("firstTokenP95Millis");
+        assertEquals(Set.of("stub", "other"), p95.keySet());
+    }
+
+    @Test
+    void testNoHedgeWhenFirstTokenArrivesInTime() throws Exception {
+        StubOllama a = stub("A", 0);
+        StubOllama b = stub("B", 0);
+        OllamaEndpointPool pool = pool(true, Duration.ZERO, a, b);
+
+        for (int i = 0; i < 4; i++) {
+            pool.call(PROMPT);
+        }
+        assertEquals(0L, pool.getStats().get("hedged"));
+        assertEquals(4, a.chats.get() + b.chats.get());
+    }
+
+    private OllamaEndpointPool pool(boolean hedge, Duration healthCheckInterval, StubOllama... nodes) {
+        List<OllamaEndpointPool.Endpoint> endpoints = new ArrayList<>();
+        for (StubOllama node : nodes) {
+            endpoints.add(OllamaEndpointPool.endpoint(node.url(), OPTIONS, 3, Duration.ofSeconds(30)));
+        }
+        OllamaEndpointPool pool = new OllamaEndpointPool(endpoints, hedge, Duration.ofMillis(200),
+                Duration.ofMillis(100), healthCheckInterval);
+        pools.add(pool);
+        return pool;
+    }
+
+    private StubOllama stub(String reply, long firstTokenDelayMillis) throws IOException {
+        StubOllama stub = new StubOllama(reply, firstTokenDelayMillis);
+        stubs.add(stub);
+        return stub;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> endpointStats(OllamaEndpointPool pool, int index) {
+        return ((List<Map<String, Object>>) pool.getStats().get("endpoints")).get(index);
+    }
+
+    private static String text(ChatResponse response) {
+        return response.getResult().getOutput().getText();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待条件超时");
+            Thread.sleep(10);
+        }
+    }
+
+    // 模拟Ollama的 /api/tags 和 /api/chat（流式NDJSON和非流式），首个token前按配置延迟
+    private static class StubOllama {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final String reply;
+        private final long firstTokenDelayMillis;
+        final AtomicInteger chats = new AtomicInteger();
+        volatile boolean healthy = true;
+        volatile int status = 200;
+
+        StubOllama(String reply, long firstTokenDelayMillis) throws IOException {
+            this.reply = reply;
+            this.firstTokenDelayMillis = firstTokenDelayMillis;
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(executor);
+            server.createContext("/api/tags", exchange -> respond(exchange, healthy ? 200 : 503, "{\"models\":[]}"));
+            server.createContext("/api/chat", this::chat);
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        private void chat(HttpExchange exchange) throws IOException {
+            chats.incrementAndGet();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (status != 200) {
+                respond(exchange, status, "{\"error\":\"model failed\"}");
+                return;
+            }
+            try {
+                Thread.sleep(firstTokenDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            boolean stream = body.contains("\"stream\":true");
+            exchange.getResponseHeaders().add("Content-Type", stream ? "application/x-ndjson" : "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (stream) {
+                    out.write(line(reply, false));
+                    out.flush();
+                    out.write(line("", true));
+                } else {
+                    out.write(line(reply, true));
+                }
+            } catch (IOException e) {
+                // 客户端已取消
+            }
+        }
+
+        private static byte[] line(String content, boolean done) {
+            return ("{\"model\":\"stub\",\"created_at\":\"2024-01-01T00:00:00Z\","
+                    + "\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\"},"
+                    + "\"done\":" + done + (done ? ",\"done_reason\":\"stop\"" : "")
+                    + ",\"total_duration\":1,\"load_duration\":1,\"prompt_eval_count\":1,"
+                    + "\"prompt_eval_duration\":1,\"eval_count\":1,\"eval_duration\":1}\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+        void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReasoningFilterTest {
+
+    @Test
+    void testPlainOutputPassesThrough() {
+        ReasoningFilter filter = new ReasoningFilter(4);
+
+        assertEquals("{\"intent\":", filter.feed("{\"intent\":"));
+        assertEquals("\"GENERAL_CHAT\"}", filter.feed("\"GENERAL_CHAT\"}"));
+        assertEquals("", filter.finish());
+        assertEquals(0, filter.getReasoningChunks());
+        assertFalse(filter.isTruncated());
+    }
+
+    @Test
+    void testThinkBlockSplitAcrossChunksIsRemoved() {
+        ReasoningFilter filter = new ReasoningFilter(0);
+        StringBuilder visible = new StringBuilder();
+        for (String chunk : List.of("<th", "ink>用户想", "搜索文件</th", "ink>{\"a\"", ":1}<", "b>")) {
+            visible.append(filter.feed(chunk));
+        }
+        visible.append(filter.finish());
+
+        assertEquals("{\"a\":1}<b>", visible.toString());
+        assertEquals(2, filter.getReasoningChunks());
+    }
+
+    @Test
+    void testBudgetExceededStopsReasoning() {
+        ReasoningFilter filter = new ReasoningFilter(2);
+        filter.feed("<think>");
+        filter.feed("嗯");
+
+        assertThrows(ReasoningFilter.BudgetExceededException.class, () -> filter.feed("让我想想"));
+        assertTrue(filter.isTruncated());
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    @Test
+    void testExactTierIgnoresWhitespaceAndCase() {
+        ResponseCache cache = new ResponseCache(provider(null), true, 10, Duration.ofHours(1), 0.95, true, Set.of());
+        AtomicInteger generations = new AtomicInteger();
+
+        cache.get("simple", "Hello  World", () -> "reply-" + generations.incrementAndGet());
+        String second = cache.get("simple", "hello world！", () -> "reply-" + generations.incrementAndGet());
+
+        assertEquals("reply-1", second);
+        assertEquals(1, generations.get());
+        assertEquals(1L, cache.getStats().get("exactHits"));
+        assertEquals(false, cache.getStats().get("semantic"));
+    }
+
+    @Test
+    void testSemanticTierUsesSimilarityThreshold() {
+        ResponseCache cache = new ResponseCache(provider(new CharacterEmbedding()), true, 10, Duration.ofHours(1),
+                0.9, true, Set.of());
+
+        cache.get("agent", "介绍一下你自己", () -> "我是助手");
+        // 字符几乎相同，相似度高于阈值
+        assertEquals("我是助手", cache.get("agent", "请介绍一下你自己", () -> fail("应当语义命中")));
+        // 不相关的问题不应命中
+        assertEquals("天气晴", cache.get("agent", "今天天气怎么样", () -> "天气晴"));
+
+        Map<String, Object> stats = cache.getStats();
+        assertEquals(1L, stats.get("semanticHits"));
+        assertEquals(2L, stats.get("misses"));
+    }
+
+    @Test
+    void testTtlSizeBoundAndEndpointOptOut() throws Exception {
+        ResponseCache cache = new ResponseCache(provider(null), true, 2, Duration.ofMillis(50), 0.95, true, Set.of("simple"));
+        AtomicInteger generations = new AtomicInteger();
+
+        cache.get("simple", "a", () -> String.valueOf(generations.incrementAndGet()));
+        cache.get("simple", "a", () -> String.valueOf(generations.incrementAndGet()));
+        assertEquals(2, generations.get(), "关闭缓存的接口每次都生成");
+
+        cache.get("agent", "a", () -> "1");
+        cache.get("agent", "b", () -> "2");
+        cache.get("agent", "c", () -> "3");
+        assertEquals(2, cache.getStats().get("size"));
+        assertEquals("x", cache.get("agent", "a", () -> "x"), "最早的条目已被淘汰");
+
+        Thread.sleep(80);
+        assertEquals("y", cache.get("agent", "c", () -> "y"), "过期条目不再命中");
+    }
+
+    @Test
+    void testEmbeddingFailureFallsBackToExactMatch() {
+        EmbeddingModel broken = new CharacterEmbedding() {
+            @Override
+            public float[] embed(String text) {
+                throw new IllegalStateException("model not pulled");
+            }
+        };
+        ResponseCache cache = new ResponseCache(provider(broken), true, 10, Duration.ofHours(1), 0.9, true, Set.of());
+
+        cache.get("agent", "你好", () -> "你好！");
+
+        assertEquals("你好！", cache.get("agent", "你好", () -> fail("应当精确命中")));
+        assertEquals(1L, cache.getStats().get("embeddingFailures"));
+    }
+
+    private static ObjectProvider<EmbeddingModel> provider(EmbeddingModel model) {
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        if (model != null) {
+            beanFactory.addBean("embeddingModel", model);
+        }
+        return beanFactory.getBeanProvider(EmbeddingModel.class);
+    }
+
+    // 以字符出现次数为向量，足以区分"近似改写"和"不相关问题"
+    private static class CharacterEmbedding implements EmbeddingModel {
+        @Override
+        public float[] embed(String text) {
+            float[] vector = new float[256];
+            text.chars().forEach(c -> vector[c % vector.length]++);
+            return vector;
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpeculativeSearchTest {
+
+    private static final List<FileSearchService.FileInfo> POM =
+            List.of(new FileSearchService.FileInfo("./pom.xml", "pom.xml", false, 10, 0L));
+
+    @Test
+    void testMatchingIntentCommitsSpeculativeResult() throws Exception {
+        CountingSearchService search = new CountingSearchService(0);
+        SpeculativeSearch speculative = new SpeculativeSearch(search, true, 2);
+
+        try (SpeculativeSearch.Speculation speculation = speculative.start(intent(AgentService.IntentType.FILE_SEARCH, "pom.xml"))) {
+            Thread.sleep(50);
+            assertEquals(POM, speculation.searchFiles("pom.xml", "."));
+            speculation.searchFileContent("pom.xml", ".");
+        }
+
+        assertEquals(2, search.calls.get());
+        Map<String, Object> stats = speculative.getStats();
+        assertEquals(2L, stats.get("committed"));
+        assertEquals(0L, stats.get("cancelled"));
+        assertEquals(1.0, stats.get("hitRatio"));
+        speculative.shutdown();
+    }
+
+    @Test
+    void testMismatchCancelsAndCountsWastedWork() throws Exception {
+        CountingSearchService search = new CountingSearchService(5_000);
+        SpeculativeSearch speculative = new SpeculativeSearch(search, true, 2);
+
+        try (SpeculativeSearch.Speculation speculation = speculative.start(intent(AgentService.IntentType.FILE_DOWNLOAD, "pom"))) {
+            assertTrue(search.running.await(2, TimeUnit.SECONDS));
+            Thread.sleep(30);
+            // LLM识别出的关键词不同，推测结果不可用
+            search.delayMillis = 0;
+            assertEquals(POM, speculation.searchFiles("pom.xml", "."));
+        }
+
+        assertTrue(search.interrupted.await(2, TimeUnit.SECONDS), "推测搜索应被中断");
+        Map<String, Object> stats = speculative.getStats();
+        assertEquals(0L, stats.get("committed"));
+        assertEquals(1L, stats.get("cancelled"));
+        assertTrue((Long) stats.get("wastedMillis") >= 30, "wasted: " + stats.get("wastedMillis"));
+        speculative.shutdown();
+    }
+
+    @Test
+    void testNoSpeculationWithoutQueryOrWhenDisabled() {
+        CountingSearchService search = new CountingSearchService(0);
+        SpeculativeSearch disabled = new SpeculativeSearch(search, false, 2);
+        SpeculativeSearch enabled = new SpeculativeSearch(search, true, 2);
+
+        disabled.start(intent(AgentService.IntentType.FILE_SEARCH, "pom.xml")).close();
+        enabled.start(new AgentService.Intent(AgentService.IntentType.SYSTEM_INFO, Map.of())).close();
+
+        assertEquals(0, search.calls.get());
+        assertEquals(0L, enabled.getStats().get("started"));
+        disabled.shutdown();
+        enabled.shutdown();
+    }
+
+    private static AgentService.Intent intent(AgentService.IntentType type, String query) {
+        return new AgentService.Intent(type, Map.of("query", query));
+    }
+
+    private static class CountingSearchService extends FileSearchService {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch running = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private volatile long delayMillis;
+
+        CountingSearchService(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public List<FileInfo> searchFiles(String query, String basePath) {
+            calls.incrementAndGet();
+            running.countDown();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return POM;
+        }
+
+        @Override
+        public List<FileContentMatch> searchFileContent(String query, String basePath) {
+            calls.incrementAndGet();
+            return List.of();
+        }
+    }
+}
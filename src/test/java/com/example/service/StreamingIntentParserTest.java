@@ -0,0 +1,106 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingIntentParserTest {
+
+    private static final String DOWNLOAD_JSON = """
+            {
+                "intent": "FILE_DOWNLOAD",
+                "parameters": {
+                    "targetDirectory": "./out",
+                    "query": "pom.xml"
+                }
+            }
+            """;
+
+    @Test
+    void testParsesRegardlessOfChunkBoundaries() {
+        String output = "<think>用户想下载 {pom} 文件</think>\n```json\n" + DOWNLOAD_JSON + "```";
+        for (int split = 1; split < output.length(); split++) {
+            StreamingIntentParser parser = new StreamingIntentParser();
+            AgentService.Intent intent = parser.feed(output.substring(0, split));
+            if (intent == null) {
+                intent = parser.feed(output.substring(split));
+            }
+            assertNotNull(intent, "split at " + split);
+            assertEquals(AgentService.IntentType.FILE_DOWNLOAD, intent.getType());
+            assertEquals("pom.xml", intent.getParameters().get("query"));
+            assertEquals("./out", intent.getParameters().get("targetDirectory"));
+        }
+    }
+
+    @Test
+    void testDispatchesAsSoonAsAllIntentParametersAreComplete() {
+        StreamingIntentParser parser = new StreamingIntentParser();
+
+        assertNull(parser.feed("{\"intent\": \"FILE_SEARCH\", \"parameters\": {\"query\": \"Agent"));
+        // query完整后仍等待basePath
+        assertNull(parser.feed("Service\", \"basePath\": \"./sr"));
+        AgentService.Intent intent = parser.feed("c\", \"reason\"");
+
+        assertEquals(AgentService.IntentType.FILE_SEARCH, intent.getType());
+        assertEquals("AgentService", intent.getParameters().get("query"));
+        assertEquals("./src", intent.getParameters().get("basePath"));
+        // 参数无需等待的意图在intent字段完整时即可分发
+        assertEquals(AgentService.IntentType.SYSTEM_INFO,
+                new StreamingIntentParser().feed("{\"intent\":\"SYSTEM_INFO\",").getType());
+    }
+
+    @Test
+    void testParametersAreNotDroppedWhenEmittedOutOfSchemaOrder() {
+        AgentService.Intent download = new StreamingIntentParser().feed(
+                "{\"intent\":\"FILE_DOWNLOAD\",\"parameters\":{\"query\":\"report\",\"url\":\"https://a.com/r.pdf\"}}");
+        assertEquals("https://a.com/r.pdf", download.getParameters().get("url"));
+
+        AgentService.Intent read = new StreamingIntentParser().feed(
+                "{\"intent\":\"FILE_READ\",\"parameters\":{\"filePath\":\"README.md\",\"mode\":\"summary\"}}");
+        assertEquals("summary", read.getParameters().get("mode"));
+    }
+
+    @Test
+    void testEscapesNullsAndIncompleteOutput() {
+        StreamingIntentParser parser = new StreamingIntentParser();
+        AgentService.Intent intent = parser.feed(
+                "{\"intent\":\"FILE_READ\",\"parameters\":{\"url\":null,\"filePath\":\"C:\\\\dir\\\\\\u6587\\u4ef6.txt\"}}");
+
+        assertEquals("C:\\dir\\文件.txt", intent.getParameters().get("filePath"));
+        assertFalse(intent.getParameters().containsKey("url"));
+
+        StreamingIntentParser truncated = new StreamingIntentParser();
+        assertNull(truncated.feed("{\"intent\":\"FILE_DOWNLOAD\",\"parameters\":{"));
+        assertEquals(AgentService.IntentType.FILE_DOWNLOAD, truncated.finish().getType());
+        assertNull(new StreamingIntentParser().finish());
+        assertEquals(AgentService.IntentType.GENERAL_CHAT,
+                new StreamingIntentParser().feed("{\"intent\":\"UNKNOWN\"}").getType());
+    }
+
+    @Test
+    void testGenerationIsCancelledAfterDispatch() {
+        List<String> tokens = new ArrayList<>();
+        String output = "{\"intent\":\"FILE_DOWNLOAD\",\"parameters\":{\"url\":\"https://a.com/f.zip\"},"
+                + "\"reason\":\"" + "x".repeat(500) + "\"}";
+        for (int i = 0; i < output.length(); i += 4) {
+            tokens.add(output.substring(i, Math.min(output.length(), i + 4)));
+        }
+        AtomicInteger emitted = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        AgentService.Intent intent = StreamingIntentParser.parse(Flux.fromIterable(tokens)
+                        .doOnNext(token -> emitted.incrementAndGet())
+                        .doOnCancel(() -> cancelled.set(true)))
+                .block();
+
+        assertEquals("https://a.com/f.zip", intent.getParameters().get("url"));
+        assertTrue(cancelled.get());
+        assertTrue(emitted.get() < 20, "tokens consumed: " + emitted.get());
+    }
+}
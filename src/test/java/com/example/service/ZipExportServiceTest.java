@@ -0,0 +1,102 @@
+package com.example.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipExportServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    // 阈值设为64KB，使测试同时覆盖内存压缩和流式压缩两条路径
+    private final ZipExportService service = new ZipExportService(new FileSearchService(), 4, 64 * 1024, 6);
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void testMixedEntriesRoundTrip() throws Exception {
+        Map<String, byte[]> expected = new HashMap<>();
+        Path dir = Files.createDirectories(tempDir.resolve("data"));
+        for (int i = 0; i < 20; i++) {
+            byte[] text = ("line " + i + "\n").repeat(200).getBytes(StandardCharsets.UTF_8);
+            expected.put("text" + i + ".txt", text);
+            Files.write(dir.resolve("text" + i + ".txt"), text);
+        }
+        byte[] largeText = "streamed content\n".repeat(50_000).getBytes(StandardCharsets.UTF_8);
+        Files.write(dir.resolve("large.log"), largeText);
+        expected.put("large.log", largeText);
+
+        byte[] random = new byte[200 * 1024];
+        new Random(1).nextBytes(random);
+        Files.write(dir.resolve("photo.jpg"), random);
+        expected.put("photo.jpg", random);
+
+        byte[] noise = new byte[1000];
+        new Random(2).nextBytes(noise);
+        Files.write(dir.resolve("noise.bin"), noise);
+        expected.put("noise.bin", noise);
+
+        Path zip = tempDir.resolve("out.zip");
+        try (OutputStream out = Files.newOutputStream(zip)) {
+            service.export(service.resolvePaths(List.of(dir.toString())), out);
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(expected.size(), zipFile.size());
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String fileName = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+                assertArrayEquals(expected.get(fileName), zipFile.getInputStream(entry).readAllBytes(), fileName);
+                if (fileName.equals("photo.jpg") || fileName.equals("noise.bin")) {
+                    assertEquals(ZipEntry.STORED, entry.getMethod(), fileName);
+                } else {
+                    assertEquals(ZipEntry.DEFLATED, entry.getMethod(), fileName);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testDuplicateNamesAreRenamed() throws Exception {
+        Path a = Files.writeString(tempDir.resolve("a.txt"), "first");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.export(List.of(a, a), out);
+
+        Path zip = Files.write(tempDir.resolve("dup.zip"), out.toByteArray());
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(2, zipFile.size());
+            assertTrue(zipFile.stream().anyMatch(e -> e.getName().endsWith("a (1).txt")));
+        }
+    }
+
+    @Test
+    void testUnreadableFileFailsExport() throws Exception {
+        Path a = Files.writeString(tempDir.resolve("a.txt"), "first");
+        Path missing = tempDir.resolve("missing.txt");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(IOException.class, () -> service.export(List.of(a, missing), out));
+    }
+}